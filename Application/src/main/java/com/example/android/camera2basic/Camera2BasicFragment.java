@@ -30,7 +30,6 @@ import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.content.res.Configuration;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.ImageFormat;
 import android.graphics.Matrix;
@@ -51,7 +50,6 @@ import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.CaptureResult;
 import android.hardware.camera2.TotalCaptureResult;
 import android.hardware.camera2.params.StreamConfigurationMap;
-import android.media.ExifInterface;
 import android.media.Image;
 import android.media.ImageReader;
 import android.net.Uri;
@@ -81,12 +79,18 @@ import android.view.ViewGroup;
 import android.widget.ImageButton;
 import android.widget.Toast;
 
-import java.io.ByteArrayInputStream;
+import com.example.android.image.ExifScanner;
+import com.example.android.image.JpegThumbnailDecoder;
+import com.example.android.image.JpegThumbnails;
+import com.example.android.output.RefCountedAutoCloseable;
+import com.example.android.trace.CaptureTracer;
+
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -264,15 +268,31 @@ public class Camera2BasicFragment extends Fragment
     private Handler mBackgroundHandler;
 
     /**
-     * An {@link ImageReader} that handles still image capture.
+     * An {@link ImageReader} that handles still image capture, retained by each image being saved.
      */
-    private ImageReader mImageReader;
+    private RefCountedAutoCloseable<ImageReader> mImageReader;
 
     /**
      * This is the output file for our picture.
      */
     private File mFile;
 
+    /**
+     * Times every stage of each still capture, from {@link #takePicture()} to the media scan of
+     * its file.
+     */
+    private final CaptureTracer mCaptureTracer = new CaptureTracer(8);
+
+    /**
+     * Id of the next still capture, for {@link #mCaptureTracer}.
+     */
+    private int mNextRequestId;
+
+    /**
+     * Id of the still capture in progress.
+     */
+    private volatile int mRequestId;
+
     /**
      * This a callback object for the {@link ImageReader}. "onImageAvailable" will be called when a
      * still image is ready to be saved.
@@ -283,12 +303,28 @@ public class Camera2BasicFragment extends Fragment
         @Override
         public void onImageAvailable(ImageReader reader) {
             Log.d(TAG, "onImageAvailable");
-            Image image = reader.acquireNextImage();
-            ByteBuffer buffer = image.getPlanes()[0].getBuffer();
-            byte[] bytes = new byte[buffer.remaining()];
-            buffer.get(bytes);
-            mBackgroundHandler.post(new ImageSaver(Camera2BasicFragment.this, bytes, mFile));
-            image.close();
+            // The saver writes the image plane directly, so the image stays open, and the
+            // reader retained, until the file has been written.
+            RefCountedAutoCloseable<ImageReader> readerRef = mImageReader;
+            if (readerRef == null || readerRef.getAndRetain() == null) {
+                Log.e(TAG, "ImageReader already closed, dropping image");
+                return;
+            }
+            Image image;
+            try {
+                image = reader.acquireNextImage();
+            } catch (IllegalStateException e) {
+                Log.e(TAG, "Too many images queued for saving, dropping image");
+                image = null;
+            }
+            if (image == null) {
+                readerRef.close();
+                return;
+            }
+            int requestId = mRequestId;
+            mCaptureTracer.mark(requestId, CaptureTracer.STAGE_IMAGE_AVAILABLE);
+            mBackgroundHandler.post(new ImageSaver(Camera2BasicFragment.this, image, readerRef,
+                    mFile, requestId));
         }
 
     };
@@ -597,9 +633,9 @@ public class Camera2BasicFragment extends Fragment
                         Arrays.asList(map.getOutputSizes(ImageFormat.JPEG)),
                         new CompareSizesByArea());
                 largest = new Size(4000, 2000);
-                mImageReader = ImageReader.newInstance(largest.getWidth(), largest.getHeight(),
-                        ImageFormat.JPEG, /*maxImages*/2);
-                mImageReader.setOnImageAvailableListener(
+                mImageReader = new RefCountedAutoCloseable<>(ImageReader.newInstance(
+                        largest.getWidth(), largest.getHeight(), ImageFormat.JPEG, /*maxImages*/2));
+                mImageReader.get().setOnImageAvailableListener(
                         mOnImageAvailableListener, mBackgroundHandler);
 
                 // Find out if we need to swap dimension to get the preview size relative to sensor
@@ -781,7 +817,7 @@ public class Camera2BasicFragment extends Fragment
             mPreviewRequestBuilder.addTarget(surface);
 
             // Here, we create a CameraCaptureSession for camera preview.
-            mCameraDevice.createCaptureSession(Arrays.asList(surface, mImageReader.getSurface()),
+            mCameraDevice.createCaptureSession(Arrays.asList(surface, mImageReader.get().getSurface()),
                     new CameraCaptureSession.StateCallback() {
 
                         @Override
@@ -858,6 +894,8 @@ public class Camera2BasicFragment extends Fragment
      * Initiate a still image capture.
      */
     private void takePicture() {
+        mRequestId = mNextRequestId++;
+        mCaptureTracer.mark(mRequestId, CaptureTracer.STAGE_TAKE_PICTURE);
         lockFocus();
     }
 
@@ -906,10 +944,11 @@ public class Camera2BasicFragment extends Fragment
             if (null == activity || null == mCameraDevice) {
                 return;
             }
+            mCaptureTracer.mark(mRequestId, CaptureTracer.STAGE_AF_LOCKED);
             // This is the CaptureRequest.Builder that we use to take a picture.
             final CaptureRequest.Builder captureBuilder =
                     mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
-            captureBuilder.addTarget(mImageReader.getSurface());
+            captureBuilder.addTarget(mImageReader.get().getSurface());
 
             // Use the same AE and AF modes as the preview.
             captureBuilder.set(CaptureRequest.CONTROL_AF_MODE,
@@ -927,6 +966,7 @@ public class Camera2BasicFragment extends Fragment
                 public void onCaptureCompleted(@NonNull CameraCaptureSession session,
                                                @NonNull CaptureRequest request,
                                                @NonNull TotalCaptureResult result) {
+                    mCaptureTracer.mark(mRequestId, CaptureTracer.STAGE_CAPTURE_COMPLETED);
                     StorageUtils storageUtils = getStorageUtils();
                     try {
                         Date current_date = new Date();
@@ -1061,14 +1101,19 @@ public class Camera2BasicFragment extends Fragment
     }
 
     /**
-     * Saves a JPEG {@link Image} into the specified {@link File}.
+     * Saves a JPEG {@link Image} into the specified {@link File}, straight from its plane, and
+     * closes it.
      */
     private static class ImageSaver implements Runnable {
 
         /**
          * The JPEG image
          */
-        private final byte[] mImageData;
+        private final Image mImage;
+        /**
+         * The reader the image belongs to, retained until the image has been closed.
+         */
+        private final RefCountedAutoCloseable<ImageReader> mReader;
         /**
          * The file we save the image into.
          */
@@ -1076,17 +1121,23 @@ public class Camera2BasicFragment extends Fragment
 
         private final Fragment mFragment;
 
-        ImageSaver(Fragment fragment, byte[] data, File file) {
+        /**
+         * The still capture the image belongs to, for the capture tracer.
+         */
+        private final int mRequestId;
+
+        ImageSaver(Fragment fragment, Image image, RefCountedAutoCloseable<ImageReader> reader,
+                File file, int requestId) {
             mFragment = fragment;
-            mImageData = data;
+            mImage = image;
+            mReader = reader;
             mFile = file;
+            mRequestId = requestId;
         }
 
         @Override
         public void run() {
-            //ByteBuffer buffer = mImage.getPlanes()[0].getBuffer();
-            //byte[] bytes = new byte[buffer.remaining()];
-            //buffer.get(bytes);
+            ByteBuffer buffer = mImage.getPlanes()[0].getBuffer();
             FileOutputStream output = null;
             StorageUtils storageUtils = ((Camera2BasicFragment)mFragment).getStorageUtils();
             try {
@@ -1095,15 +1146,27 @@ public class Camera2BasicFragment extends Fragment
                 File picFile = mFile;
                 if (picFile != null) {
                     output = new FileOutputStream(picFile);
-                    output.write(mImageData);
-                    storageUtils.broadcastFile(picFile, true, false, true);
-                    postUpdateThumbnail();
+                    // The plane goes to the file as it is, without a copy on the heap.
+                    FileChannel channel = output.getChannel();
+                    ByteBuffer data = buffer.duplicate();
+                    while (data.hasRemaining()) {
+                        channel.write(data);
+                    }
+                    final CaptureTracer tracer = ((Camera2BasicFragment) mFragment).mCaptureTracer;
+                    tracer.mark(mRequestId, CaptureTracer.STAGE_FILE_WRITTEN);
+                    storageUtils.broadcastFile(picFile, true, false, true, new Runnable() {
+                        @Override
+                        public void run() {
+                            tracer.mark(mRequestId, CaptureTracer.STAGE_SCAN_COMPLETED);
+                            Log.d(TAG, "capture stages:\n" + tracer);
+                        }
+                    });
+                    postUpdateThumbnail(buffer);
                     Log.d(TAG, "ImageSaver: picFile: " + picFile.toString());
                 }
             } catch (IOException e) {
                 e.printStackTrace();
             } finally {
-                //mImage.close();
                 if (null != output) {
                     try {
                         output.close();
@@ -1111,21 +1174,24 @@ public class Camera2BasicFragment extends Fragment
                         e.printStackTrace();
                     }
                 }
+                mImage.close();
+                mReader.close();
             }
         }
 
-        void postUpdateThumbnail() {
-            Bitmap thumbnail;
-            BitmapFactory.Options options = new BitmapFactory.Options();
-            options.inMutable = false;
-            options.inSampleSize = 2; //TBD gwas
-            thumbnail = BitmapFactory.decodeByteArray(mImageData, 0, mImageData.length, options);
+        void postUpdateThumbnail(ByteBuffer data) {
+            // Only the DC coefficients are decoded, for a 1/8 scale image without any IDCT.
+            Bitmap thumbnail = JpegThumbnails.decode(data, JpegThumbnailDecoder.SCALE_1_8);
+            if (thumbnail == null) {
+                Log.e(TAG, "failed to decode thumbnail");
+                return;
+            }
             if (true) {
                 Log.d(TAG, "thumbnail width: " + thumbnail.getWidth());
                 Log.d(TAG, "thumbnail height: " + thumbnail.getHeight());
             }
             // now get the rotation from the Exif data
-            thumbnail = rotateForExif(thumbnail, mImageData, mFile);
+            thumbnail = rotateForExif(thumbnail, data);
 
             if( thumbnail == null ) {
                 // received crashes on Google Play suggesting that thumbnail could not be created
@@ -1142,82 +1208,21 @@ public class Camera2BasicFragment extends Fragment
             }
         }
 
-        /** Rotates the supplied bitmap according to the orientation tag stored in the exif data. On
-         *  Android 7 onwards, we use the jpeg data; on earlier versions the supplied exifTimeFile is
-         *  used. If no rotation is required, the input bitmap is returned.
+        /** Rotates the supplied bitmap according to the orientation tag stored in the exif data.
+         *  The tag is read straight from the jpeg data in memory, on every Android version. If no
+         *  rotation is required, the input bitmap is returned.
          * @param data Jpeg data containing the Exif information to use.
-         * @param exifTempFile Ignored on Android 7+. If this is null on older versions, the bitmap is
-         *                     returned without rotation.
          */
-        private Bitmap rotateForExif(Bitmap bitmap, byte [] data, File exifTempFile) {
-            InputStream inputStream = null;
-            try {
-                ExifInterface exif;
-
-                if( Build.VERSION.SDK_INT >= Build.VERSION_CODES.N ) {
-                    inputStream = new ByteArrayInputStream(data);
-                    exif = new ExifInterface(inputStream);
-                }
-                else {
-                    if( exifTempFile != null ) {
-                        exif = new ExifInterface(exifTempFile.getAbsolutePath());
-                    }
-                    else {
-                        return bitmap;
-                    }
-                }
-
-                int exif_orientation_s = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_UNDEFINED);
-                boolean needs_tf = false;
-                int exif_orientation = 0;
-                // see http://jpegclub.org/exif_orientation.html
-                // and http://stackoverflow.com/questions/20478765/how-to-get-the-correct-orientation-of-the-image-selected-from-the-default-image
-                switch (exif_orientation_s) {
-                    case ExifInterface.ORIENTATION_UNDEFINED:
-                    case ExifInterface.ORIENTATION_NORMAL:
-                        // leave unchanged
-                        break;
-                    case ExifInterface.ORIENTATION_ROTATE_180:
-                        needs_tf = true;
-                        exif_orientation = 180;
-                        break;
-                    case ExifInterface.ORIENTATION_ROTATE_90:
-                        needs_tf = true;
-                        exif_orientation = 90;
-                        break;
-                    case ExifInterface.ORIENTATION_ROTATE_270:
-                        needs_tf = true;
-                        exif_orientation = 270;
-                        break;
-                    default:
-                        break;
-                }
-
-                if( needs_tf ) {
-                    Matrix m = new Matrix();
-                    m.setRotate(exif_orientation, bitmap.getWidth() * 0.5f, bitmap.getHeight() * 0.5f);
-                    Bitmap rotated_bitmap = Bitmap.createBitmap(bitmap, 0, 0,bitmap.getWidth(), bitmap.getHeight(), m, true);
-                    if( rotated_bitmap != bitmap ) {
-                        bitmap.recycle();
-                        bitmap = rotated_bitmap;
-                    }
-                }
-            }
-            catch(IOException exception) {
-                exception.printStackTrace();
-            }
-            catch(NoClassDefFoundError exception) {
-                exception.printStackTrace();
-            }
-            finally {
-                if( inputStream != null ) {
-                    try {
-                        inputStream.close();
-                    }
-                    catch(IOException e) {
-                        e.printStackTrace();
-                    }
-                    inputStream = null;
+        private Bitmap rotateForExif(Bitmap bitmap, ByteBuffer data) {
+            // see http://jpegclub.org/exif_orientation.html
+            int exif_orientation = ExifScanner.toDegrees(ExifScanner.getOrientation(data));
+            if( exif_orientation != 0 ) {
+                Matrix m = new Matrix();
+                m.setRotate(exif_orientation, bitmap.getWidth() * 0.5f, bitmap.getHeight() * 0.5f);
+                Bitmap rotated_bitmap = Bitmap.createBitmap(bitmap, 0, 0,bitmap.getWidth(), bitmap.getHeight(), m, true);
+                if( rotated_bitmap != bitmap ) {
+                    bitmap.recycle();
+                    bitmap = rotated_bitmap;
                 }
             }
             return bitmap;
@@ -1372,6 +1377,33 @@ public class Camera2BasicFragment extends Fragment
         }
     }
 
+    /** Decodes a 1/8 scale thumbnail of a saved JPEG from its DC coefficients.
+     * @return The thumbnail, or null if the file could not be read.
+     */
+    private Bitmap loadPhotoThumbnail(StorageUtils.Media media) {
+        InputStream inputStream = null;
+        try {
+            inputStream = getActivity().getContentResolver().openInputStream(media.uri);
+            if( inputStream == null )
+                return null;
+            return JpegThumbnails.decode(inputStream, JpegThumbnailDecoder.SCALE_1_8);
+        }
+        catch(IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        finally {
+            if( inputStream != null ) {
+                try {
+                    inputStream.close();
+                }
+                catch(IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
     /** Updates the gallery icon by searching for the most recent photo.
      *  Launches the task in a separate thread.
      */
@@ -1411,7 +1443,9 @@ public class Camera2BasicFragment extends Fragment
                             else {
                                 if( MyDebugLOG )
                                     Log.d(TAG, "load thumbnail for photo");
-                                thumbnail = MediaStore.Images.Thumbnails.getThumbnail(getActivity().getContentResolver(), media.id, MediaStore.Images.Thumbnails.MINI_KIND, null);
+                                thumbnail = loadPhotoThumbnail(media);
+                                if( thumbnail == null )
+                                    thumbnail = MediaStore.Images.Thumbnails.getThumbnail(getActivity().getContentResolver(), media.id, MediaStore.Images.Thumbnails.MINI_KIND, null);
                             }
                         }
                         catch(Throwable exception) {
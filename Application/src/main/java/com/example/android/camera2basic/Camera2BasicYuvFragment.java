@@ -29,7 +29,6 @@ import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.content.res.Configuration;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.ImageFormat;
 import android.graphics.Matrix;
@@ -39,7 +38,6 @@ import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.SurfaceTexture;
 import android.graphics.Typeface;
-import android.graphics.YuvImage;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
@@ -51,12 +49,10 @@ import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.CaptureResult;
 import android.hardware.camera2.TotalCaptureResult;
 import android.hardware.camera2.params.StreamConfigurationMap;
-import android.media.ExifInterface;
 import android.media.Image;
 import android.media.ImageReader;
 import android.net.Uri;
 import android.os.AsyncTask;
-import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
@@ -79,12 +75,20 @@ import android.view.ViewGroup;
 import android.widget.ImageButton;
 import android.widget.Toast;
 
-import java.io.ByteArrayInputStream;
+import com.example.android.image.ByteArrayPool;
+import com.example.android.image.ImagePlaneAdapter;
+import com.example.android.image.JpegEncoder;
+import com.example.android.image.JpegThumbnailDecoder;
+import com.example.android.image.JpegThumbnails;
+import com.example.android.image.YuvDownscaler;
+import com.example.android.image.YuvPlaneCopier;
+import com.example.android.image.YuvRotator;
+import com.example.android.trace.TraceRing;
+
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -92,13 +96,18 @@ import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 public class Camera2BasicYuvFragment extends Fragment
         implements View.OnClickListener, ActivityCompat.OnRequestPermissionsResultCallback {
 
-    private final static boolean VERBOSE = true;
+    // The plane layout of every frame goes to the trace ring; no strings are built for it.
+    private static final TraceRing TRACE = TraceRing.getDefault();
+    private static final int EV_IMAGE_CROP = TRACE.defineEvent("imageCrop", "width", "height");
+    private static final int EV_IMAGE_PLANE = TRACE.defineEvent("imagePlane", "pixelStride",
+            "rowStride");
 
     /**
      * Conversion from screen rotation to JPEG orientation.
@@ -263,6 +272,11 @@ public class Camera2BasicYuvFragment extends Fragment
      */
     private Handler mBackgroundHandler;
 
+    /**
+     * Worker threads for converting full-resolution frames in row stripes.
+     */
+    private ForkJoinPool mConversionPool;
+
     /**
      * An {@link ImageReader} that handles still image capture.
      */
@@ -273,8 +287,55 @@ public class Camera2BasicYuvFragment extends Fragment
      */
     private File mFile;
 
-    private static final int COLOR_FormatI420 = 1;
-    private static final int COLOR_FormatNV21 = 2;
+    /**
+     * Packs the YUV planes of captured images; only used on {@link #mBackgroundThread}.
+     */
+    private final YuvPlaneCopier mYuvPlaneCopier = new YuvPlaneCopier();
+
+    /**
+     * Upper bound on the memory held by {@link #mYuvBufferPool}: two full 12MP NV21 frames.
+     */
+    private static final int MAX_POOLED_YUV_BYTES = 2 * 4000 * 3000 * 3 / 2;
+
+    /**
+     * Upper bound on the number of buffers in {@link #mYuvBufferPool}: a couple of frames plus
+     * the strips of every band the JPEG encoder codes in parallel.
+     */
+    private static final int MAX_POOLED_YUV_BUFFERS = 16;
+
+    /**
+     * Frame-sized buffers borrowed by the YUV consumers, so a burst does not allocate per frame.
+     */
+    private final ByteArrayPool mYuvBufferPool =
+            new ByteArrayPool(MAX_POOLED_YUV_BYTES, MAX_POOLED_YUV_BUFFERS);
+
+    /**
+     * Quality of the JPEG files written for YUV captures.
+     */
+    private static final int JPEG_QUALITY = 100;
+
+    /**
+     * Encodes YUV captures straight from their planes, borrowing its strip buffers from
+     * {@link #mYuvBufferPool}.
+     */
+    private final JpegEncoder mJpegEncoder = new JpegEncoder(JPEG_QUALITY, mYuvBufferPool);
+
+    /**
+     * Longest side, in pixels, of the thumbnail shown on the gallery button.
+     */
+    private static final int THUMBNAIL_MAX_SIZE = 320;
+
+    /**
+     * Builds gallery thumbnails from the planes of YUV captures, so the saved JPEG is never
+     * decoded. Only used on the background thread.
+     */
+    private final YuvDownscaler mYuvDownscaler = new YuvDownscaler();
+
+    /**
+     * Clockwise rotation requested for the capture in flight. YUV outputs ignore
+     * {@link CaptureRequest#JPEG_ORIENTATION}, so the pixels are rotated before encoding.
+     */
+    private volatile int mJpegOrientation;
 
     private static boolean isImageFormatSupported(Image image) {
         int format = image.getFormat();
@@ -287,95 +348,102 @@ public class Camera2BasicYuvFragment extends Fragment
         return false;
     }
 
-    private static byte[] getDataFromImage(Image image, int colorFormat) {
-        if (colorFormat != COLOR_FormatI420 && colorFormat != COLOR_FormatNV21) {
-            throw new IllegalArgumentException("only support COLOR_FormatI420 " + "and COLOR_FormatNV21");
-        }
+    /**
+     * Encode {@code image} upright into {@code fileName} and show its thumbnail. The YUV planes
+     * carry no orientation tag, so the capture's {@link CaptureRequest#JPEG_ORIENTATION} is
+     * applied to the pixels before encoding, and neither the file nor the thumbnail needs to be
+     * rotated afterwards. Must be called before the image is closed.
+     */
+    private void saveYuvImage(String fileName, Image image, int orientation) {
         if (!isImageFormatSupported(image)) {
-            throw new RuntimeException("can't convert Image to byte array, format " + image.getFormat());
+            throw new RuntimeException("can't compress Image to JPEG, format " + image.getFormat());
         }
-        Rect crop = image.getCropRect();
-        int format = image.getFormat();
-        int width = crop.width();
-        int height = crop.height();
-        Image.Plane[] planes = image.getPlanes();
-        byte[] data = new byte[width * height * ImageFormat.getBitsPerPixel(format) / 8];
-        byte[] rowData = new byte[planes[0].getRowStride()];
-        if (VERBOSE) Log.v(TAG, "get data from " + planes.length + " planes");
-        int channelOffset = 0;
-        int outputStride = 1;
-        for (int i = 0; i < planes.length; i++) {
-            switch (i) {
-                case 0:
-                    channelOffset = 0;
-                    outputStride = 1;
-                    break;
-                case 1:
-                    if (colorFormat == COLOR_FormatI420) {
-                        channelOffset = width * height;
-                        outputStride = 1;
-                    } else if (colorFormat == COLOR_FormatNV21) {
-                        channelOffset = width * height + 1;
-                        outputStride = 2;
-                    }
-                    break;
-                case 2:
-                    if (colorFormat == COLOR_FormatI420) {
-                        channelOffset = (int) (width * height * 1.25);
-                        outputStride = 1;
-                    } else if (colorFormat == COLOR_FormatNV21) {
-                        channelOffset = width * height;
-                        outputStride = 2;
-                    }
-                    break;
-            }
-            ByteBuffer buffer = planes[i].getBuffer();
-            int rowStride = planes[i].getRowStride();
-            int pixelStride = planes[i].getPixelStride();
-            if (VERBOSE) {
-                Log.v(TAG, "pixelStride " + pixelStride);
-                Log.v(TAG, "rowStride " + rowStride);
-                Log.v(TAG, "width " + width);
-                Log.v(TAG, "height " + height);
-                Log.v(TAG, "buffer size " + buffer.remaining());
-            }
-            int shift = (i == 0) ? 0 : 1;
-            int w = width >> shift;
-            int h = height >> shift;
-            buffer.position(rowStride * (crop.top >> shift) + pixelStride * (crop.left >> shift));
-            for (int row = 0; row < h; row++) {
-                int length;
-                if (pixelStride == 1 && outputStride == 1) {
-                    length = w;
-                    buffer.get(data, channelOffset, length);
-                    channelOffset += length;
-                } else {
-                    length = (w - 1) * pixelStride + 1;
-                    buffer.get(rowData, 0, length);
-                    for (int col = 0; col < w; col++) {
-                        data[channelOffset] = rowData[col * pixelStride];
-                        channelOffset += outputStride;
-                    }
-                }
-                if (row < h - 1) {
-                    buffer.position(buffer.position() + rowStride - length);
+        Rect rect = image.getCropRect();
+        TRACE.instant(EV_IMAGE_CROP, rect.width(), rect.height());
+        for (Image.Plane plane : image.getPlanes()) {
+            TRACE.instant(EV_IMAGE_PLANE, plane.getPixelStride(), plane.getRowStride());
+        }
+        int left = rect.left & ~1;
+        int top = rect.top & ~1;
+        int width = (rect.right - left) & ~1;
+        int height = (rect.bottom - top) & ~1;
+        YuvPlaneCopier.Plane[] planes = ImagePlaneAdapter.wrap(image);
+        byte[] rotated = null;
+        try {
+            if (orientation != 0) {
+                int size = YuvPlaneCopier.getBufferSize(width, height);
+                byte[] frame = mYuvBufferPool.acquire(size);
+                rotated = mYuvBufferPool.acquire(size);
+                try {
+                    mYuvPlaneCopier.copy(planes, left, top, width, height,
+                            YuvPlaneCopier.FORMAT_I420, frame, 0);
+                    YuvRotator.rotate(frame, 0, width, height, YuvPlaneCopier.FORMAT_I420,
+                            orientation, false, rotated, 0);
+                } finally {
+                    mYuvBufferPool.release(frame);
                 }
+                int rotatedWidth = YuvRotator.getRotatedWidth(width, height, orientation);
+                height = YuvRotator.getRotatedHeight(width, height, orientation);
+                width = rotatedWidth;
+                left = 0;
+                top = 0;
+                planes = YuvPlaneCopier.wrap(rotated, 0, width, height, YuvPlaneCopier.FORMAT_I420);
+            }
+            compressToJpeg(fileName, planes, left, top, width, height);
+            postUpdateThumbnail(planes, left, top, width, height);
+        } finally {
+            if (rotated != null) {
+                mYuvBufferPool.release(rotated);
             }
-            if (VERBOSE) Log.v(TAG, "Finished reading data from plane " + i);
         }
-        return data;
     }
 
-    private void compressToJpeg(String fileName, Image image) {
+    private void compressToJpeg(String fileName, YuvPlaneCopier.Plane[] planes, int left, int top,
+            int width, int height) {
         FileOutputStream outStream;
         try {
             outStream = new FileOutputStream(fileName);
         } catch (IOException ioe) {
             throw new RuntimeException("Unable to create output file " + fileName, ioe);
         }
-        Rect rect = image.getCropRect();
-        YuvImage yuvImage = new YuvImage(getDataFromImage(image, COLOR_FormatNV21), ImageFormat.NV21, rect.width(), rect.height(), null);
-        yuvImage.compressToJpeg(rect, 100, outStream);
+        try {
+            // The planes are encoded a strip at a time, so the frame is never copied whole, and
+            // bands of strips are coded in parallel between restart markers.
+            mJpegEncoder.encode(planes, left, top, width, height, outStream, mConversionPool);
+        } catch (IOException ioe) {
+            throw new RuntimeException("Unable to write output file " + fileName, ioe);
+        } finally {
+            try {
+                outStream.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Box filter YUV planes down to a thumbnail and show it on the gallery button.
+     */
+    private void postUpdateThumbnail(YuvPlaneCopier.Plane[] planes, int left, int top, int width,
+            int height) {
+        int factor = YuvDownscaler.getScaleFactor(width, height, THUMBNAIL_MAX_SIZE);
+        int[] argb = mYuvDownscaler.toArgb(planes, left, top, width, height, factor);
+        if (argb.length == 0) {
+            Log.e(TAG, "capture too small for a thumbnail");
+            return;
+        }
+        final Bitmap thumbnail = Bitmap.createBitmap(argb, width / factor, height / factor,
+                Bitmap.Config.ARGB_8888);
+        Activity activity = getActivity();
+        if (activity == null) {
+            return;
+        }
+        activity.runOnUiThread(new Runnable() {
+            public void run() {
+                updateGalleryIcon(thumbnail);
+                updateThumbnail(thumbnail, false, true);
+            }
+        });
     }
 
     /**
@@ -399,13 +467,11 @@ public class Camera2BasicYuvFragment extends Fragment
             showToast("Saved: " + mFile);
 
             Image image = reader.acquireNextImage();
-            compressToJpeg(mFile.getPath(), image);
-
-/*            ByteBuffer buffer = image.getPlanes()[0].getBuffer();
-            byte[] bytes = new byte[buffer.remaining()];
-            buffer.get(bytes);
-            mBackgroundHandler.post(new ImageSaver(Camera2BasicFragment.this, bytes, mFile));
-            image.close();*/
+            try {
+                saveYuvImage(mFile.getPath(), image, mJpegOrientation);
+            } finally {
+                image.close();
+            }
         }
     };
 
@@ -847,6 +913,7 @@ public class Camera2BasicYuvFragment extends Fragment
                 mImageReader.close();
                 mImageReader = null;
             }
+            mYuvBufferPool.clear();
         } catch (InterruptedException e) {
             throw new RuntimeException("Interrupted while trying to lock camera closing.", e);
         } finally {
@@ -861,6 +928,8 @@ public class Camera2BasicYuvFragment extends Fragment
         mBackgroundThread = new HandlerThread("CameraBackground");
         mBackgroundThread.start();
         mBackgroundHandler = new Handler(mBackgroundThread.getLooper());
+        mConversionPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        mYuvPlaneCopier.setForkJoinPool(mConversionPool);
     }
 
     /**
@@ -875,6 +944,9 @@ public class Camera2BasicYuvFragment extends Fragment
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
+        mYuvPlaneCopier.setForkJoinPool(null);
+        mConversionPool.shutdown();
+        mConversionPool = null;
     }
 
     /**
@@ -1034,7 +1106,8 @@ public class Camera2BasicYuvFragment extends Fragment
 
             // Orientation
             int rotation = activity.getWindowManager().getDefaultDisplay().getRotation();
-            captureBuilder.set(CaptureRequest.JPEG_ORIENTATION, getOrientation(rotation));
+            mJpegOrientation = getOrientation(rotation);
+            captureBuilder.set(CaptureRequest.JPEG_ORIENTATION, mJpegOrientation);
 
             CameraCaptureSession.CaptureCallback captureCallback
                     = new CameraCaptureSession.CaptureCallback() {
@@ -1167,170 +1240,6 @@ public class Camera2BasicYuvFragment extends Fragment
         return mStorageUtils;
     }
 
-    /**
-     * Saves a JPEG {@link Image} into the specified {@link File}.
-     */
-    private static class ImageSaver implements Runnable {
-
-        /**
-         * The JPEG image
-         */
-        private final byte[] mImageData;
-        /**
-         * The file we save the image into.
-         */
-        private final File mFile;
-
-        private final Fragment mFragment;
-
-        ImageSaver(Fragment fragment, byte[] data, File file) {
-            mFragment = fragment;
-            mImageData = data;
-            mFile = file;
-        }
-
-        @Override
-        public void run() {
-            //ByteBuffer buffer = mImage.getPlanes()[0].getBuffer();
-            //byte[] bytes = new byte[buffer.remaining()];
-            //buffer.get(bytes);
-            FileOutputStream output = null;
-            StorageUtils storageUtils = ((Camera2BasicYuvFragment)mFragment).getStorageUtils();
-            try {
-/*                Date current_date = new Date();
-                File picFile = storageUtils.createOutputMediaFile(StorageUtils.MEDIA_TYPE_IMAGE, "", "jpg", current_date);*/
-                File picFile = mFile;
-                if (picFile != null) {
-                    output = new FileOutputStream(picFile);
-                    output.write(mImageData);
-                    storageUtils.broadcastFile(picFile, true, false, true);
-                    postUpdateThumbnail();
-                    Log.d(TAG, "ImageSaver: picFile: " + picFile.toString());
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            } finally {
-                //mImage.close();
-                if (null != output) {
-                    try {
-                        output.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
-            }
-        }
-
-        void postUpdateThumbnail() {
-            Bitmap thumbnail;
-            BitmapFactory.Options options = new BitmapFactory.Options();
-            options.inMutable = false;
-            options.inSampleSize = 2; //TBD gwas
-            thumbnail = BitmapFactory.decodeByteArray(mImageData, 0, mImageData.length, options);
-            if (true) {
-                Log.d(TAG, "thumbnail width: " + thumbnail.getWidth());
-                Log.d(TAG, "thumbnail height: " + thumbnail.getHeight());
-            }
-            // now get the rotation from the Exif data
-            thumbnail = rotateForExif(thumbnail, mImageData, mFile);
-
-            if( thumbnail == null ) {
-                // received crashes on Google Play suggesting that thumbnail could not be created
-                Log.e(TAG, "failed to create thumbnail bitmap");
-            }
-            else {
-                final Bitmap thumbnail_f = thumbnail;
-                mFragment.getActivity().runOnUiThread(new Runnable() {
-                    public void run() {
-                        ((Camera2BasicYuvFragment)mFragment).updateGalleryIcon(thumbnail_f);
-                        ((Camera2BasicYuvFragment)mFragment).updateThumbnail(thumbnail_f, false, true);
-                    }
-                });
-            }
-        }
-
-        /** Rotates the supplied bitmap according to the orientation tag stored in the exif data. On
-         *  Android 7 onwards, we use the jpeg data; on earlier versions the supplied exifTimeFile is
-         *  used. If no rotation is required, the input bitmap is returned.
-         * @param data Jpeg data containing the Exif information to use.
-         * @param exifTempFile Ignored on Android 7+. If this is null on older versions, the bitmap is
-         *                     returned without rotation.
-         */
-        private Bitmap rotateForExif(Bitmap bitmap, byte [] data, File exifTempFile) {
-            InputStream inputStream = null;
-            try {
-                ExifInterface exif;
-
-                if( Build.VERSION.SDK_INT >= Build.VERSION_CODES.N ) {
-                    inputStream = new ByteArrayInputStream(data);
-                    exif = new ExifInterface(inputStream);
-                }
-                else {
-                    if( exifTempFile != null ) {
-                        exif = new ExifInterface(exifTempFile.getAbsolutePath());
-                    }
-                    else {
-                        return bitmap;
-                    }
-                }
-
-                int exif_orientation_s = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_UNDEFINED);
-                boolean needs_tf = false;
-                int exif_orientation = 0;
-                // see http://jpegclub.org/exif_orientation.html
-                // and http://stackoverflow.com/questions/20478765/how-to-get-the-correct-orientation-of-the-image-selected-from-the-default-image
-                switch (exif_orientation_s) {
-                    case ExifInterface.ORIENTATION_UNDEFINED:
-                    case ExifInterface.ORIENTATION_NORMAL:
-                        // leave unchanged
-                        break;
-                    case ExifInterface.ORIENTATION_ROTATE_180:
-                        needs_tf = true;
-                        exif_orientation = 180;
-                        break;
-                    case ExifInterface.ORIENTATION_ROTATE_90:
-                        needs_tf = true;
-                        exif_orientation = 90;
-                        break;
-                    case ExifInterface.ORIENTATION_ROTATE_270:
-                        needs_tf = true;
-                        exif_orientation = 270;
-                        break;
-                    default:
-                        break;
-                }
-
-                if( needs_tf ) {
-                    Matrix m = new Matrix();
-                    m.setRotate(exif_orientation, bitmap.getWidth() * 0.5f, bitmap.getHeight() * 0.5f);
-                    Bitmap rotated_bitmap = Bitmap.createBitmap(bitmap, 0, 0,bitmap.getWidth(), bitmap.getHeight(), m, true);
-                    if( rotated_bitmap != bitmap ) {
-                        bitmap.recycle();
-                        bitmap = rotated_bitmap;
-                    }
-                }
-            }
-            catch(IOException exception) {
-                exception.printStackTrace();
-            }
-            catch(NoClassDefFoundError exception) {
-                exception.printStackTrace();
-            }
-            finally {
-                if( inputStream != null ) {
-                    try {
-                        inputStream.close();
-                    }
-                    catch(IOException e) {
-                        e.printStackTrace();
-                    }
-                    inputStream = null;
-                }
-            }
-            return bitmap;
-        }
-    }
-
     /** Shows a thumbnail for the gallery icon.
      */
     private void updateGalleryIcon(Bitmap thumbnail) {
@@ -1479,6 +1388,33 @@ public class Camera2BasicYuvFragment extends Fragment
         }
     }
 
+    /** Decodes a 1/8 scale thumbnail of a saved JPEG from its DC coefficients.
+     * @return The thumbnail, or null if the file could not be read.
+     */
+    private Bitmap loadPhotoThumbnail(StorageUtils.Media media) {
+        InputStream inputStream = null;
+        try {
+            inputStream = getActivity().getContentResolver().openInputStream(media.uri);
+            if( inputStream == null )
+                return null;
+            return JpegThumbnails.decode(inputStream, JpegThumbnailDecoder.SCALE_1_8);
+        }
+        catch(IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        finally {
+            if( inputStream != null ) {
+                try {
+                    inputStream.close();
+                }
+                catch(IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
     /** Updates the gallery icon by searching for the most recent photo.
      *  Launches the task in a separate thread.
      */
@@ -1518,7 +1454,9 @@ public class Camera2BasicYuvFragment extends Fragment
                             else {
                                 if( MyDebugLOG )
                                     Log.d(TAG, "load thumbnail for photo");
-                                thumbnail = MediaStore.Images.Thumbnails.getThumbnail(getActivity().getContentResolver(), media.id, MediaStore.Images.Thumbnails.MINI_KIND, null);
+                                thumbnail = loadPhotoThumbnail(media);
+                                if( thumbnail == null )
+                                    thumbnail = MediaStore.Images.Thumbnails.getThumbnail(getActivity().getContentResolver(), media.id, MediaStore.Images.Thumbnails.MINI_KIND, null);
                             }
                         }
                         catch(Throwable exception) {
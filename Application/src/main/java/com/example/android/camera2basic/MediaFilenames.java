@@ -0,0 +1,45 @@
+package com.example.android.camera2basic;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Builds the names of saved media files, such as {@code IMG_20170102_030405_1.jpg}.
+ * <p/>
+ * Kept apart from {@link StorageUtils}, which needs a {@code Context}, so the naming can be
+ * exercised off device.
+ */
+public class MediaFilenames {
+
+    private MediaFilenames() {
+    }
+
+    /**
+     * @param prefix    such as {@code "IMG_"}.
+     * @param suffix    appended to the time stamp, may be empty.
+     * @param count     if positive, appended as {@code "_" + count} to make the name unique.
+     * @param extension including its dot, or empty.
+     * @param date      the capture time.
+     * @param zulu      whether the time stamp is in UTC, marked with a {@code Z}, rather than
+     *                  local time.
+     */
+    public static String create(String prefix, String suffix, int count, String extension,
+            Date date, boolean zulu) {
+        String index = "";
+        if( count > 0 ) {
+            index = "_" + count; // try to find a unique filename
+        }
+        String timeStamp;
+        if( zulu ) {
+            SimpleDateFormat fmt = new SimpleDateFormat("yyyyMMdd_HHmmss'Z'", Locale.US);
+            fmt.setTimeZone(TimeZone.getTimeZone("UTC"));
+            timeStamp = fmt.format(date);
+        }
+        else {
+            timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(date);
+        }
+        return prefix + timeStamp + suffix + index + extension;
+    }
+}
@@ -3,10 +3,8 @@ package com.example.android.camera2basic;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
-import java.util.TimeZone;
 
 import android.Manifest;
 import android.annotation.SuppressLint;
@@ -215,6 +213,14 @@ public class StorageUtils {
      *    call this function for DNGs, so that they show up on MTP.
      */
     public void broadcastFile(final File file, final boolean is_new_picture, final boolean is_new_video, final boolean set_last_scanned) {
+        broadcastFile(file, is_new_picture, is_new_video, set_last_scanned, null);
+    }
+
+    /** As broadcastFile(File, boolean, boolean, boolean), and runs on_scanned, if not null, once the media scanner is
+     *  done with the file.
+     */
+    public void broadcastFile(final File file, final boolean is_new_picture, final boolean is_new_video, final boolean set_last_scanned,
+                              final Runnable on_scanned) {
         if( false )
             Log.d(TAG, "broadcastFile: " + file.getAbsolutePath());
         // note that the new method means that the new folder shows up as a file when connected to a PC via MTP (at least tested on Windows 8)
@@ -245,6 +251,8 @@ public class StorageUtils {
                             }
                             announceUri(uri, is_new_picture, is_new_video);
                             //applicationInterface.scannedFile(file, uri);
+                            if( on_scanned != null )
+                                on_scanned.run();
 
                             // it seems caller apps seem to prefer the content:// Uri rather than one based on a File
                             // update for Android 7: seems that passing file uris is now restricted anyway, see https://code.google.com/p/android/issues/detail?id=203555
@@ -558,48 +566,29 @@ public class StorageUtils {
     }
 
     private String createMediaFilename(int type, String suffix, int count, String extension, Date current_date) {
-        String index = "";
-        if( count > 0 ) {
-            index = "_" + count; // try to find a unique filename
-        }
         SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
         boolean useZuluTime = false;//sharedPreferences.getString(PreferenceKeys.getSaveZuluTimePreferenceKey(), "local").equals("zulu");
-        String timeStamp;
-        if( useZuluTime ) {
-            SimpleDateFormat fmt = new SimpleDateFormat("yyyyMMdd_HHmmss'Z'", Locale.US);
-            fmt.setTimeZone(TimeZone.getTimeZone("UTC"));
-            timeStamp = fmt.format(current_date);
-        }
-        else {
-            timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(current_date);
-        }
-        String mediaFilename;
+        String prefix;
         switch (type) {
             case MEDIA_TYPE_GYRO_INFO: // gyro info files have same name as the photo (but different extension)
-            case MEDIA_TYPE_IMAGE: {
-                String prefix = "IMG_";//sharedPreferences.getString(PreferenceKeys.getSavePhotoPrefixPreferenceKey(), "IMG_");
-                mediaFilename = prefix + timeStamp + suffix + index + extension;
+            case MEDIA_TYPE_IMAGE:
+                prefix = "IMG_";//sharedPreferences.getString(PreferenceKeys.getSavePhotoPrefixPreferenceKey(), "IMG_");
                 break;
-            }
-            case MEDIA_TYPE_VIDEO: {
-                String prefix = "VID_";//sharedPreferences.getString(PreferenceKeys.getSaveVideoPrefixPreferenceKey(), "VID_");
-                mediaFilename = prefix + timeStamp + suffix + index + extension;
+            case MEDIA_TYPE_VIDEO:
+                prefix = "VID_";//sharedPreferences.getString(PreferenceKeys.getSaveVideoPrefixPreferenceKey(), "VID_");
                 break;
-            }
-            case MEDIA_TYPE_PREFS: {
+            case MEDIA_TYPE_PREFS:
                 // good to use a prefix that sorts before IMG_ and VID_: annoyingly when using SAF, it doesn't seem possible to
                 // only show the xml files, and it always defaults to sorting alphabetically...
-                String prefix = "BACKUP_OC_";
-                mediaFilename = prefix + timeStamp + suffix + index + extension;
+                prefix = "BACKUP_OC_";
                 break;
-            }
             default:
                 // throw exception as this is a programming error
                 if (false)
                     Log.e(TAG, "unknown type: " + type);
                 throw new RuntimeException();
         }
-        return mediaFilename;
+        return MediaFilenames.create(prefix, suffix, count, extension, current_date, useZuluTime);
     }
 
     // only valid if !isUsingSAF()
@@ -0,0 +1,112 @@
+package com.example.android.image;
+
+/**
+ * A bounded pool of {@code byte[]} buffers keyed by their exact length.
+ * <p/>
+ * Frame-sized buffers are expensive to allocate and collect; borrowing them from here keeps
+ * steady-state capture free of large allocations. Callers {@link #acquire(int)} a buffer, use it
+ * and {@link #release(byte[])} it when done. Buffers that would push the pool over its byte budget
+ * evict the least recently released ones, so a change of resolution does not pin stale sizes.
+ * <p/>
+ * This class is thread safe.
+ */
+public class ByteArrayPool {
+    private final int mMaxBytes;
+    private final byte[][] mBuffers;
+    private int mCount;
+    private int mPooledBytes;
+    private long mHits;
+    private long mMisses;
+
+    /**
+     * @param maxBytes   the most bytes the pool will hold on to.
+     * @param maxBuffers the most buffers the pool will hold on to.
+     */
+    public ByteArrayPool(int maxBytes, int maxBuffers) {
+        if (maxBytes < 0 || maxBuffers < 0) throw new IllegalArgumentException();
+        mMaxBytes = maxBytes;
+        mBuffers = new byte[maxBuffers][];
+    }
+
+    /**
+     * Return a buffer of exactly {@code length} bytes, reusing a pooled one when available. The
+     * contents of a reused buffer are undefined.
+     */
+    public byte[] acquire(int length) {
+        synchronized (this) {
+            // Most recently released first; it is the most likely to still be in cache.
+            for (int i = mCount - 1; i >= 0; i--) {
+                byte[] buffer = mBuffers[i];
+                if (buffer.length == length) {
+                    removeAt(i);
+                    mHits++;
+                    return buffer;
+                }
+            }
+            mMisses++;
+        }
+        return new byte[length];
+    }
+
+    /**
+     * Hand a buffer back to the pool. The caller must not touch it afterwards.
+     *
+     * @throws IllegalStateException if the buffer is already in the pool. Pooling it twice would
+     *                               hand it to two callers of {@link #acquire(int)} at once.
+     */
+    public synchronized void release(byte[] buffer) {
+        if (buffer == null) throw new NullPointerException();
+        for (int i = 0; i < mCount; i++) {
+            if (mBuffers[i] == buffer) {
+                throw new IllegalStateException("buffer of " + buffer.length
+                        + " bytes released twice");
+            }
+        }
+        if (buffer.length > mMaxBytes || mBuffers.length == 0) {
+            return;
+        }
+        while (mCount > 0 && (mCount == mBuffers.length
+                || mPooledBytes + buffer.length > mMaxBytes)) {
+            removeAt(0);
+        }
+        mBuffers[mCount++] = buffer;
+        mPooledBytes += buffer.length;
+    }
+
+    /**
+     * Drop every pooled buffer.
+     */
+    public synchronized void clear() {
+        while (mCount > 0) {
+            removeAt(mCount - 1);
+        }
+    }
+
+    public synchronized int getPooledBytes() {
+        return mPooledBytes;
+    }
+
+    public synchronized int getPooledCount() {
+        return mCount;
+    }
+
+    /**
+     * @return how many {@link #acquire(int)} calls were served from the pool.
+     */
+    public synchronized long getHitCount() {
+        return mHits;
+    }
+
+    /**
+     * @return how many {@link #acquire(int)} calls had to allocate.
+     */
+    public synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    private void removeAt(int index) {
+        mPooledBytes -= mBuffers[index].length;
+        System.arraycopy(mBuffers, index + 1, mBuffers, index, mCount - index - 1);
+        mBuffers[--mCount] = null;
+    }
+}
@@ -0,0 +1,274 @@
+package com.example.android.image;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads integer tags, such as the orientation, straight out of the APP1 Exif segment of a JPEG
+ * held in memory.
+ * <p/>
+ * Only the marker segments ahead of the first scan and the IFD0 and Exif IFD entries are looked
+ * at, in place, without copying the data or building any objects, so it is cheap enough to call
+ * on every saved frame. Buffers are read with absolute gets and their position is not changed.
+ * <p/>
+ * This class is stateless and thread safe.
+ */
+public class ExifScanner {
+
+    /** {@code Orientation}: how the stored pixels map onto the upright image. */
+    public static final int TAG_ORIENTATION = 0x0112;
+
+    /** {@code ISOSpeedRatings}, in the Exif IFD. */
+    public static final int TAG_ISO_SPEED_RATINGS = 0x8827;
+
+    /** {@code PixelXDimension}, in the Exif IFD. */
+    public static final int TAG_PIXEL_X_DIMENSION = 0xA002;
+
+    /** {@code PixelYDimension}, in the Exif IFD. */
+    public static final int TAG_PIXEL_Y_DIMENSION = 0xA003;
+
+    // Orientation values, as in android.media.ExifInterface.
+    public static final int ORIENTATION_UNDEFINED = 0;
+    public static final int ORIENTATION_NORMAL = 1;
+    public static final int ORIENTATION_FLIP_HORIZONTAL = 2;
+    public static final int ORIENTATION_ROTATE_180 = 3;
+    public static final int ORIENTATION_FLIP_VERTICAL = 4;
+    public static final int ORIENTATION_TRANSPOSE = 5;
+    public static final int ORIENTATION_ROTATE_90 = 6;
+    public static final int ORIENTATION_TRANSVERSE = 7;
+    public static final int ORIENTATION_ROTATE_270 = 8;
+
+    private static final int TAG_EXIF_IFD_POINTER = 0x8769;
+
+    private static final int TYPE_BYTE = 1;
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_LONG = 4;
+    private static final int TYPE_SSHORT = 8;
+    private static final int TYPE_SLONG = 9;
+
+    /** Bytes of "Exif\0\0" ahead of the TIFF header in APP1. */
+    private static final int EXIF_HEADER_SIZE = 6;
+
+    private ExifScanner() {
+    }
+
+    /**
+     * @return the {@code ORIENTATION_*} value of the JPEG at {@code data[offset]}, or
+     * {@link #ORIENTATION_UNDEFINED} if it has none.
+     */
+    public static int getOrientation(byte[] data, int offset, int length) {
+        return getIntTag(data, offset, length, TAG_ORIENTATION, ORIENTATION_UNDEFINED);
+    }
+
+    /**
+     * @return the {@code ORIENTATION_*} value of the JPEG between the buffer's position and
+     * limit, or {@link #ORIENTATION_UNDEFINED} if it has none.
+     */
+    public static int getOrientation(ByteBuffer data) {
+        return getIntTag(data, TAG_ORIENTATION, ORIENTATION_UNDEFINED);
+    }
+
+    /**
+     * Look up a single valued BYTE, SHORT or LONG tag in IFD0 or the Exif IFD.
+     *
+     * @return the value, or {@code defaultValue} if the file has no Exif data, the tag is absent
+     * or the data is malformed.
+     */
+    public static int getIntTag(byte[] data, int offset, int length, int tag, int defaultValue) {
+        if (offset < 0 || length < 0 || offset + length > data.length) {
+            throw new IndexOutOfBoundsException("bad range " + offset + "+" + length);
+        }
+        return scan(data, null, offset, offset + length, tag, defaultValue);
+    }
+
+    /**
+     * Look up a single valued BYTE, SHORT or LONG tag in IFD0 or the Exif IFD of the JPEG between
+     * the buffer's position and limit.
+     *
+     * @return the value, or {@code defaultValue} if the file has no Exif data, the tag is absent
+     * or the data is malformed.
+     */
+    public static int getIntTag(ByteBuffer data, int tag, int defaultValue) {
+        if (data.hasArray()) {
+            return scan(data.array(), null, data.arrayOffset() + data.position(),
+                    data.arrayOffset() + data.limit(), tag, defaultValue);
+        }
+        return scan(null, data, data.position(), data.limit(), tag, defaultValue);
+    }
+
+    /**
+     * @return the clockwise rotation, in degrees, that displays an image with the given
+     * {@code ORIENTATION_*} upright, ignoring any mirroring; the same mapping as
+     * {@code ExifInterface.getRotationDegrees()}.
+     */
+    public static int toDegrees(int orientation) {
+        switch (orientation) {
+            case ORIENTATION_ROTATE_90:
+            case ORIENTATION_TRANSVERSE:
+                return 90;
+            case ORIENTATION_ROTATE_180:
+            case ORIENTATION_FLIP_VERTICAL:
+                return 180;
+            case ORIENTATION_ROTATE_270:
+            case ORIENTATION_TRANSPOSE:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Walk the marker segments in {@code [start, end)} of either {@code array} or {@code buffer}
+     * to the first Exif APP1 segment and look the tag up there.
+     */
+    private static int scan(byte[] array, ByteBuffer buffer, int start, int end, int tag,
+            int defaultValue) {
+        if (end - start < 4 || get(array, buffer, start) != 0xFF
+                || get(array, buffer, start + 1) != 0xD8) {
+            return defaultValue;
+        }
+        int position = start + 2;
+        while (position + 4 <= end) {
+            if (get(array, buffer, position) != 0xFF) {
+                return defaultValue;
+            }
+            int marker = get(array, buffer, position + 1);
+            if (marker == 0xFF) {
+                // Fill byte ahead of the marker.
+                position++;
+                continue;
+            }
+            if (marker == 0xDA || marker == 0xD9) {
+                // Exif data always precedes the image data.
+                return defaultValue;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                position += 2;
+                continue;
+            }
+            int length = getShort(array, buffer, position + 2, false);
+            int segmentEnd = position + 2 + length;
+            if (length < 2 || segmentEnd > end) {
+                return defaultValue;
+            }
+            if (marker == 0xE1 && isExifHeader(array, buffer, position + 4, segmentEnd)) {
+                return findTag(array, buffer, position + 4 + EXIF_HEADER_SIZE, segmentEnd, tag,
+                        defaultValue);
+            }
+            position = segmentEnd;
+        }
+        return defaultValue;
+    }
+
+    private static boolean isExifHeader(byte[] array, ByteBuffer buffer, int position, int end) {
+        return position + EXIF_HEADER_SIZE <= end
+                && get(array, buffer, position) == 'E'
+                && get(array, buffer, position + 1) == 'x'
+                && get(array, buffer, position + 2) == 'i'
+                && get(array, buffer, position + 3) == 'f'
+                && get(array, buffer, position + 4) == 0
+                && get(array, buffer, position + 5) == 0;
+    }
+
+    /**
+     * Look the tag up in the TIFF structure at {@code [tiff, end)}: IFD0 first, then the Exif
+     * IFD it points to.
+     */
+    private static int findTag(byte[] array, ByteBuffer buffer, int tiff, int end, int tag,
+            int defaultValue) {
+        if (tiff + 8 > end) {
+            return defaultValue;
+        }
+        int order = getShort(array, buffer, tiff, false);
+        boolean little;
+        if (order == 0x4949) {
+            little = true;
+        } else if (order == 0x4D4D) {
+            little = false;
+        } else {
+            return defaultValue;
+        }
+        if (getShort(array, buffer, tiff + 2, little) != 42) {
+            return defaultValue;
+        }
+        long ifd0 = getInt(array, buffer, tiff + 4, little) & 0xFFFFFFFFL;
+        long entry = findEntry(array, buffer, tiff, end, ifd0, tag, little);
+        if (entry < 0 && tag != TAG_EXIF_IFD_POINTER) {
+            long pointer = findEntry(array, buffer, tiff, end, ifd0, TAG_EXIF_IFD_POINTER,
+                    little);
+            if (pointer >= 0) {
+                long exifIfd = getValue(array, buffer, (int) pointer, little) & 0xFFFFFFFFL;
+                entry = findEntry(array, buffer, tiff, end, exifIfd, tag, little);
+            }
+        }
+        if (entry < 0) {
+            return defaultValue;
+        }
+        long value = getValue(array, buffer, (int) entry, little);
+        return value == Long.MIN_VALUE ? defaultValue : (int) value;
+    }
+
+    /**
+     * @return the absolute position of the 12 byte entry for {@code tag} in the IFD at
+     * {@code tiff + ifdOffset}, or -1 if there is none.
+     */
+    private static long findEntry(byte[] array, ByteBuffer buffer, int tiff, int end,
+            long ifdOffset, int tag, boolean little) {
+        if (ifdOffset < 8 || tiff + ifdOffset + 2 > end) {
+            return -1;
+        }
+        int ifd = (int) (tiff + ifdOffset);
+        int count = getShort(array, buffer, ifd, little);
+        int entry = ifd + 2;
+        for (int i = 0; i < count && entry + 12 <= end; i++, entry += 12) {
+            // The spec sorts entries by tag, but not every writer does, so no early exit.
+            if (getShort(array, buffer, entry, little) == tag) {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the value of a single valued integer entry, or {@link Long#MIN_VALUE} if it has
+     * another type or count.
+     */
+    private static long getValue(byte[] array, ByteBuffer buffer, int entry, boolean little) {
+        int type = getShort(array, buffer, entry + 2, little);
+        int count = getInt(array, buffer, entry + 4, little);
+        if (count != 1) {
+            return Long.MIN_VALUE;
+        }
+        // Values of four bytes or less are stored left aligned in the offset field.
+        int field = entry + 8;
+        switch (type) {
+            case TYPE_BYTE:
+                return get(array, buffer, field);
+            case TYPE_SHORT:
+                return getShort(array, buffer, field, little);
+            case TYPE_SSHORT:
+                return (short) getShort(array, buffer, field, little);
+            case TYPE_LONG:
+                return getInt(array, buffer, field, little) & 0xFFFFFFFFL;
+            case TYPE_SLONG:
+                return getInt(array, buffer, field, little);
+            default:
+                return Long.MIN_VALUE;
+        }
+    }
+
+    private static int get(byte[] array, ByteBuffer buffer, int index) {
+        return (array != null ? array[index] : buffer.get(index)) & 0xFF;
+    }
+
+    private static int getShort(byte[] array, ByteBuffer buffer, int index, boolean little) {
+        int b0 = get(array, buffer, index);
+        int b1 = get(array, buffer, index + 1);
+        return little ? (b1 << 8) | b0 : (b0 << 8) | b1;
+    }
+
+    private static int getInt(byte[] array, ByteBuffer buffer, int index, boolean little) {
+        int s0 = getShort(array, buffer, index, little);
+        int s1 = getShort(array, buffer, index + 2, little);
+        return little ? (s1 << 16) | s0 : (s0 << 16) | s1;
+    }
+}
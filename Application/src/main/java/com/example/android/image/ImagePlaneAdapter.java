@@ -0,0 +1,43 @@
+package com.example.android.image;
+
+import android.media.Image;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Exposes the planes of an {@link Image} as {@link YuvPlaneCopier.Plane}s.
+ */
+public class ImagePlaneAdapter implements YuvPlaneCopier.Plane {
+    private final Image.Plane mPlane;
+
+    private ImagePlaneAdapter(Image.Plane plane) {
+        mPlane = plane;
+    }
+
+    /**
+     * Wrap every plane of the given image.
+     */
+    public static YuvPlaneCopier.Plane[] wrap(Image image) {
+        Image.Plane[] planes = image.getPlanes();
+        YuvPlaneCopier.Plane[] wrapped = new YuvPlaneCopier.Plane[planes.length];
+        for (int i = 0; i < planes.length; i++) {
+            wrapped[i] = new ImagePlaneAdapter(planes[i]);
+        }
+        return wrapped;
+    }
+
+    @Override
+    public ByteBuffer getBuffer() {
+        return mPlane.getBuffer();
+    }
+
+    @Override
+    public int getRowStride() {
+        return mPlane.getRowStride();
+    }
+
+    @Override
+    public int getPixelStride() {
+        return mPlane.getPixelStride();
+    }
+}
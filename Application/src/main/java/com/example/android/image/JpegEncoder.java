@@ -0,0 +1,681 @@
+package com.example.android.image;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * A baseline JPEG encoder that streams 4:2:0 YUV planes straight to an {@link OutputStream}.
+ * <p/>
+ * The image is encoded one row of 16x16 MCUs at a time: each strip of 16 luma rows is packed
+ * out of the planes with a {@link YuvPlaneCopier}, transformed and entropy coded before the next
+ * one is read. Working memory is one strip plus a small output buffer, independent of the image
+ * height, and the full frame is never copied.
+ * <p/>
+ * Given a {@link ForkJoinPool}, the scan is instead cut into bands of MCU rows separated by
+ * restart markers. A restart resets the DC predictors and byte aligns the coded data, so every
+ * band can be transformed and entropy coded on its own thread and the results concatenated.
+ * <p/>
+ * Instances are immutable and may be shared between threads.
+ */
+public class JpegEncoder {
+
+    /** Rows of luma samples per MCU row. */
+    static final int MCU_SIZE = 16;
+
+    /** Bands per pool thread, so that uneven bands still keep every thread busy. */
+    private static final int BANDS_PER_THREAD = 4;
+
+    /** Largest restart interval the 16 bit DRI field can hold, in MCUs. */
+    private static final int MAX_RESTART_INTERVAL = 0xFFFF;
+
+    private static final int[] ZIGZAG = {
+            0, 1, 8, 16, 9, 2, 3, 10,
+            17, 24, 32, 25, 18, 11, 4, 5,
+            12, 19, 26, 33, 40, 48, 41, 34,
+            27, 20, 13, 6, 7, 14, 21, 28,
+            35, 42, 49, 56, 57, 50, 43, 36,
+            29, 22, 15, 23, 30, 37, 44, 51,
+            58, 59, 52, 45, 38, 31, 39, 46,
+            53, 60, 61, 54, 47, 55, 62, 63};
+
+    // Quantization and Huffman tables from Annex K of ITU T.81.
+    private static final int[] LUMA_QUANT = {
+            16, 11, 10, 16, 24, 40, 51, 61,
+            12, 12, 14, 19, 26, 58, 60, 55,
+            14, 13, 16, 24, 40, 57, 69, 56,
+            14, 17, 22, 29, 51, 87, 80, 62,
+            18, 22, 37, 56, 68, 109, 103, 77,
+            24, 35, 55, 64, 81, 104, 113, 92,
+            49, 64, 78, 87, 103, 121, 120, 101,
+            72, 92, 95, 98, 112, 100, 103, 99};
+
+    private static final int[] CHROMA_QUANT = {
+            17, 18, 24, 47, 99, 99, 99, 99,
+            18, 21, 26, 66, 99, 99, 99, 99,
+            24, 26, 56, 99, 99, 99, 99, 99,
+            47, 66, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99};
+
+    private static final int[] DC_LUMA_BITS = {0, 1, 5, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0};
+    private static final int[] DC_CHROMA_BITS = {0, 3, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0};
+    private static final int[] DC_VALUES = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+
+    private static final int[] AC_LUMA_BITS = {0, 2, 1, 3, 3, 2, 4, 3, 5, 5, 4, 4, 0, 0, 1, 0x7d};
+    private static final int[] AC_LUMA_VALUES = {
+            0x01, 0x02, 0x03, 0x00, 0x04, 0x11, 0x05, 0x12, 0x21, 0x31, 0x41, 0x06, 0x13, 0x51,
+            0x61, 0x07, 0x22, 0x71, 0x14, 0x32, 0x81, 0x91, 0xa1, 0x08, 0x23, 0x42, 0xb1, 0xc1,
+            0x15, 0x52, 0xd1, 0xf0, 0x24, 0x33, 0x62, 0x72, 0x82, 0x09, 0x0a, 0x16, 0x17, 0x18,
+            0x19, 0x1a, 0x25, 0x26, 0x27, 0x28, 0x29, 0x2a, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39,
+            0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49, 0x4a, 0x53, 0x54, 0x55, 0x56, 0x57,
+            0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a, 0x73, 0x74, 0x75,
+            0x76, 0x77, 0x78, 0x79, 0x7a, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89, 0x8a, 0x92,
+            0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5, 0xa6, 0xa7,
+            0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3,
+            0xc4, 0xc5, 0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8,
+            0xd9, 0xda, 0xe1, 0xe2, 0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf1, 0xf2,
+            0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8, 0xf9, 0xfa};
+
+    private static final int[] AC_CHROMA_BITS = {0, 2, 1, 2, 4, 4, 3, 4, 7, 5, 4, 4, 0, 1, 2, 0x77};
+    private static final int[] AC_CHROMA_VALUES = {
+            0x00, 0x01, 0x02, 0x03, 0x11, 0x04, 0x05, 0x21, 0x31, 0x06, 0x12, 0x41, 0x51, 0x07,
+            0x61, 0x71, 0x13, 0x22, 0x32, 0x81, 0x08, 0x14, 0x42, 0x91, 0xa1, 0xb1, 0xc1, 0x09,
+            0x23, 0x33, 0x52, 0xf0, 0x15, 0x62, 0x72, 0xd1, 0x0a, 0x16, 0x24, 0x34, 0xe1, 0x25,
+            0xf1, 0x17, 0x18, 0x19, 0x1a, 0x26, 0x27, 0x28, 0x29, 0x2a, 0x35, 0x36, 0x37, 0x38,
+            0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49, 0x4a, 0x53, 0x54, 0x55, 0x56,
+            0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a, 0x73, 0x74,
+            0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x82, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89,
+            0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5,
+            0xa6, 0xa7, 0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba,
+            0xc2, 0xc3, 0xc4, 0xc5, 0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6,
+            0xd7, 0xd8, 0xd9, 0xda, 0xe2, 0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf2,
+            0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8, 0xf9, 0xfa};
+
+    /** Scale factors of the AAN forward DCT, folded into the quantization divisors. */
+    private static final double[] AAN_SCALE = {
+            1.0, 1.387039845, 1.306562965, 1.175875602,
+            1.0, 0.785694958, 0.541196100, 0.275899379};
+
+    private static final int[] DC_LUMA_CODES = new int[12];
+    private static final int[] DC_LUMA_SIZES = new int[12];
+    private static final int[] DC_CHROMA_CODES = new int[12];
+    private static final int[] DC_CHROMA_SIZES = new int[12];
+    private static final int[] AC_LUMA_CODES = new int[256];
+    private static final int[] AC_LUMA_SIZES = new int[256];
+    private static final int[] AC_CHROMA_CODES = new int[256];
+    private static final int[] AC_CHROMA_SIZES = new int[256];
+
+    static {
+        buildHuffmanCodes(DC_LUMA_BITS, DC_VALUES, DC_LUMA_CODES, DC_LUMA_SIZES);
+        buildHuffmanCodes(DC_CHROMA_BITS, DC_VALUES, DC_CHROMA_CODES, DC_CHROMA_SIZES);
+        buildHuffmanCodes(AC_LUMA_BITS, AC_LUMA_VALUES, AC_LUMA_CODES, AC_LUMA_SIZES);
+        buildHuffmanCodes(AC_CHROMA_BITS, AC_CHROMA_VALUES, AC_CHROMA_CODES, AC_CHROMA_SIZES);
+    }
+
+    private final ByteArrayPool mBufferPool;
+    private final int[] mLumaQuant = new int[64];
+    private final int[] mChromaQuant = new int[64];
+    private final float[] mLumaDivisors = new float[64];
+    private final float[] mChromaDivisors = new float[64];
+
+    /**
+     * @param quality    JPEG quality, from 1 to 100.
+     * @param bufferPool pool to borrow strip buffers from, or null to allocate them.
+     */
+    public JpegEncoder(int quality, ByteArrayPool bufferPool) {
+        if (quality < 1 || quality > 100) {
+            throw new IllegalArgumentException("quality must be in [1, 100], got " + quality);
+        }
+        mBufferPool = bufferPool;
+        int scale = quality < 50 ? 5000 / quality : 200 - quality * 2;
+        for (int i = 0; i < 64; i++) {
+            mLumaQuant[i] = Math.max(1, Math.min(255, (LUMA_QUANT[i] * scale + 50) / 100));
+            mChromaQuant[i] = Math.max(1, Math.min(255, (CHROMA_QUANT[i] * scale + 50) / 100));
+            double aan = AAN_SCALE[i >> 3] * AAN_SCALE[i & 7] * 8.0;
+            mLumaDivisors[i] = (float) (1.0 / (mLumaQuant[i] * aan));
+            mChromaDivisors[i] = (float) (1.0 / (mChromaQuant[i] * aan));
+        }
+    }
+
+    /**
+     * Encode the cropped region of a YUV 4:2:0 image.
+     *
+     * @param planes the Y, U and V planes of the image.
+     * @param left   left edge of the crop rectangle, in luma samples.
+     * @param top    top edge of the crop rectangle, in luma samples.
+     * @param width  width of the crop rectangle; must be even.
+     * @param height height of the crop rectangle; must be even.
+     * @param out    the stream to write the JPEG file to. It is not closed.
+     */
+    public void encode(YuvPlaneCopier.Plane[] planes, int left, int top, int width, int height,
+            OutputStream out) throws IOException {
+        checkSize(width, height);
+        BitWriter writer = new BitWriter(out);
+        writeHeaders(writer, width, height, 0);
+        encodeRows(planes, left, top, width, height, 0, getMcuRows(height), writer,
+                new YuvPlaneCopier());
+        writer.writeMarker(0xD9);
+        writer.flush();
+    }
+
+    /**
+     * Encode the cropped region of a YUV 4:2:0 image, coding bands of MCU rows in parallel on
+     * {@code pool}. Bands are written to {@code out} in order as they complete, and at most a
+     * few bands per pool thread are held in memory at once. Falls back to {@link #encode(
+     * YuvPlaneCopier.Plane[], int, int, int, int, OutputStream)} when the pool is null or the
+     * image is too short to split.
+     * <p/>
+     * The planes' buffers are only read through duplicates, and must not be modified until this
+     * method returns.
+     */
+    public void encode(YuvPlaneCopier.Plane[] planes, int left, int top, int width, int height,
+            OutputStream out, ForkJoinPool pool) throws IOException {
+        checkSize(width, height);
+        int mcuRows = getMcuRows(height);
+        int mcusPerRow = (width + MCU_SIZE - 1) / MCU_SIZE;
+        int bandRows = pool == null ? mcuRows : getBandRows(mcuRows, mcusPerRow,
+                pool.getParallelism());
+        if (bandRows >= mcuRows) {
+            encode(planes, left, top, width, height, out);
+            return;
+        }
+
+        BitWriter writer = new BitWriter(out);
+        writeHeaders(writer, width, height, bandRows * mcusPerRow);
+        writer.flush();
+
+        int bands = (mcuRows + bandRows - 1) / bandRows;
+        int window = pool.getParallelism() * 2;
+        ArrayDeque<Future<ByteArrayOutputStream>> pending = new ArrayDeque<>();
+        try {
+            for (int band = 0; band < bands; band++) {
+                if (pending.size() == window) {
+                    writeBand(pending.removeFirst(), out);
+                }
+                pending.addLast(pool.submit(new Band(planes, left, top, width, height,
+                        band, bands, bandRows)));
+            }
+            while (!pending.isEmpty()) {
+                writeBand(pending.removeFirst(), out);
+            }
+        } finally {
+            for (Future<ByteArrayOutputStream> band : pending) {
+                band.cancel(false);
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Pick the number of MCU rows per band for {@code threads} threads, keeping the restart
+     * interval within range.
+     */
+    static int getBandRows(int mcuRows, int mcusPerRow, int threads) {
+        int bands = Math.max(1, threads * BANDS_PER_THREAD);
+        int bandRows = (mcuRows + bands - 1) / bands;
+        return Math.max(1, Math.min(bandRows, MAX_RESTART_INTERVAL / mcusPerRow));
+    }
+
+    private static void writeBand(Future<ByteArrayOutputStream> band, OutputStream out)
+            throws IOException {
+        try {
+            band.get().writeTo(out);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while encoding", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    static int getMcuRows(int height) {
+        return (height + MCU_SIZE - 1) / MCU_SIZE;
+    }
+
+    static void checkSize(int width, int height) {
+        if (width < 2 || height < 2 || (width & 1) != 0 || (height & 1) != 0
+                || width > 0xFFFF || height > 0xFFFF) {
+            throw new IllegalArgumentException("unsupported size " + width + "x" + height);
+        }
+    }
+
+    /**
+     * Write everything up to and including the start of scan.
+     *
+     * @param restartInterval MCUs between restart markers, or 0 for none.
+     */
+    void writeHeaders(BitWriter writer, int width, int height, int restartInterval)
+            throws IOException {
+        // SOI and a JFIF APP0 so decoders treat the samples as full range YCbCr.
+        writer.writeShort(0xFFD8);
+        writer.writeShort(0xFFE0);
+        writer.writeShort(16);
+        writer.writeByte('J');
+        writer.writeByte('F');
+        writer.writeByte('I');
+        writer.writeByte('F');
+        writer.writeByte(0);
+        writer.writeShort(0x0101);
+        writer.writeByte(0);
+        writer.writeShort(1);
+        writer.writeShort(1);
+        writer.writeShort(0);
+
+        writer.writeShort(0xFFDB);
+        writer.writeShort(2 + 2 * 65);
+        writer.writeByte(0);
+        for (int i = 0; i < 64; i++) {
+            writer.writeByte(mLumaQuant[ZIGZAG[i]]);
+        }
+        writer.writeByte(1);
+        for (int i = 0; i < 64; i++) {
+            writer.writeByte(mChromaQuant[ZIGZAG[i]]);
+        }
+
+        writer.writeShort(0xFFC0);
+        writer.writeShort(17);
+        writer.writeByte(8);
+        writer.writeShort(height);
+        writer.writeShort(width);
+        writer.writeByte(3);
+        writer.writeByte(1);
+        writer.writeByte(0x22);
+        writer.writeByte(0);
+        writer.writeByte(2);
+        writer.writeByte(0x11);
+        writer.writeByte(1);
+        writer.writeByte(3);
+        writer.writeByte(0x11);
+        writer.writeByte(1);
+
+        writer.writeShort(0xFFC4);
+        writer.writeShort(2 + 4 * 17 + DC_VALUES.length * 2 + AC_LUMA_VALUES.length
+                + AC_CHROMA_VALUES.length);
+        writeHuffmanTable(writer, 0x00, DC_LUMA_BITS, DC_VALUES);
+        writeHuffmanTable(writer, 0x10, AC_LUMA_BITS, AC_LUMA_VALUES);
+        writeHuffmanTable(writer, 0x01, DC_CHROMA_BITS, DC_VALUES);
+        writeHuffmanTable(writer, 0x11, AC_CHROMA_BITS, AC_CHROMA_VALUES);
+
+        if (restartInterval > 0) {
+            writer.writeShort(0xFFDD);
+            writer.writeShort(4);
+            writer.writeShort(restartInterval);
+        }
+
+        writer.writeShort(0xFFDA);
+        writer.writeShort(12);
+        writer.writeByte(3);
+        writer.writeByte(1);
+        writer.writeByte(0x00);
+        writer.writeByte(2);
+        writer.writeByte(0x11);
+        writer.writeByte(3);
+        writer.writeByte(0x11);
+        writer.writeByte(0);
+        writer.writeByte(63);
+        writer.writeByte(0);
+    }
+
+    /**
+     * Entropy code MCU rows {@code [from, to)} into {@code writer}. The DC predictors start from
+     * zero, as they do at the start of a scan or after a restart marker.
+     */
+    void encodeRows(YuvPlaneCopier.Plane[] planes, int left, int top, int width, int height,
+            int from, int to, BitWriter writer, YuvPlaneCopier copier) throws IOException {
+        int stripSize = YuvPlaneCopier.getBufferSize(width, MCU_SIZE);
+        byte[] strip = mBufferPool != null ? mBufferPool.acquire(stripSize) : new byte[stripSize];
+        try {
+            float[] block = new float[64];
+            int[] coefficients = new int[64];
+            int[] lastDc = new int[3];
+            int chromaWidth = width >> 1;
+            for (int mcuRow = from; mcuRow < to; mcuRow++) {
+                int y = mcuRow * MCU_SIZE;
+                int rows = Math.min(MCU_SIZE, height - y);
+                int chromaRows = rows >> 1;
+                copier.copy(planes, left, top + y, width, rows, YuvPlaneCopier.FORMAT_I420,
+                        strip, 0);
+                int uOffset = width * rows;
+                int vOffset = uOffset + chromaWidth * chromaRows;
+                for (int x = 0; x < width; x += MCU_SIZE) {
+                    for (int i = 0; i < 4; i++) {
+                        loadBlock(strip, 0, width, x + (i & 1) * 8, (i >> 1) * 8, width, rows,
+                                block);
+                        lastDc[0] = encodeBlock(writer, block, coefficients, mLumaDivisors,
+                                lastDc[0], DC_LUMA_CODES, DC_LUMA_SIZES, AC_LUMA_CODES,
+                                AC_LUMA_SIZES);
+                    }
+                    loadBlock(strip, uOffset, chromaWidth, x >> 1, 0, chromaWidth, chromaRows,
+                            block);
+                    lastDc[1] = encodeBlock(writer, block, coefficients, mChromaDivisors,
+                            lastDc[1], DC_CHROMA_CODES, DC_CHROMA_SIZES, AC_CHROMA_CODES,
+                            AC_CHROMA_SIZES);
+                    loadBlock(strip, vOffset, chromaWidth, x >> 1, 0, chromaWidth, chromaRows,
+                            block);
+                    lastDc[2] = encodeBlock(writer, block, coefficients, mChromaDivisors,
+                            lastDc[2], DC_CHROMA_CODES, DC_CHROMA_SIZES, AC_CHROMA_CODES,
+                            AC_CHROMA_SIZES);
+                }
+            }
+        } finally {
+            if (mBufferPool != null) {
+                mBufferPool.release(strip);
+            }
+        }
+    }
+
+    /**
+     * Load an 8x8 block of level-shifted samples, replicating the last row and column for
+     * blocks that hang over the edge of the image.
+     */
+    private static void loadBlock(byte[] src, int offset, int stride, int x0, int y0,
+            int width, int height, float[] block) {
+        boolean inside = x0 + 8 <= width && y0 + 8 <= height;
+        for (int row = 0; row < 8; row++) {
+            int y = inside ? y0 + row : Math.min(y0 + row, height - 1);
+            int rowOffset = offset + y * stride;
+            for (int col = 0; col < 8; col++) {
+                int x = inside ? x0 + col : Math.min(x0 + col, width - 1);
+                block[row * 8 + col] = (src[rowOffset + x] & 0xFF) - 128;
+            }
+        }
+    }
+
+    /**
+     * Transform, quantize and entropy code one block.
+     *
+     * @return the quantized DC coefficient, the predictor for the next block.
+     */
+    private static int encodeBlock(BitWriter writer, float[] block, int[] coefficients,
+            float[] divisors, int lastDc, int[] dcCodes, int[] dcSizes, int[] acCodes,
+            int[] acSizes) throws IOException {
+        forwardDct(block);
+        for (int i = 0; i < 64; i++) {
+            int natural = ZIGZAG[i];
+            coefficients[i] = Math.round(block[natural] * divisors[natural]);
+        }
+
+        int dc = coefficients[0];
+        int diff = dc - lastDc;
+        int category = category(diff);
+        writer.writeBits(dcCodes[category], dcSizes[category]);
+        writer.writeBits(diff < 0 ? diff - 1 : diff, category);
+
+        int run = 0;
+        for (int i = 1; i < 64; i++) {
+            int value = coefficients[i];
+            if (value == 0) {
+                run++;
+                continue;
+            }
+            while (run > 15) {
+                writer.writeBits(acCodes[0xF0], acSizes[0xF0]);
+                run -= 16;
+            }
+            category = category(value);
+            int symbol = (run << 4) | category;
+            writer.writeBits(acCodes[symbol], acSizes[symbol]);
+            writer.writeBits(value < 0 ? value - 1 : value, category);
+            run = 0;
+        }
+        if (run > 0) {
+            writer.writeBits(acCodes[0x00], acSizes[0x00]);
+        }
+        return dc;
+    }
+
+    private static int category(int value) {
+        return 32 - Integer.numberOfLeadingZeros(value < 0 ? -value : value);
+    }
+
+    /**
+     * In-place AAN forward DCT, as in the IJG floating point implementation. The outputs are
+     * scaled by the {@link #AAN_SCALE} factors, which the quantization divisors undo.
+     */
+    private static void forwardDct(float[] data) {
+        for (int pass = 0; pass < 2; pass++) {
+            int step = pass == 0 ? 1 : 8;
+            int next = pass == 0 ? 8 : 1;
+            for (int i = 0; i < 8; i++) {
+                int p = i * next;
+                float d0 = data[p];
+                float d1 = data[p + step];
+                float d2 = data[p + 2 * step];
+                float d3 = data[p + 3 * step];
+                float d4 = data[p + 4 * step];
+                float d5 = data[p + 5 * step];
+                float d6 = data[p + 6 * step];
+                float d7 = data[p + 7 * step];
+
+                float tmp0 = d0 + d7;
+                float tmp7 = d0 - d7;
+                float tmp1 = d1 + d6;
+                float tmp6 = d1 - d6;
+                float tmp2 = d2 + d5;
+                float tmp5 = d2 - d5;
+                float tmp3 = d3 + d4;
+                float tmp4 = d3 - d4;
+
+                float tmp10 = tmp0 + tmp3;
+                float tmp13 = tmp0 - tmp3;
+                float tmp11 = tmp1 + tmp2;
+                float tmp12 = tmp1 - tmp2;
+
+                data[p] = tmp10 + tmp11;
+                data[p + 4 * step] = tmp10 - tmp11;
+
+                float z1 = (tmp12 + tmp13) * 0.707106781f;
+                data[p + 2 * step] = tmp13 + z1;
+                data[p + 6 * step] = tmp13 - z1;
+
+                tmp10 = tmp4 + tmp5;
+                tmp11 = tmp5 + tmp6;
+                tmp12 = tmp6 + tmp7;
+
+                float z5 = (tmp10 - tmp12) * 0.382683433f;
+                float z2 = 0.541196100f * tmp10 + z5;
+                float z4 = 1.306562965f * tmp12 + z5;
+                float z3 = tmp11 * 0.707106781f;
+
+                float z11 = tmp7 + z3;
+                float z13 = tmp7 - z3;
+
+                data[p + 5 * step] = z13 + z2;
+                data[p + 3 * step] = z13 - z2;
+                data[p + step] = z11 + z4;
+                data[p + 7 * step] = z11 - z4;
+            }
+        }
+    }
+
+    private static void writeHuffmanTable(BitWriter writer, int tableClassAndId, int[] bits,
+            int[] values) throws IOException {
+        writer.writeByte(tableClassAndId);
+        for (int count : bits) {
+            writer.writeByte(count);
+        }
+        for (int value : values) {
+            writer.writeByte(value);
+        }
+    }
+
+    private static void buildHuffmanCodes(int[] bits, int[] values, int[] codes, int[] sizes) {
+        int code = 0;
+        int k = 0;
+        for (int length = 1; length <= 16; length++) {
+            for (int i = 0; i < bits[length - 1]; i++) {
+                codes[values[k]] = code++;
+                sizes[values[k]] = length;
+                k++;
+            }
+            code <<= 1;
+        }
+    }
+
+    /**
+     * Codes one band of MCU rows into memory, ending with the restart marker that separates it
+     * from the next band, or with EOI for the last one.
+     */
+    private class Band implements Callable<ByteArrayOutputStream> {
+        private final YuvPlaneCopier.Plane[] mPlanes;
+        private final int mLeft;
+        private final int mTop;
+        private final int mWidth;
+        private final int mHeight;
+        private final int mBand;
+        private final int mBands;
+        private final int mBandRows;
+
+        Band(YuvPlaneCopier.Plane[] planes, int left, int top, int width, int height, int band,
+                int bands, int bandRows) {
+            mPlanes = planes;
+            mLeft = left;
+            mTop = top;
+            mWidth = width;
+            mHeight = height;
+            mBand = band;
+            mBands = bands;
+            mBandRows = bandRows;
+        }
+
+        @Override
+        public ByteArrayOutputStream call() throws IOException {
+            int from = mBand * mBandRows;
+            int to = Math.min(from + mBandRows, getMcuRows(mHeight));
+            // Start at a quarter of a byte per pixel and let the stream grow past that.
+            ByteArrayOutputStream out = new ByteArrayOutputStream(mWidth * (to - from) * 4);
+            BitWriter writer = new BitWriter(out);
+            encodeRows(duplicate(mPlanes), mLeft, mTop, mWidth, mHeight, from, to, writer,
+                    new YuvPlaneCopier());
+            writer.writeMarker(mBand == mBands - 1 ? 0xD9 : 0xD0 + (mBand & 7));
+            writer.flush();
+            return out;
+        }
+    }
+
+    /**
+     * Give each band its own buffer positions, since {@link YuvPlaneCopier} moves them.
+     */
+    private static YuvPlaneCopier.Plane[] duplicate(YuvPlaneCopier.Plane[] planes) {
+        YuvPlaneCopier.Plane[] copies = new YuvPlaneCopier.Plane[planes.length];
+        for (int i = 0; i < planes.length; i++) {
+            copies[i] = new DuplicatePlane(planes[i]);
+        }
+        return copies;
+    }
+
+    private static class DuplicatePlane implements YuvPlaneCopier.Plane {
+        private final ByteBuffer mBuffer;
+        private final int mRowStride;
+        private final int mPixelStride;
+
+        DuplicatePlane(YuvPlaneCopier.Plane plane) {
+            mBuffer = plane.getBuffer().duplicate();
+            mRowStride = plane.getRowStride();
+            mPixelStride = plane.getPixelStride();
+        }
+
+        @Override
+        public ByteBuffer getBuffer() {
+            return mBuffer;
+        }
+
+        @Override
+        public int getRowStride() {
+            return mRowStride;
+        }
+
+        @Override
+        public int getPixelStride() {
+            return mPixelStride;
+        }
+    }
+
+    /**
+     * Buffers marker segments and entropy coded bits, stuffing a zero after every 0xFF in the
+     * coded data, and hands them to the underlying stream in large writes.
+     */
+    static class BitWriter {
+        private final OutputStream mOut;
+        private final byte[] mBuffer = new byte[8192];
+        private int mCount;
+        private int mBits;
+        private int mBitCount;
+
+        BitWriter(OutputStream out) {
+            mOut = out;
+        }
+
+        void writeBits(int value, int size) throws IOException {
+            if (size == 0) {
+                return;
+            }
+            mBits = (mBits << size) | (value & ((1 << size) - 1));
+            mBitCount += size;
+            while (mBitCount >= 8) {
+                mBitCount -= 8;
+                int b = (mBits >> mBitCount) & 0xFF;
+                put(b);
+                if (b == 0xFF) {
+                    put(0);
+                }
+            }
+            mBits &= (1 << mBitCount) - 1;
+        }
+
+        /**
+         * Pad the coded data to a byte boundary with one bits.
+         */
+        void alignToByte() throws IOException {
+            if (mBitCount > 0) {
+                writeBits(0x7F, 8 - mBitCount);
+            }
+        }
+
+        void writeMarker(int marker) throws IOException {
+            alignToByte();
+            put(0xFF);
+            put(marker);
+        }
+
+        void writeByte(int b) throws IOException {
+            put(b & 0xFF);
+        }
+
+        void writeShort(int s) throws IOException {
+            put((s >> 8) & 0xFF);
+            put(s & 0xFF);
+        }
+
+        void flush() throws IOException {
+            alignToByte();
+            mOut.write(mBuffer, 0, mCount);
+            mCount = 0;
+            mOut.flush();
+        }
+
+        private void put(int b) throws IOException {
+            if (mCount == mBuffer.length) {
+                mOut.write(mBuffer, 0, mCount);
+                mCount = 0;
+            }
+            mBuffer[mCount++] = (byte) b;
+        }
+    }
+}
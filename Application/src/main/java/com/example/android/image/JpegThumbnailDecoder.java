@@ -0,0 +1,603 @@
+package com.example.android.image;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Decodes a reduced size preview of a baseline JPEG without running the inverse DCT.
+ * <p/>
+ * At {@link #SCALE_1_8} each 8x8 block becomes a single pixel, the average the DC coefficient
+ * already holds. At {@link #SCALE_1_4} each block becomes 2x2 pixels, the exact averages of its
+ * four quadrants, which only depend on the DC and the odd horizontal and vertical frequencies.
+ * The entropy coded data still has to be walked to find the next block, but the AC coefficients
+ * that do not contribute are skipped without being stored, dequantized or transformed.
+ * <p/>
+ * Baseline and extended sequential Huffman files with 8 bit samples are supported, with any
+ * chroma subsampling, restart intervals and interleaved or per-component scans. Progressive and
+ * arithmetic coded files are rejected with an {@link IOException} so callers can fall back to a
+ * full decoder.
+ * <p/>
+ * This class keeps the state of the decode in progress and is not thread safe.
+ */
+public class JpegThumbnailDecoder {
+
+    /** One pixel per 8x8 block. */
+    public static final int SCALE_1_8 = 8;
+
+    /** Two by two pixels per 8x8 block. */
+    public static final int SCALE_1_4 = 4;
+
+    /** Natural order index of each zigzag position. */
+    private static final int[] ZIGZAG = {
+            0, 1, 8, 16, 9, 2, 3, 10,
+            17, 24, 32, 25, 18, 11, 4, 5,
+            12, 19, 26, 33, 40, 48, 41, 34,
+            27, 20, 13, 6, 7, 14, 21, 28,
+            35, 42, 49, 56, 57, 50, 43, 36,
+            29, 22, 15, 23, 30, 37, 44, 51,
+            58, 59, 52, 45, 38, 31, 39, 46,
+            53, 60, 61, 54, 47, 55, 62, 63};
+
+    /** Frequencies that contribute to the average of a 4 sample half of a block. */
+    private static final int[] HALF_FREQUENCIES = {0, 1, 3, 5, 7};
+
+    /**
+     * For each zigzag position, the weight of that coefficient in the average of the top left
+     * quadrant of the block, or 0 if it does not contribute. The other quadrants negate the
+     * weight for odd horizontal and/or vertical frequencies.
+     */
+    private static final float[] QUADRANT_WEIGHTS = new float[64];
+
+    /** Bit 0 set for odd horizontal frequencies, bit 1 for odd vertical ones, per zigzag index. */
+    private static final int[] QUADRANT_SIGNS = new int[64];
+
+    private static final int LOOKAHEAD_BITS = 9;
+
+    static {
+        // The 1D IDCT basis averaged over samples 0..3: (C(u) / 2) * mean(cos((2x + 1)u pi / 16)).
+        double[] halfAverage = new double[8];
+        for (int u : HALF_FREQUENCIES) {
+            double sum = 0;
+            for (int x = 0; x < 4; x++) {
+                sum += Math.cos((2 * x + 1) * u * Math.PI / 16);
+            }
+            halfAverage[u] = (u == 0 ? Math.sqrt(0.5) : 1.0) / 2 * sum / 4;
+        }
+        for (int k = 0; k < 64; k++) {
+            int u = ZIGZAG[k] & 7;
+            int v = ZIGZAG[k] >> 3;
+            QUADRANT_WEIGHTS[k] = (float) (halfAverage[u] * halfAverage[v]);
+            QUADRANT_SIGNS[k] = (u & 1) | ((v & 1) << 1);
+        }
+    }
+
+    /**
+     * A decoded preview: opaque ARGB pixels, row by row.
+     */
+    public static class Thumbnail {
+        private final int mWidth;
+        private final int mHeight;
+        private final int[] mPixels;
+
+        Thumbnail(int width, int height, int[] pixels) {
+            mWidth = width;
+            mHeight = height;
+            mPixels = pixels;
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        public int[] getPixels() {
+            return mPixels;
+        }
+    }
+
+    private final int[][] mQuantTables = new int[4][];
+    private final HuffmanTable[] mDcTables = new HuffmanTable[4];
+    private final HuffmanTable[] mAcTables = new HuffmanTable[4];
+    private final float[] mQuadrant = new float[4];
+
+    // State of the decode in progress; the file is in either mData or mBuffer.
+    private byte[] mData;
+    private ByteBuffer mBuffer;
+    private int mPosition;
+    private int mEnd;
+    private int mBits;
+    private int mBitCount;
+    private int mScale;
+    private int mWidth;
+    private int mHeight;
+    private int mMaxH;
+    private int mMaxV;
+    private int mMcusX;
+    private int mMcusY;
+    private int mRestartInterval;
+    private Component[] mComponents;
+
+    /**
+     * Decode a reduced preview of a JPEG file.
+     *
+     * @param data   the JPEG file.
+     * @param offset where the file starts in {@code data}.
+     * @param length length of the file.
+     * @param scale  {@link #SCALE_1_8} or {@link #SCALE_1_4}.
+     * @return the preview, rounded up to whole pixels of the reduced size.
+     * @throws IOException if the file is malformed or uses an unsupported coding process.
+     */
+    public Thumbnail decode(byte[] data, int offset, int length, int scale) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > data.length) {
+            throw new IndexOutOfBoundsException("bad range " + offset + "+" + length);
+        }
+        return decode(data, null, offset, offset + length, scale);
+    }
+
+    /**
+     * Decode a reduced preview of the JPEG file between the buffer's position and limit, such as
+     * the plane of a JPEG {@code Image}, without copying it. The buffer's position is not
+     * changed.
+     *
+     * @param scale {@link #SCALE_1_8} or {@link #SCALE_1_4}.
+     * @return the preview, rounded up to whole pixels of the reduced size.
+     * @throws IOException if the file is malformed or uses an unsupported coding process.
+     */
+    public Thumbnail decode(ByteBuffer data, int scale) throws IOException {
+        if (data.hasArray()) {
+            return decode(data.array(), null, data.arrayOffset() + data.position(),
+                    data.arrayOffset() + data.limit(), scale);
+        }
+        return decode(null, data, data.position(), data.limit(), scale);
+    }
+
+    private Thumbnail decode(byte[] data, ByteBuffer buffer, int start, int end, int scale)
+            throws IOException {
+        if (scale != SCALE_1_8 && scale != SCALE_1_4) {
+            throw new IllegalArgumentException("unsupported scale 1/" + scale);
+        }
+        mData = data;
+        mBuffer = buffer;
+        mPosition = start;
+        mEnd = end;
+        mScale = scale;
+        mComponents = null;
+        mRestartInterval = 0;
+        Arrays.fill(mQuantTables, null);
+        Arrays.fill(mDcTables, null);
+        Arrays.fill(mAcTables, null);
+        try {
+            if (readByte() != 0xFF || readByte() != 0xD8) {
+                throw new IOException("not a JPEG file");
+            }
+            boolean scanned = false;
+            while (true) {
+                if (scanned && mPosition + 1 >= mEnd) {
+                    // Tolerate a missing EOI after a complete scan.
+                    break;
+                }
+                int marker = nextMarker();
+                if (marker == 0xD9) {
+                    break;
+                }
+                if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                    continue;
+                }
+                int segmentEnd = mPosition + readShort();
+                if (segmentEnd < mPosition || segmentEnd > mEnd) {
+                    throw new IOException("truncated segment " + Integer.toHexString(marker));
+                }
+                switch (marker) {
+                    case 0xC0:
+                    case 0xC1:
+                        readFrame();
+                        break;
+                    case 0xC4:
+                        readHuffmanTables(segmentEnd);
+                        break;
+                    case 0xDB:
+                        readQuantTables(segmentEnd);
+                        break;
+                    case 0xDD:
+                        mRestartInterval = readShort();
+                        break;
+                    case 0xDA:
+                        readScan();
+                        scanned = true;
+                        continue;
+                    default:
+                        if ((marker >= 0xC2 && marker <= 0xCF) && marker != 0xC4 && marker != 0xC8
+                                && marker != 0xCC) {
+                            throw new IOException("unsupported coding process "
+                                    + Integer.toHexString(marker));
+                        }
+                        break;
+                }
+                mPosition = segmentEnd;
+            }
+            if (!scanned) {
+                throw new IOException("no scan before EOI");
+            }
+            return toThumbnail();
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("truncated JPEG", e);
+        } finally {
+            mData = null;
+            mBuffer = null;
+        }
+    }
+
+    private void readFrame() throws IOException {
+        if (readByte() != 8) {
+            throw new IOException("only 8 bit samples are supported");
+        }
+        mHeight = readShort();
+        mWidth = readShort();
+        int count = readByte();
+        if (mWidth == 0 || mHeight == 0 || (count != 1 && count != 3)) {
+            throw new IOException("unsupported frame " + mWidth + "x" + mHeight + "x" + count);
+        }
+        mComponents = new Component[count];
+        mMaxH = 1;
+        mMaxV = 1;
+        for (int i = 0; i < count; i++) {
+            Component c = new Component();
+            c.id = readByte();
+            int sampling = readByte();
+            c.h = sampling >> 4;
+            c.v = sampling & 15;
+            c.quantTable = readByte() & 3;
+            if (c.h < 1 || c.h > 4 || c.v < 1 || c.v > 4) {
+                throw new IOException("bad sampling factors " + c.h + "x" + c.v);
+            }
+            mMaxH = Math.max(mMaxH, c.h);
+            mMaxV = Math.max(mMaxV, c.v);
+            mComponents[i] = c;
+        }
+        mMcusX = (mWidth + 8 * mMaxH - 1) / (8 * mMaxH);
+        mMcusY = (mHeight + 8 * mMaxV - 1) / (8 * mMaxV);
+        int samples = 8 / mScale;
+        for (Component c : mComponents) {
+            c.blocksX = (int) Math.ceil(Math.ceil((double) mWidth * c.h / mMaxH) / 8);
+            c.blocksY = (int) Math.ceil(Math.ceil((double) mHeight * c.v / mMaxV) / 8);
+            c.stride = mMcusX * c.h * samples;
+            c.samples = new byte[c.stride * mMcusY * c.v * samples];
+        }
+    }
+
+    private void readQuantTables(int segmentEnd) throws IOException {
+        while (mPosition < segmentEnd) {
+            int info = readByte();
+            int[] table = new int[64];
+            boolean wide = (info >> 4) != 0;
+            for (int k = 0; k < 64; k++) {
+                table[k] = wide ? readShort() : readByte();
+            }
+            mQuantTables[info & 3] = table;
+        }
+    }
+
+    private void readHuffmanTables(int segmentEnd) throws IOException {
+        while (mPosition < segmentEnd) {
+            int info = readByte();
+            int[] bits = new int[17];
+            int total = 0;
+            for (int length = 1; length <= 16; length++) {
+                bits[length] = readByte();
+                total += bits[length];
+            }
+            if (total > 256) {
+                throw new IOException("bad Huffman table");
+            }
+            int[] values = new int[total];
+            for (int i = 0; i < total; i++) {
+                values[i] = readByte();
+            }
+            HuffmanTable table = new HuffmanTable(bits, values);
+            if ((info >> 4) == 0) {
+                mDcTables[info & 3] = table;
+            } else {
+                mAcTables[info & 3] = table;
+            }
+        }
+    }
+
+    private void readScan() throws IOException {
+        if (mComponents == null) {
+            throw new IOException("scan before frame header");
+        }
+        int count = readByte();
+        Component[] scan = new Component[count];
+        for (int i = 0; i < count; i++) {
+            int id = readByte();
+            int tables = readByte();
+            for (Component c : mComponents) {
+                if (c.id == id) {
+                    scan[i] = c;
+                }
+            }
+            if (scan[i] == null) {
+                throw new IOException("scan of unknown component " + id);
+            }
+            scan[i].dcTable = mDcTables[tables >> 4];
+            scan[i].acTable = mAcTables[tables & 3];
+            scan[i].quant = mQuantTables[scan[i].quantTable];
+            if (scan[i].dcTable == null || scan[i].acTable == null || scan[i].quant == null) {
+                throw new IOException("missing table for component " + id);
+            }
+            scan[i].dcPredictor = 0;
+        }
+        // Spectral selection and successive approximation are fixed for sequential scans.
+        mPosition += 3;
+        mBits = 0;
+        mBitCount = 0;
+
+        float[] quadrant = mQuadrant;
+        int mcus;
+        int mcusPerRow;
+        if (count == 1) {
+            // A single component scan is not interleaved: one block per MCU, no padding.
+            mcusPerRow = scan[0].blocksX;
+            mcus = mcusPerRow * scan[0].blocksY;
+        } else {
+            mcusPerRow = mMcusX;
+            mcus = mMcusX * mMcusY;
+        }
+        for (int mcu = 0; mcu < mcus; mcu++) {
+            if (mRestartInterval > 0 && mcu > 0 && mcu % mRestartInterval == 0) {
+                restart(scan);
+            }
+            int mcuX = mcu % mcusPerRow;
+            int mcuY = mcu / mcusPerRow;
+            for (Component c : scan) {
+                int h = count == 1 ? 1 : c.h;
+                int v = count == 1 ? 1 : c.v;
+                for (int by = 0; by < v; by++) {
+                    for (int bx = 0; bx < h; bx++) {
+                        decodeBlock(c, mcuX * h + bx, mcuY * v + by, quadrant);
+                    }
+                }
+            }
+        }
+        // Leave the position on the marker that ends the scan.
+        mBitCount = 0;
+        while (mPosition + 1 < mEnd && !(byteAt(mPosition) == 0xFF
+                && byteAt(mPosition + 1) != 0 && (byteAt(mPosition + 1) & 0xF8) != 0xD0)) {
+            mPosition++;
+        }
+    }
+
+    private void restart(Component[] scan) throws IOException {
+        mBits = 0;
+        mBitCount = 0;
+        while (mPosition + 1 < mEnd) {
+            if (byteAt(mPosition) == 0xFF && (byteAt(mPosition + 1) & 0xF8) == 0xD0) {
+                mPosition += 2;
+                for (Component c : scan) {
+                    c.dcPredictor = 0;
+                }
+                return;
+            }
+            mPosition++;
+        }
+        throw new IOException("missing restart marker");
+    }
+
+    private void decodeBlock(Component c, int blockX, int blockY, float[] quadrant)
+            throws IOException {
+        int size = decodeHuffman(c.dcTable);
+        if (size > 11) {
+            throw new IOException("bad DC difference size " + size);
+        }
+        int dc = c.dcPredictor + (size == 0 ? 0 : extend(readBits(size), size));
+        c.dcPredictor = dc;
+        float dcValue = dc * c.quant[0];
+        boolean quarter = mScale == SCALE_1_4;
+        if (quarter) {
+            float value = dcValue * QUADRANT_WEIGHTS[0];
+            quadrant[0] = quadrant[1] = quadrant[2] = quadrant[3] = value;
+        }
+
+        for (int k = 1; k < 64; k++) {
+            int symbol = decodeHuffman(c.acTable);
+            int run = symbol >> 4;
+            size = symbol & 15;
+            if (size == 0) {
+                if (run != 15) {
+                    break;
+                }
+                k += 15;
+                continue;
+            }
+            k += run;
+            if (!quarter || QUADRANT_WEIGHTS[k] == 0) {
+                skipBits(size);
+                continue;
+            }
+            float value = extend(readBits(size), size) * c.quant[k] * QUADRANT_WEIGHTS[k];
+            int signs = QUADRANT_SIGNS[k];
+            quadrant[0] += value;
+            quadrant[1] += (signs & 1) != 0 ? -value : value;
+            quadrant[2] += (signs & 2) != 0 ? -value : value;
+            quadrant[3] += signs == 1 || signs == 2 ? -value : value;
+        }
+
+        if (quarter) {
+            int o = blockY * 2 * c.stride + blockX * 2;
+            c.samples[o] = toSample(quadrant[0]);
+            c.samples[o + 1] = toSample(quadrant[1]);
+            c.samples[o + c.stride] = toSample(quadrant[2]);
+            c.samples[o + c.stride + 1] = toSample(quadrant[3]);
+        } else {
+            c.samples[blockY * c.stride + blockX] = toSample(dcValue / 8);
+        }
+    }
+
+    private static byte toSample(float value) {
+        int sample = Math.round(value) + 128;
+        return (byte) (sample < 0 ? 0 : sample > 255 ? 255 : sample);
+    }
+
+    private Thumbnail toThumbnail() {
+        int samples = 8 / mScale;
+        int width = (mWidth * samples + 7) / 8;
+        int height = (mHeight * samples + 7) / 8;
+        int[] pixels = new int[width * height];
+        Component y = mComponents[0];
+        for (int row = 0; row < height; row++) {
+            int yRow = (row * y.v / mMaxV) * y.stride;
+            for (int col = 0; col < width; col++) {
+                int luma = y.samples[yRow + col * y.h / mMaxH] & 0xFF;
+                if (mComponents.length == 1) {
+                    pixels[row * width + col] = 0xFF000000 | (luma << 16) | (luma << 8) | luma;
+                } else {
+                    pixels[row * width + col] = YuvDownscaler.toArgb(luma,
+                            sample(mComponents[1], col, row), sample(mComponents[2], col, row));
+                }
+            }
+        }
+        return new Thumbnail(width, height, pixels);
+    }
+
+    private int sample(Component c, int x, int y) {
+        return c.samples[(y * c.v / mMaxV) * c.stride + x * c.h / mMaxH] & 0xFF;
+    }
+
+    private int nextMarker() throws IOException {
+        if (readByte() != 0xFF) {
+            throw new IOException("expected a marker at " + (mPosition - 1));
+        }
+        int marker;
+        do {
+            marker = readByte();
+        } while (marker == 0xFF);
+        return marker;
+    }
+
+    private int readByte() throws IOException {
+        if (mPosition >= mEnd) {
+            throw new IOException("unexpected end of JPEG");
+        }
+        return byteAt(mPosition++);
+    }
+
+    private int byteAt(int index) {
+        return (mData != null ? mData[index] : mBuffer.get(index)) & 0xFF;
+    }
+
+    private int readShort() throws IOException {
+        return (readByte() << 8) | readByte();
+    }
+
+    /**
+     * Top the bit buffer up to at least 25 bits, removing stuffed zeros. At a marker or the end
+     * of the data, zeros are fed in instead so a truncated scan decodes as flat blocks.
+     */
+    private void fillBits() {
+        while (mBitCount <= 24) {
+            int b = 0;
+            if (mPosition < mEnd) {
+                b = byteAt(mPosition);
+                if (b != 0xFF) {
+                    mPosition++;
+                } else if (mPosition + 1 < mEnd && byteAt(mPosition + 1) == 0) {
+                    mPosition += 2;
+                } else {
+                    b = 0;
+                }
+            }
+            mBits = (mBits << 8) | b;
+            mBitCount += 8;
+        }
+    }
+
+    private int readBits(int count) {
+        if (mBitCount < count) {
+            fillBits();
+        }
+        mBitCount -= count;
+        return (mBits >>> mBitCount) & ((1 << count) - 1);
+    }
+
+    private void skipBits(int count) {
+        if (mBitCount < count) {
+            fillBits();
+        }
+        mBitCount -= count;
+    }
+
+    private int decodeHuffman(HuffmanTable table) throws IOException {
+        if (mBitCount < 16) {
+            fillBits();
+        }
+        int peek = (mBits >>> (mBitCount - LOOKAHEAD_BITS)) & ((1 << LOOKAHEAD_BITS) - 1);
+        int entry = table.lookup[peek];
+        if (entry != 0) {
+            mBitCount -= entry >> 8;
+            return entry & 0xFF;
+        }
+        for (int length = LOOKAHEAD_BITS + 1; length <= 16; length++) {
+            int code = (mBits >>> (mBitCount - length)) & ((1 << length) - 1);
+            if (code <= table.maxCode[length]) {
+                mBitCount -= length;
+                return table.values[code + table.valueOffset[length]];
+            }
+        }
+        throw new IOException("bad Huffman code");
+    }
+
+    private static int extend(int value, int size) {
+        return value < (1 << (size - 1)) ? value - (1 << size) + 1 : value;
+    }
+
+    private static class Component {
+        int id;
+        int h;
+        int v;
+        int quantTable;
+        int blocksX;
+        int blocksY;
+        int stride;
+        byte[] samples;
+        int[] quant;
+        HuffmanTable dcTable;
+        HuffmanTable acTable;
+        int dcPredictor;
+    }
+
+    /**
+     * Canonical Huffman decoding tables with a {@link #LOOKAHEAD_BITS} bit fast path.
+     */
+    private static class HuffmanTable {
+        /** Code length in bits 8..15 and symbol in bits 0..7, or 0 for longer codes. */
+        final int[] lookup = new int[1 << LOOKAHEAD_BITS];
+        final int[] maxCode = new int[17];
+        final int[] valueOffset = new int[17];
+        final int[] values;
+
+        HuffmanTable(int[] bits, int[] values) {
+            this.values = values;
+            int code = 0;
+            int k = 0;
+            for (int length = 1; length <= 16; length++) {
+                valueOffset[length] = k - code;
+                for (int i = 0; i < bits[length]; i++) {
+                    if (length <= LOOKAHEAD_BITS) {
+                        int shift = LOOKAHEAD_BITS - length;
+                        int first = code << shift;
+                        Arrays.fill(lookup, first, first + (1 << shift),
+                                (length << 8) | values[k]);
+                    }
+                    code++;
+                    k++;
+                }
+                maxCode[length] = bits[length] > 0 ? code - 1 : -1;
+                code <<= 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.android.image;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Builds thumbnail {@link Bitmap}s from JPEG files with {@link JpegThumbnailDecoder}, falling
+ * back to {@link BitmapFactory} for files it does not support.
+ */
+public class JpegThumbnails {
+    private static final String TAG = "JpegThumbnails";
+
+    private JpegThumbnails() {
+    }
+
+    /**
+     * Decode a reduced copy of a JPEG file.
+     *
+     * @param scale {@link JpegThumbnailDecoder#SCALE_1_8} or {@link JpegThumbnailDecoder#SCALE_1_4}.
+     * @return the thumbnail, or null if the data could not be decoded at all.
+     */
+    public static Bitmap decode(byte[] data, int offset, int length, int scale) {
+        try {
+            JpegThumbnailDecoder.Thumbnail thumbnail = new JpegThumbnailDecoder().decode(data,
+                    offset, length, scale);
+            return Bitmap.createBitmap(thumbnail.getPixels(), thumbnail.getWidth(),
+                    thumbnail.getHeight(), Bitmap.Config.ARGB_8888);
+        } catch (IOException e) {
+            Log.d(TAG, "falling back to BitmapFactory: " + e.getMessage());
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = scale;
+        return BitmapFactory.decodeByteArray(data, offset, length, options);
+    }
+
+    /**
+     * Decode a reduced copy of the JPEG file between the buffer's position and limit, such as the
+     * plane of a JPEG {@link android.media.Image}. The file is only copied out of the buffer if
+     * it has to go to {@link BitmapFactory}.
+     *
+     * @param scale {@link JpegThumbnailDecoder#SCALE_1_8} or {@link JpegThumbnailDecoder#SCALE_1_4}.
+     * @return the thumbnail, or null if the data could not be decoded at all.
+     */
+    public static Bitmap decode(ByteBuffer data, int scale) {
+        try {
+            JpegThumbnailDecoder.Thumbnail thumbnail = new JpegThumbnailDecoder().decode(data,
+                    scale);
+            return Bitmap.createBitmap(thumbnail.getPixels(), thumbnail.getWidth(),
+                    thumbnail.getHeight(), Bitmap.Config.ARGB_8888);
+        } catch (IOException e) {
+            Log.d(TAG, "falling back to BitmapFactory: " + e.getMessage());
+        }
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = scale;
+        return BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+    }
+
+    /**
+     * Read a JPEG file to the end and decode a reduced copy of it. The stream is not closed.
+     */
+    public static Bitmap decode(InputStream in, int scale) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(in.available(), 8192));
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, count);
+        }
+        byte[] data = bytes.toByteArray();
+        return decode(data, 0, data.length, scale);
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.android.image;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Shrinks a YUV 4:2:0 image by an integer factor straight into ARGB pixels, for thumbnails.
+ * <p/>
+ * Every output pixel is the box filtered average of a {@code factor x factor} block of luma and
+ * the matching {@code factor/2 x factor/2} block of chroma, converted with the full range BT.601
+ * matrix that JFIF uses. The planes are read a row at a time with bulk gets, and only the output
+ * and a few rows of scratch are allocated, so a thumbnail costs a single pass over the planes
+ * rather than a JPEG decode.
+ * <p/>
+ * This class keeps scratch rows between calls and is not thread safe.
+ */
+public class YuvDownscaler {
+
+    private byte[] mRowData = new byte[0];
+    private int[] mYSums = new int[0];
+    private int[] mUSums = new int[0];
+    private int[] mVSums = new int[0];
+
+    /**
+     * Pick the smallest even factor that shrinks the image to at most {@code maxSize} pixels on
+     * its longer side.
+     */
+    public static int getScaleFactor(int width, int height, int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive, got " + maxSize);
+        }
+        int longest = Math.max(width, height);
+        int factor = (longest + maxSize - 1) / maxSize;
+        return Math.max(2, (factor + 1) & ~1);
+    }
+
+    /**
+     * Downscale the cropped region of a YUV 4:2:0 image. The output is
+     * {@code width / factor} by {@code height / factor} pixels; a partial block at the right or
+     * bottom edge is dropped.
+     *
+     * @param planes the Y, U and V planes of the image.
+     * @param left   left edge of the crop rectangle, in luma samples; must be even.
+     * @param top    top edge of the crop rectangle, in luma samples; must be even.
+     * @param width  width of the crop rectangle.
+     * @param height height of the crop rectangle.
+     * @param factor downscale factor; must be even.
+     * @return opaque ARGB pixels, row by row.
+     */
+    public int[] toArgb(YuvPlaneCopier.Plane[] planes, int left, int top, int width, int height,
+            int factor) {
+        if (factor < 2 || (factor & 1) != 0) {
+            throw new IllegalArgumentException("factor must be even, got " + factor);
+        }
+        if (((left | top) & 1) != 0) {
+            throw new IllegalArgumentException("crop must start on an even sample");
+        }
+        if (planes.length != 3) {
+            throw new IllegalArgumentException("expected 3 planes, got " + planes.length);
+        }
+        int outWidth = width / factor;
+        int outHeight = height / factor;
+        int[] argb = new int[outWidth * outHeight];
+        if (outWidth == 0) {
+            return argb;
+        }
+        if (mYSums.length < outWidth) {
+            mYSums = new int[outWidth];
+            mUSums = new int[outWidth];
+            mVSums = new int[outWidth];
+        }
+
+        ByteBuffer yBuffer = planes[0].getBuffer().duplicate();
+        ByteBuffer uBuffer = planes[1].getBuffer().duplicate();
+        ByteBuffer vBuffer = planes[2].getBuffer().duplicate();
+        int half = factor >> 1;
+        int lumaArea = factor * factor;
+        int chromaArea = half * half;
+        for (int outRow = 0; outRow < outHeight; outRow++) {
+            sumRows(yBuffer, planes[0], left, top + outRow * factor, factor, outWidth, mYSums);
+            sumRows(uBuffer, planes[1], left >> 1, (top >> 1) + outRow * half, half, outWidth,
+                    mUSums);
+            sumRows(vBuffer, planes[2], left >> 1, (top >> 1) + outRow * half, half, outWidth,
+                    mVSums);
+            int o = outRow * outWidth;
+            for (int x = 0; x < outWidth; x++) {
+                argb[o + x] = toArgb(mYSums[x] / lumaArea, mUSums[x] / chromaArea,
+                        mVSums[x] / chromaArea);
+            }
+        }
+        return argb;
+    }
+
+    /**
+     * Sum {@code blockSize} rows of a plane starting at ({@code x0}, {@code y0}) into
+     * {@code outWidth} blocks of {@code blockSize} samples each.
+     */
+    private void sumRows(ByteBuffer buffer, YuvPlaneCopier.Plane plane, int x0, int y0,
+            int blockSize, int outWidth, int[] sums) {
+        int rowStride = plane.getRowStride();
+        int pixelStride = plane.getPixelStride();
+        int length = (outWidth * blockSize - 1) * pixelStride + 1;
+        if (mRowData.length < length) {
+            mRowData = new byte[length];
+        }
+        byte[] row = mRowData;
+        for (int x = 0; x < outWidth; x++) {
+            sums[x] = 0;
+        }
+        for (int r = 0; r < blockSize; r++) {
+            buffer.position((y0 + r) * rowStride + x0 * pixelStride);
+            buffer.get(row, 0, length);
+            int i = 0;
+            for (int x = 0; x < outWidth; x++) {
+                int sum = 0;
+                for (int k = 0; k < blockSize; k++) {
+                    sum += row[i] & 0xFF;
+                    i += pixelStride;
+                }
+                sums[x] += sum;
+            }
+        }
+    }
+
+    /**
+     * Convert one full range YCbCr sample to opaque ARGB.
+     */
+    static int toArgb(int y, int u, int v) {
+        // 16.16 fixed point coefficients of the JFIF YCbCr to RGB matrix.
+        int cb = u - 128;
+        int cr = v - 128;
+        int r = y + ((91881 * cr + 32768) >> 16);
+        int g = y - ((22554 * cb + 46802 * cr + 32768) >> 16);
+        int b = y + ((116130 * cb + 32768) >> 16);
+        return 0xFF000000 | (clamp(r) << 16) | (clamp(g) << 8) | clamp(b);
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : value > 255 ? 255 : value;
+    }
+}
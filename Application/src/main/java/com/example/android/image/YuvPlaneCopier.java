@@ -0,0 +1,541 @@
+package com.example.android.image;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Copies the planes of a YUV 4:2:0 image into a tightly packed buffer.
+ * <p/>
+ * The source planes follow the {@code YUV_420_888} convention: plane 0 is Y, plane 1 is U and
+ * plane 2 is V, each with its own row and pixel stride. Most devices deliver the chroma planes as
+ * two overlapping views of one interleaved NV12/NV21 buffer with a pixel stride of 2; those are
+ * detected and copied a whole row at a time instead of one sample at a time.
+ * <p/>
+ * Rows are independent of each other, so when a {@link ForkJoinPool} is set large frames are
+ * split into row stripes and copied in parallel. Frames below the parallel threshold are always
+ * copied on the calling thread.
+ * <p/>
+ * The output is either a heap array or a caller-supplied {@link ByteBuffer}, so a direct buffer
+ * can be filled without an intermediate heap copy.
+ * <p/>
+ * This class keeps a scratch row between calls and is not thread safe.
+ */
+public class YuvPlaneCopier {
+
+    /** Planar Y, then U, then V. */
+    public static final int FORMAT_I420 = 1;
+
+    /** Planar Y, then interleaved V/U. */
+    public static final int FORMAT_NV21 = 2;
+
+    /** Planar Y, then interleaved U/V. */
+    public static final int FORMAT_NV12 = 3;
+
+    /** Planar Y, then V, then U. */
+    public static final int FORMAT_YV12 = 4;
+
+    /**
+     * Frames with fewer luma samples than this are copied serially by default; below roughly
+     * 2MP the cost of forking outweighs the copy itself.
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 1920 * 1080;
+
+    /** Chroma planes have a pixel stride of 1. */
+    static final int LAYOUT_PLANAR = 0;
+
+    /** Chroma planes are views of one V/U interleaved buffer. */
+    static final int LAYOUT_NV21 = 1;
+
+    /** Chroma planes are views of one U/V interleaved buffer. */
+    static final int LAYOUT_NV12 = 2;
+
+    /** Any other layout; copied sample by sample. */
+    static final int LAYOUT_STRIDED = 3;
+
+    /** Rows per stripe below which a parallel copy stops splitting. */
+    private static final int MIN_STRIPE_ROWS = 64;
+
+    /**
+     * A single plane of a YUV image, as exposed by {@code android.media.Image.Plane}.
+     */
+    public interface Plane {
+        ByteBuffer getBuffer();
+
+        int getRowStride();
+
+        int getPixelStride();
+    }
+
+    private byte[] mRowData = new byte[0];
+    private ForkJoinPool mPool;
+    private int mParallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+    // State of the copy in progress; read concurrently by the stripes of a parallel copy.
+    private Plane mYPlane;
+    private Plane mUPlane;
+    private Plane mVPlane;
+    private byte[] mOut;
+    private ByteBuffer mOutBuffer;
+    private int mWidth;
+    private int mYBase;
+    private int mYOffset;
+    private int mChromaLayout;
+    private int mChromaWidth;
+    private int mUBase;
+    private int mVBase;
+    private int mUOffset;
+    private int mVOffset;
+    private int mOutPixelStride;
+    private int mOutRowStride;
+
+    /**
+     * Return the number of bytes needed to hold a packed 4:2:0 image of the given size.
+     */
+    public static int getBufferSize(int width, int height) {
+        return width * height + 2 * (width >> 1) * (height >> 1);
+    }
+
+    /**
+     * Expose a packed frame in one of the {@code FORMAT_*} layouts as planes, so it can be read
+     * back by anything that consumes camera planes. Interleaved chroma is exposed as two
+     * overlapping views with a pixel stride of 2, the way camera HALs deliver it.
+     */
+    public static Plane[] wrap(byte[] data, int offset, int width, int height, int format) {
+        checkFormat(format);
+        if (offset < 0 || offset + getBufferSize(width, height) > data.length) {
+            throw new IndexOutOfBoundsException("frame does not fit its buffer");
+        }
+        int lumaSize = width * height;
+        int chromaWidth = width >> 1;
+        int chromaSize = chromaWidth * (height >> 1);
+        Plane y = new PackedPlane(ByteBuffer.wrap(data, offset, lumaSize).slice(), width, 1);
+        int chroma = offset + lumaSize;
+        switch (format) {
+            case FORMAT_I420:
+            case FORMAT_YV12: {
+                Plane first = new PackedPlane(ByteBuffer.wrap(data, chroma, chromaSize).slice(),
+                        chromaWidth, 1);
+                Plane second = new PackedPlane(
+                        ByteBuffer.wrap(data, chroma + chromaSize, chromaSize).slice(),
+                        chromaWidth, 1);
+                return format == FORMAT_I420
+                        ? new Plane[] {y, first, second}
+                        : new Plane[] {y, second, first};
+            }
+            default: {
+                int length = Math.max(2 * chromaSize - 1, 0);
+                Plane first = new PackedPlane(ByteBuffer.wrap(data, chroma, length).slice(),
+                        2 * chromaWidth, 2);
+                Plane second = new PackedPlane(ByteBuffer.wrap(data, chroma + 1, length).slice(),
+                        2 * chromaWidth, 2);
+                return format == FORMAT_NV12
+                        ? new Plane[] {y, first, second}
+                        : new Plane[] {y, second, first};
+            }
+        }
+    }
+
+    /**
+     * Set the pool used to copy large frames in parallel, or null to always copy serially.
+     */
+    public void setForkJoinPool(ForkJoinPool pool) {
+        mPool = pool;
+    }
+
+    /**
+     * Set the number of luma samples from which a frame is copied in parallel.
+     */
+    public void setParallelThreshold(int pixels) {
+        mParallelThreshold = pixels;
+    }
+
+    /**
+     * Copy the cropped region of {@code planes} into a newly allocated buffer.
+     *
+     * @param planes the Y, U and V planes of the image.
+     * @param left   left edge of the crop rectangle, in luma samples.
+     * @param top    top edge of the crop rectangle, in luma samples.
+     * @param width  width of the crop rectangle.
+     * @param height height of the crop rectangle.
+     * @param format one of the {@code FORMAT_*} constants.
+     * @return the packed image data.
+     */
+    public byte[] copy(Plane[] planes, int left, int top, int width, int height, int format) {
+        byte[] data = new byte[getBufferSize(width, height)];
+        copy(planes, left, top, width, height, format, data, 0);
+        return data;
+    }
+
+    /**
+     * Copy the cropped region of {@code planes} into {@code out}, starting at {@code offset}.
+     * {@code out} must have at least {@link #getBufferSize(int, int)} bytes after the offset.
+     */
+    public void copy(Plane[] planes, int left, int top, int width, int height, int format,
+            byte[] out, int offset) {
+        if (out.length - offset < getBufferSize(width, height)) {
+            throw new IllegalArgumentException("output buffer too small");
+        }
+        mOut = out;
+        copyInternal(planes, left, top, width, height, format, offset);
+    }
+
+    /**
+     * Copy the cropped region of {@code planes} into {@code out}, starting at its position.
+     * <p/>
+     * This lets a direct buffer, such as an encoder input buffer or a slice of a larger arena,
+     * be filled straight from the image planes without going through the Java heap. On return
+     * the position of {@code out} has advanced by {@link #getBufferSize(int, int)} bytes.
+     */
+    public void copy(Plane[] planes, int left, int top, int width, int height, int format,
+            ByteBuffer out) {
+        int size = getBufferSize(width, height);
+        if (out.remaining() < size) {
+            throw new IllegalArgumentException("output buffer too small");
+        }
+        int offset = out.position();
+        mOutBuffer = out;
+        copyInternal(planes, left, top, width, height, format, offset);
+        out.position(offset + size);
+    }
+
+    private void copyInternal(Plane[] planes, int left, int top, int width, int height,
+            int format, int offset) {
+        int chromaWidth = width >> 1;
+        int chromaHeight = height >> 1;
+        try {
+            checkFormat(format);
+            if (planes.length != 3) {
+                throw new IllegalArgumentException("expected 3 planes, got " + planes.length);
+            }
+            setUp(planes, left, top, width, height, chromaWidth, chromaHeight, format, offset);
+            if (mPool != null && width * height >= mParallelThreshold) {
+                mPool.invoke(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        invokeAll(new Stripe(false, 0, height),
+                                new Stripe(true, 0, chromaWidth > 0 ? chromaHeight : 0));
+                    }
+                });
+            } else {
+                copyLumaRows(mYPlane.getBuffer(), mOutBuffer, 0, height, mRowData);
+                if (chromaWidth > 0) {
+                    copyChromaRows(mUPlane.getBuffer(), mVPlane.getBuffer(), mOutBuffer,
+                            0, chromaHeight, mRowData);
+                }
+            }
+        } finally {
+            mYPlane = mUPlane = mVPlane = null;
+            mOut = null;
+            mOutBuffer = null;
+        }
+    }
+
+    private void setUp(Plane[] planes, int left, int top, int width, int height,
+            int chromaWidth, int chromaHeight, int format, int offset) {
+        mYPlane = planes[0];
+        mUPlane = planes[1];
+        mVPlane = planes[2];
+        mWidth = width;
+        mYBase = mYPlane.getRowStride() * top + mYPlane.getPixelStride() * left;
+        mYOffset = offset;
+
+        int chromaOffset = offset + width * height;
+        int chromaSize = chromaWidth * chromaHeight;
+        switch (format) {
+            case FORMAT_I420:
+                mUOffset = chromaOffset;
+                mVOffset = chromaOffset + chromaSize;
+                mOutPixelStride = 1;
+                break;
+            case FORMAT_YV12:
+                mVOffset = chromaOffset;
+                mUOffset = chromaOffset + chromaSize;
+                mOutPixelStride = 1;
+                break;
+            case FORMAT_NV21:
+                mVOffset = chromaOffset;
+                mUOffset = chromaOffset + 1;
+                mOutPixelStride = 2;
+                break;
+            default:
+                mUOffset = chromaOffset;
+                mVOffset = chromaOffset + 1;
+                mOutPixelStride = 2;
+                break;
+        }
+        mChromaWidth = chromaWidth;
+        mOutRowStride = chromaWidth * mOutPixelStride;
+        mUBase = chromaBase(mUPlane, left >> 1, top >> 1);
+        mVBase = chromaBase(mVPlane, left >> 1, top >> 1);
+        mChromaLayout = chromaWidth == 0 || chromaHeight == 0 ? LAYOUT_STRIDED
+                : getChromaLayout(mUPlane, mVPlane, left >> 1, top >> 1, chromaWidth,
+                        chromaHeight);
+        int rowLength = Math.max((width - 1) * mYPlane.getPixelStride() + 1, 2 * chromaWidth);
+        if (mRowData.length < rowLength) {
+            mRowData = new byte[rowLength];
+        }
+    }
+
+    /**
+     * Copy luma rows {@code [from, to)}.
+     */
+    private void copyLumaRows(ByteBuffer yBuffer, ByteBuffer outBuffer, int from, int to,
+            byte[] rowData) {
+        copyPlaneRows(yBuffer, mYBase, mYPlane.getRowStride(), mYPlane.getPixelStride(), mWidth,
+                from, to, outBuffer, mYOffset, 1, mWidth, rowData);
+    }
+
+    /**
+     * Copy chroma rows {@code [from, to)} of both chroma planes.
+     */
+    private void copyChromaRows(ByteBuffer uBuffer, ByteBuffer vBuffer, ByteBuffer outBuffer,
+            int from, int to, byte[] rowData) {
+        if (mChromaLayout == LAYOUT_NV21) {
+            copySemiPlanarRows(vBuffer, mVBase, uBuffer, mUBase, from, to, outBuffer,
+                    mVOffset, mUOffset, rowData);
+        } else if (mChromaLayout == LAYOUT_NV12) {
+            copySemiPlanarRows(uBuffer, mUBase, vBuffer, mVBase, from, to, outBuffer,
+                    mUOffset, mVOffset, rowData);
+        } else {
+            copyPlaneRows(uBuffer, mUBase, mUPlane.getRowStride(), mUPlane.getPixelStride(),
+                    mChromaWidth, from, to, outBuffer, mUOffset, mOutPixelStride,
+                    mOutRowStride, rowData);
+            copyPlaneRows(vBuffer, mVBase, mVPlane.getRowStride(), mVPlane.getPixelStride(),
+                    mChromaWidth, from, to, outBuffer, mVOffset, mOutPixelStride,
+                    mOutRowStride, rowData);
+        }
+    }
+
+    /**
+     * Copy rows of an interleaved chroma region. {@code firstBuffer} is the view that starts one
+     * byte earlier in memory; every row is read with one bulk get and only re-ordered when the
+     * output does not share the source interleaving.
+     */
+    private void copySemiPlanarRows(ByteBuffer firstBuffer, int firstBase,
+            ByteBuffer secondBuffer, int secondBase, int from, int to, ByteBuffer outBuffer,
+            int firstOffset, int secondOffset, byte[] rowData) {
+        int rowStride = mUPlane.getRowStride();
+        int outPixelStride = mOutPixelStride;
+        int outRowStride = mOutRowStride;
+        int length = 2 * mChromaWidth - 1;
+        boolean direct = outPixelStride == 2 && secondOffset == firstOffset + 1;
+
+        for (int row = from; row < to; row++) {
+            // The last sample of the second component lies past the end of the first buffer.
+            byte last = secondBuffer.get(secondBase + row * rowStride + length - 1);
+            int position = firstBase + row * rowStride;
+            if (direct) {
+                int o = firstOffset + row * outRowStride;
+                copyBytes(firstBuffer, position, length, outBuffer, o);
+                if (outBuffer == null) {
+                    mOut[o + length] = last;
+                } else {
+                    outBuffer.put(o + length, last);
+                }
+            } else {
+                firstBuffer.position(position);
+                firstBuffer.get(rowData, 0, length);
+                rowData[length] = last;
+                scatter(rowData, 0, 2, mChromaWidth, outBuffer,
+                        firstOffset + row * outRowStride, outPixelStride);
+                scatter(rowData, 1, 2, mChromaWidth, outBuffer,
+                        secondOffset + row * outRowStride, outPixelStride);
+            }
+        }
+    }
+
+    private void copyPlaneRows(ByteBuffer buffer, int base, int rowStride, int pixelStride,
+            int width, int from, int to, ByteBuffer outBuffer, int offset, int outPixelStride,
+            int outRowStride, byte[] rowData) {
+        if (pixelStride == 1 && outPixelStride == 1) {
+            for (int row = from; row < to; row++) {
+                copyBytes(buffer, base + row * rowStride, width, outBuffer,
+                        offset + row * outRowStride);
+            }
+            return;
+        }
+
+        int length = (width - 1) * pixelStride + 1;
+        for (int row = from; row < to; row++) {
+            buffer.position(base + row * rowStride);
+            buffer.get(rowData, 0, length);
+            scatter(rowData, 0, pixelStride, width, outBuffer, offset + row * outRowStride,
+                    outPixelStride);
+        }
+    }
+
+    /**
+     * Bulk copy {@code length} bytes at {@code position} of {@code src} to index {@code o} of
+     * {@code outBuffer}, or of the output array when {@code outBuffer} is null.
+     */
+    private void copyBytes(ByteBuffer src, int position, int length, ByteBuffer outBuffer,
+            int o) {
+        if (outBuffer == null) {
+            src.position(position);
+            src.get(mOut, o, length);
+            return;
+        }
+        int limit = src.limit();
+        src.limit(position + length);
+        src.position(position);
+        outBuffer.position(o);
+        outBuffer.put(src);
+        src.limit(limit);
+    }
+
+    /**
+     * Write {@code count} samples taken every {@code step} bytes of {@code src} to every
+     * {@code outStep} bytes of the output, starting at index {@code o}.
+     */
+    private void scatter(byte[] src, int start, int step, int count, ByteBuffer outBuffer,
+            int o, int outStep) {
+        int end = start + count * step;
+        if (outBuffer == null) {
+            byte[] out = mOut;
+            for (int i = start; i < end; i += step) {
+                out[o] = src[i];
+                o += outStep;
+            }
+        } else {
+            for (int i = start; i < end; i += step) {
+                outBuffer.put(o, src[i]);
+                o += outStep;
+            }
+        }
+    }
+
+    /**
+     * A band of luma or chroma rows, split in half until it is small enough to copy directly.
+     * Each leaf reads and writes through its own buffer views and scratch row so stripes never
+     * share a buffer position.
+     */
+    private class Stripe extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean mChroma;
+        private final int mFrom;
+        private final int mTo;
+
+        Stripe(boolean chroma, int from, int to) {
+            mChroma = chroma;
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom > MIN_STRIPE_ROWS) {
+                int middle = (mFrom + mTo) >>> 1;
+                invokeAll(new Stripe(mChroma, mFrom, middle), new Stripe(mChroma, middle, mTo));
+                return;
+            }
+            if (mFrom >= mTo) {
+                return;
+            }
+            byte[] rowData = new byte[mRowData.length];
+            ByteBuffer outBuffer = mOutBuffer == null ? null : mOutBuffer.duplicate();
+            if (mChroma) {
+                copyChromaRows(mUPlane.getBuffer().duplicate(), mVPlane.getBuffer().duplicate(),
+                        outBuffer, mFrom, mTo, rowData);
+            } else {
+                copyLumaRows(mYPlane.getBuffer().duplicate(), outBuffer, mFrom, mTo, rowData);
+            }
+        }
+    }
+
+    /**
+     * Work out how the chroma planes are laid out in memory.
+     * <p/>
+     * Interleaving is a property of the producer rather than of the pixel data, so comparing the
+     * first and last rows of the two views is enough to tell an NV12/NV21 buffer apart from two
+     * separate strided planes.
+     */
+    static int getChromaLayout(Plane uPlane, Plane vPlane, int left, int top, int width,
+            int height) {
+        if (uPlane.getPixelStride() == 1 && vPlane.getPixelStride() == 1) {
+            return LAYOUT_PLANAR;
+        }
+        if (uPlane.getPixelStride() != 2 || vPlane.getPixelStride() != 2
+                || uPlane.getRowStride() != vPlane.getRowStride()) {
+            return LAYOUT_STRIDED;
+        }
+        if (isShiftedView(vPlane, uPlane, left, top, width, height)) {
+            return LAYOUT_NV21;
+        }
+        if (isShiftedView(uPlane, vPlane, left, top, width, height)) {
+            return LAYOUT_NV12;
+        }
+        return LAYOUT_STRIDED;
+    }
+
+    /**
+     * Return true if {@code second} reads the same bytes as {@code first} advanced by one.
+     */
+    private static boolean isShiftedView(Plane first, Plane second, int left, int top,
+            int width, int height) {
+        ByteBuffer firstBuffer = first.getBuffer();
+        ByteBuffer secondBuffer = second.getBuffer();
+        int rowStride = first.getRowStride();
+        int length = 2 * width - 2;
+        int firstBase = chromaBase(first, left, top);
+        int secondBase = chromaBase(second, left, top);
+        int lastRow = (height - 1) * rowStride;
+        if (firstBase + lastRow + length >= firstBuffer.limit()
+                || secondBase + lastRow + length >= secondBuffer.limit()) {
+            return false;
+        }
+        for (int row = 0; row <= lastRow; row += Math.max(lastRow, 1)) {
+            int f = firstBase + row + 1;
+            int s = secondBase + row;
+            for (int i = 0; i < length; i++) {
+                if (firstBuffer.get(f + i) != secondBuffer.get(s + i)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static int chromaBase(Plane plane, int left, int top) {
+        return plane.getRowStride() * top + plane.getPixelStride() * left;
+    }
+
+    private static void checkFormat(int format) {
+        switch (format) {
+            case FORMAT_I420:
+            case FORMAT_NV21:
+            case FORMAT_NV12:
+            case FORMAT_YV12:
+                return;
+        }
+        throw new IllegalArgumentException("unsupported output format " + format);
+    }
+
+    private static class PackedPlane implements Plane {
+        private final ByteBuffer mBuffer;
+        private final int mRowStride;
+        private final int mPixelStride;
+
+        PackedPlane(ByteBuffer buffer, int rowStride, int pixelStride) {
+            mBuffer = buffer;
+            mRowStride = rowStride;
+            mPixelStride = pixelStride;
+        }
+
+        @Override
+        public ByteBuffer getBuffer() {
+            return mBuffer;
+        }
+
+        @Override
+        public int getRowStride() {
+            return mRowStride;
+        }
+
+        @Override
+        public int getPixelStride() {
+            return mPixelStride;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.android.image;
+
+/**
+ * Rotates and mirrors tightly packed YUV 4:2:0 frames, so captures can be stored upright instead
+ * of relying on an orientation tag.
+ * <p/>
+ * A 90 or 270 degree rotation walks one of the two buffers column-wise. The frame is therefore
+ * processed in square tiles small enough that the rows of a tile stay in cache while its columns
+ * are written, instead of striding across the whole destination for every sample. Interleaved
+ * chroma is moved a V/U or U/V pair at a time, so NV21 and NV12 stay interleaved.
+ * <p/>
+ * This class is stateless and thread safe.
+ */
+public class YuvRotator {
+
+    /** Samples per side of a tile; 32x32 luma plus its chroma fits comfortably in L1. */
+    private static final int TILE_SIZE = 32;
+
+    private YuvRotator() {
+    }
+
+    /**
+     * @return the width of a {@code width x height} frame after a rotation by {@code degrees}.
+     */
+    public static int getRotatedWidth(int width, int height, int degrees) {
+        return degrees % 180 == 0 ? width : height;
+    }
+
+    /**
+     * @return the height of a {@code width x height} frame after a rotation by {@code degrees}.
+     */
+    public static int getRotatedHeight(int width, int height, int degrees) {
+        return degrees % 180 == 0 ? height : width;
+    }
+
+    /**
+     * Mirror and then rotate a packed frame into another buffer.
+     *
+     * @param src       the source frame, as produced by {@link YuvPlaneCopier}.
+     * @param srcOffset where the frame starts in {@code src}.
+     * @param width     width of the source frame; must be even.
+     * @param height    height of the source frame; must be even.
+     * @param format    one of the {@code YuvPlaneCopier.FORMAT_*} constants; the output has the
+     *                  same format.
+     * @param degrees   clockwise rotation: 0, 90, 180 or 270.
+     * @param mirror    whether to flip the frame horizontally before rotating it.
+     * @param dst       the destination; must not overlap the source.
+     * @param dstOffset where the rotated frame starts in {@code dst}.
+     */
+    public static void rotate(byte[] src, int srcOffset, int width, int height, int format,
+            int degrees, boolean mirror, byte[] dst, int dstOffset) {
+        if (degrees != 0 && degrees != 90 && degrees != 180 && degrees != 270) {
+            throw new IllegalArgumentException("unsupported rotation " + degrees);
+        }
+        if (width < 2 || height < 2 || (width & 1) != 0 || (height & 1) != 0) {
+            throw new IllegalArgumentException("unsupported size " + width + "x" + height);
+        }
+        int size = YuvPlaneCopier.getBufferSize(width, height);
+        if (srcOffset < 0 || srcOffset + size > src.length || dstOffset < 0
+                || dstOffset + size > dst.length) {
+            throw new IndexOutOfBoundsException("frame does not fit its buffer");
+        }
+        if (src == dst && srcOffset < dstOffset + size && dstOffset < srcOffset + size) {
+            throw new IllegalArgumentException("source and destination overlap");
+        }
+
+        int lumaSize = width * height;
+        int chromaWidth = width >> 1;
+        int chromaHeight = height >> 1;
+        rotatePlane(src, srcOffset, width, height, 1, degrees, mirror, dst, dstOffset);
+        switch (format) {
+            case YuvPlaneCopier.FORMAT_I420:
+            case YuvPlaneCopier.FORMAT_YV12: {
+                int chromaSize = chromaWidth * chromaHeight;
+                rotatePlane(src, srcOffset + lumaSize, chromaWidth, chromaHeight, 1, degrees,
+                        mirror, dst, dstOffset + lumaSize);
+                rotatePlane(src, srcOffset + lumaSize + chromaSize, chromaWidth, chromaHeight, 1,
+                        degrees, mirror, dst, dstOffset + lumaSize + chromaSize);
+                break;
+            }
+            case YuvPlaneCopier.FORMAT_NV21:
+            case YuvPlaneCopier.FORMAT_NV12:
+                rotatePlane(src, srcOffset + lumaSize, chromaWidth, chromaHeight, 2, degrees,
+                        mirror, dst, dstOffset + lumaSize);
+                break;
+            default:
+                throw new IllegalArgumentException("unsupported format " + format);
+        }
+    }
+
+    /**
+     * Rotate one packed plane of {@code width x height} elements of {@code elementSize} bytes.
+     */
+    static void rotatePlane(byte[] src, int srcOffset, int width, int height, int elementSize,
+            int degrees, boolean mirror, byte[] dst, int dstOffset) {
+        if (degrees == 0 && !mirror) {
+            System.arraycopy(src, srcOffset, dst, dstOffset, width * height * elementSize);
+            return;
+        }
+        // Destination element index of source element (x, y) is origin + x * stepX + y * stepY.
+        int origin = destinationIndex(0, 0, width, height, degrees, mirror);
+        int stepX = destinationIndex(1, 0, width, height, degrees, mirror) - origin;
+        int stepY = destinationIndex(0, 1, width, height, degrees, mirror) - origin;
+
+        for (int tileY = 0; tileY < height; tileY += TILE_SIZE) {
+            int endY = Math.min(tileY + TILE_SIZE, height);
+            for (int tileX = 0; tileX < width; tileX += TILE_SIZE) {
+                int endX = Math.min(tileX + TILE_SIZE, width);
+                for (int y = tileY; y < endY; y++) {
+                    int s = srcOffset + (y * width + tileX) * elementSize;
+                    int d = origin + tileX * stepX + y * stepY;
+                    if (elementSize == 1) {
+                        for (int x = tileX; x < endX; x++) {
+                            dst[dstOffset + d] = src[s++];
+                            d += stepX;
+                        }
+                    } else {
+                        for (int x = tileX; x < endX; x++) {
+                            int o = dstOffset + 2 * d;
+                            dst[o] = src[s];
+                            dst[o + 1] = src[s + 1];
+                            s += 2;
+                            d += stepX;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Map source element (x, y) to its element index in the rotated plane.
+     */
+    private static int destinationIndex(int x, int y, int width, int height, int degrees,
+            boolean mirror) {
+        int mx = mirror ? width - 1 - x : x;
+        switch (degrees) {
+            case 90:
+                // Rotated width is the source height.
+                return mx * height + (height - 1 - y);
+            case 180:
+                return (height - 1 - y) * width + (width - 1 - mx);
+            case 270:
+                return (width - 1 - mx) * height + y;
+            default:
+                return y * width + mx;
+        }
+    }
+}
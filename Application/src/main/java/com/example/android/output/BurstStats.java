@@ -0,0 +1,174 @@
+package com.example.android.output;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Timing of one capture burst: when it was submitted, when each frame's result came back and
+ * when each frame finished saving.
+ * <p/>
+ * Two rates come out of it. The capture rate is the cadence of the sensor timestamps, what the
+ * camera delivered. The sustained rate divides the frames saved by the time from submitting the
+ * burst to the last save, what the whole pipeline kept up with. Each frame's latency runs from
+ * submission to its save.
+ * <p/>
+ * Times are in nanoseconds on any monotonic clock. This class is thread safe.
+ */
+public class BurstStats {
+
+    private static final long NOT_YET = -1;
+
+    private final int mFrameCount;
+    private final long[] mSensorTimestamps;
+    private final long[] mCapturedTimes;
+    private final long[] mSavedTimes;
+    private long mSubmittedTime = NOT_YET;
+    private int mCapturedCount;
+    private int mSavedCount;
+    private int mFailedCount;
+
+    public BurstStats(int frameCount) {
+        if (frameCount < 1) {
+            throw new IllegalArgumentException("frame count " + frameCount);
+        }
+        mFrameCount = frameCount;
+        mSensorTimestamps = new long[frameCount];
+        mCapturedTimes = new long[frameCount];
+        mSavedTimes = new long[frameCount];
+        Arrays.fill(mCapturedTimes, NOT_YET);
+        Arrays.fill(mSavedTimes, NOT_YET);
+    }
+
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    public synchronized void onSubmitted(long nowNs) {
+        mSubmittedTime = nowNs;
+    }
+
+    public synchronized void onCaptured(int index, long sensorTimestampNs, long nowNs) {
+        if (mCapturedTimes[index] == NOT_YET) {
+            mCapturedCount++;
+        }
+        mSensorTimestamps[index] = sensorTimestampNs;
+        mCapturedTimes[index] = nowNs;
+    }
+
+    public synchronized void onSaved(int index, long nowNs) {
+        if (mSavedTimes[index] == NOT_YET) {
+            mSavedCount++;
+        }
+        mSavedTimes[index] = nowNs;
+    }
+
+    /**
+     * Count a frame that will never be saved: its capture failed, or it was dropped.
+     */
+    public synchronized void onFailed(int index) {
+        mFailedCount++;
+    }
+
+    public synchronized int getSavedCount() {
+        return mSavedCount;
+    }
+
+    public synchronized int getFailedCount() {
+        return mFailedCount;
+    }
+
+    /**
+     * @return whether every frame has been saved or has failed.
+     */
+    public synchronized boolean isDone() {
+        return mSavedCount + mFailedCount >= mFrameCount;
+    }
+
+    /**
+     * @return frames per second between the first and last sensor timestamps, or 0 if fewer
+     * than two frames were captured.
+     */
+    public synchronized double getCaptureFps() {
+        if (mCapturedCount < 2) {
+            return 0;
+        }
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (int i = 0; i < mFrameCount; i++) {
+            if (mCapturedTimes[i] != NOT_YET) {
+                first = Math.min(first, mSensorTimestamps[i]);
+                last = Math.max(last, mSensorTimestamps[i]);
+            }
+        }
+        return last > first ? (mCapturedCount - 1) * 1e9 / (last - first) : 0;
+    }
+
+    /**
+     * @return frames saved per second, from submitting the burst to the last save, or 0 if
+     * nothing has been saved.
+     */
+    public synchronized double getSustainedFps() {
+        if (mSavedCount == 0 || mSubmittedTime == NOT_YET) {
+            return 0;
+        }
+        long last = Long.MIN_VALUE;
+        for (long saved : mSavedTimes) {
+            last = Math.max(last, saved);
+        }
+        return last > mSubmittedTime ? mSavedCount * 1e9 / (last - mSubmittedTime) : 0;
+    }
+
+    /**
+     * @return how long frame {@code index} took from submission to being saved, or -1 if it has
+     * not been saved.
+     */
+    public synchronized long getLatencyNs(int index) {
+        if (mSavedTimes[index] == NOT_YET || mSubmittedTime == NOT_YET) {
+            return -1;
+        }
+        return mSavedTimes[index] - mSubmittedTime;
+    }
+
+    /**
+     * @return the latency below which {@code percentile} percent of the saved frames fall, or -1
+     * if nothing has been saved.
+     */
+    public synchronized long getLatencyPercentileNs(double percentile) {
+        long[] latencies = sortedLatencies();
+        if (latencies.length == 0) {
+            return -1;
+        }
+        int rank = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+        return latencies[Math.max(0, Math.min(rank, latencies.length - 1))];
+    }
+
+    @Override
+    public synchronized String toString() {
+        long[] latencies = sortedLatencies();
+        long sum = 0;
+        for (long latency : latencies) {
+            sum += latency;
+        }
+        long mean = latencies.length == 0 ? 0 : sum / latencies.length;
+        return String.format(Locale.US,
+                "burst of %d: saved %d, failed %d, capture %.1f fps, sustained %.1f fps, "
+                        + "latency mean %d ms, p50 %d ms, p90 %d ms, max %d ms",
+                mFrameCount, mSavedCount, mFailedCount, getCaptureFps(), getSustainedFps(),
+                mean / 1000000, getLatencyPercentileNs(50) / 1000000,
+                getLatencyPercentileNs(90) / 1000000,
+                latencies.length == 0 ? -1 : latencies[latencies.length - 1] / 1000000);
+    }
+
+    private long[] sortedLatencies() {
+        long[] latencies = new long[mSavedCount];
+        int count = 0;
+        for (int i = 0; i < mFrameCount; i++) {
+            long latency = getLatencyNs(i);
+            if (latency >= 0) {
+                latencies[count++] = latency;
+            }
+        }
+        Arrays.sort(latencies, 0, count);
+        return count == latencies.length ? latencies : Arrays.copyOf(latencies, count);
+    }
+}
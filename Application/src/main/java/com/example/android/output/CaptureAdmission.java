@@ -0,0 +1,88 @@
+package com.example.android.output;
+
+/**
+ * Admission control for captures into one ImageReader: counts the captures in flight against the
+ * reader's buffer budget, so new ones are held back before the reader runs out of images.
+ * <p/>
+ * A capture takes a slot when it is queued and gives it back once its image has been saved or
+ * dropped. Without this, a burst that outruns the saver fills every buffer of the reader, after
+ * which {@code acquireNextImage()} throws and frames are lost; with it, the burst slows down to
+ * the rate at which slots come back instead.
+ * <p/>
+ * This class is thread safe.
+ */
+public class CaptureAdmission {
+
+    private final int mBudget;
+    private int mInFlight;
+    private long mHeldBackCount;
+
+    /**
+     * @param budget number of captures that may be in flight at once; normally the reader's
+     *               {@code maxImages}.
+     */
+    public CaptureAdmission(int budget) {
+        if (budget < 1) {
+            throw new IllegalArgumentException("budget " + budget);
+        }
+        mBudget = budget;
+    }
+
+    public int getBudget() {
+        return mBudget;
+    }
+
+    public synchronized int getInFlight() {
+        return mInFlight;
+    }
+
+    /**
+     * @return the number of captures {@link #tryAcquire()} has turned away.
+     */
+    public synchronized long getHeldBackCount() {
+        return mHeldBackCount;
+    }
+
+    /**
+     * Take a slot for a new capture if the budget allows.
+     *
+     * @return whether the capture may go ahead; if so, {@link #release()} must follow.
+     */
+    public synchronized boolean tryAcquire() {
+        if (mInFlight >= mBudget) {
+            mHeldBackCount++;
+            return false;
+        }
+        mInFlight++;
+        return true;
+    }
+
+    /**
+     * Give back the slot of a capture whose image has been saved or dropped.
+     */
+    public synchronized void release() {
+        if (mInFlight == 0) {
+            throw new IllegalStateException("no capture in flight");
+        }
+        mInFlight--;
+        notifyAll();
+    }
+
+    /**
+     * Wait until a slot is free, without taking it. Meant for the thread that paces a burst,
+     * which must not hold any lock that the release path needs.
+     *
+     * @return whether a slot was free before the timeout.
+     */
+    public synchronized boolean awaitSlot(long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutMs * 1000000L;
+        while (mInFlight >= mBudget) {
+            long remainingMs = (deadline - System.nanoTime()) / 1000000L;
+            if (remainingMs <= 0) {
+                return false;
+            }
+            wait(remainingMs);
+        }
+        return true;
+    }
+}
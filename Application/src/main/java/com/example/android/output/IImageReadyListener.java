@@ -4,6 +4,15 @@ import android.hardware.camera2.CaptureResult;
 import java.io.File;
 
 public interface IImageReadyListener {
+    /**
+     * Called on a saver thread with a captured image and its result. The image, if any, is
+     * closed as soon as this returns.
+     * <p/>
+     * Must not take the camera lock given to {@link OutputSurface}, directly or by waiting on
+     * something that holds it, such as starting the next capture. Saves are handed to the saver
+     * threads with that lock held, so a listener waiting for it can stall image delivery.
+     * Post such work to the camera handler instead.
+     */
     void onImageReady(ImageSaver.ImageDataWrapper imageDataWrapper,
             File file, CaptureResult captureResult);
 }
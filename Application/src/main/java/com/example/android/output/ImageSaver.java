@@ -6,12 +6,15 @@ import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CaptureResult;
 import android.media.Image;
 import android.media.ImageReader;
-import android.media.ImageWriter;
 import android.provider.MediaStore;
 
 import com.example.android.output.IImageReadyListener;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 
 public class ImageSaver implements Runnable {
@@ -42,7 +45,6 @@ public class ImageSaver implements Runnable {
     private final RefCountedAutoCloseable<ImageReader> mReader;
 
     private IImageReadyListener mImageReadyListener;
-    private ImageWriter mImageWriter;
 
     public class ImageDataWrapper {
         private int mFormat;
@@ -69,6 +71,10 @@ public class ImageSaver implements Runnable {
             return mImage;
         }
 
+        /**
+         * @return the JPEG data, or null for an image passed on as it is, which is any non-JPEG
+         * image and JPEG images when {@link OutputSurface#setZeroCopyJpegLocked} is on.
+         */
         public byte[] getBytes() {
             return mBytes;
         }
@@ -76,6 +82,27 @@ public class ImageSaver implements Runnable {
         public int getFormat() {
             return mFormat;
         }
+
+        /**
+         * Write the JPEG data to {@code file}. The plane of a JPEG image goes straight to the
+         * file through a {@link FileChannel}, without a copy on the heap.
+         */
+        public void writeJpeg(File file) throws IOException {
+            if (mFormat != ImageFormat.JPEG) {
+                throw new IllegalStateException("not a JPEG image, format " + mFormat);
+            }
+            ByteBuffer data = mBytes != null ? ByteBuffer.wrap(mBytes)
+                    : mImage.getPlanes()[0].getBuffer().duplicate();
+            FileOutputStream output = new FileOutputStream(file);
+            try {
+                FileChannel channel = output.getChannel();
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+            } finally {
+                output.close();
+            }
+        }
     }
 
     private ImageSaver(Image image, byte[] bytes,
@@ -96,7 +123,26 @@ public class ImageSaver implements Runnable {
 
     @Override
     public void run() {
-        mImageReadyListener.onImageReady(mImageData, mFile, mCaptureResult);
+        try {
+            mImageReadyListener.onImageReady(mImageData, mFile, mCaptureResult);
+        } finally {
+            // The image is only valid for the duration of the callback.
+            discard();
+        }
+    }
+
+    /**
+     * Release the image and the reader it came from. Done after the listener returns, or
+     * instead of running a saver that will never run.
+     */
+    public void discard() {
+        Image image = mImageData.getImage();
+        if (image != null) {
+            image.close();
+        }
+        if (mReader != null) {
+            mReader.close();
+        }
     }
 
     /**
@@ -114,7 +160,7 @@ public class ImageSaver implements Runnable {
         private RefCountedAutoCloseable<ImageReader> mReader;
         private IImageReadyListener mImageReadyListener;
         private int mFlag;
-//        private ImageWriter mImageWriter;
+        private int mRequestId;
 
         /**
          * Construct a new ImageSaverBuilder using the given {@link Context}.
@@ -125,11 +171,6 @@ public class ImageSaver implements Runnable {
         public ImageSaverBuilder(final Context context, int flag) {
             mContext = context;
             mFlag = flag;
-
-//            if (cameraSessionInputSurface != null) {
-//                mImageWriter = ImageWriter.newInstance(
-//                        cameraSessionInputSurface, MAX_REQUIRED_IMAGE_NUM);
-//            }
         }
 
         public synchronized ImageSaverBuilder setRefCountedReader(
@@ -164,6 +205,27 @@ public class ImageSaver implements Runnable {
             return this;
         }
 
+        public synchronized ImageSaverBuilder setRequestId(int requestId) {
+            mRequestId = requestId;
+            return this;
+        }
+
+        public synchronized int getRequestId() {
+            return mRequestId;
+        }
+
+        /**
+         * @return the {@link CaptureResult#SENSOR_TIMESTAMP} of the result, or -1 if there is no
+         * result yet.
+         */
+        public synchronized long getSensorTimestamp() {
+            if (mCaptureResult == null) {
+                return -1;
+            }
+            Long timestamp = mCaptureResult.get(CaptureResult.SENSOR_TIMESTAMP);
+            return timestamp != null ? timestamp : -1;
+        }
+
         public synchronized ImageSaverBuilder setCharacteristics(
                 final CameraCharacteristics characteristics) {
             if (characteristics == null) throw new NullPointerException();
@@ -0,0 +1,146 @@
+package com.example.android.output;
+
+/**
+ * A hash map from primitive {@code long} keys, such as sensor timestamps, to objects.
+ * <p/>
+ * Keys live in a {@code long[]} probed linearly, so neither lookups nor insertions box the key or
+ * allocate an entry; removal shifts the rest of the probe run back instead of leaving tombstones.
+ * The table doubles once it is half full. Null values are not allowed.
+ * <p/>
+ * This class is not thread safe.
+ */
+public class LongHashMap<V> {
+
+    private long[] mKeys;
+    private Object[] mValues;
+    private int mMask;
+    private int mSize;
+
+    /**
+     * @param capacity number of entries expected; the map grows past it if needed.
+     */
+    public LongHashMap(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2 * capacity, 4) - 1) << 1;
+        mKeys = new long[size];
+        mValues = new Object[size];
+        mMask = size - 1;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return the value mapped to {@code key}, or null.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        for (int slot = slot(key); mValues[slot] != null; slot = (slot + 1) & mMask) {
+            if (mKeys[slot] == key) {
+                return (V) mValues[slot];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Map {@code key} to {@code value}.
+     *
+     * @return the value previously mapped to {@code key}, or null.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        int slot = slot(key);
+        for (; mValues[slot] != null; slot = (slot + 1) & mMask) {
+            if (mKeys[slot] == key) {
+                V previous = (V) mValues[slot];
+                mValues[slot] = value;
+                return previous;
+            }
+        }
+        mKeys[slot] = key;
+        mValues[slot] = value;
+        if (++mSize > (mMask + 1) >> 1) {
+            resize(2 * (mMask + 1));
+        }
+        return null;
+    }
+
+    /**
+     * Remove the mapping for {@code key}.
+     *
+     * @return the removed value, or null if there was none.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int slot = slot(key);
+        for (; mValues[slot] != null; slot = (slot + 1) & mMask) {
+            if (mKeys[slot] == key) {
+                V value = (V) mValues[slot];
+                shiftBack(slot);
+                mSize--;
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Remove every mapping.
+     */
+    public void clear() {
+        for (int i = 0; i < mValues.length; i++) {
+            mValues[i] = null;
+        }
+        mSize = 0;
+    }
+
+    /**
+     * Empty {@code hole} and move later entries of the same probe run back into it, so that no
+     * entry is left behind an empty slot it would have probed past.
+     */
+    private void shiftBack(int hole) {
+        int slot = hole;
+        while (true) {
+            slot = (slot + 1) & mMask;
+            if (mValues[slot] == null) {
+                break;
+            }
+            int home = slot(mKeys[slot]);
+            // The entry may fill the hole unless its home slot lies cyclically in (hole, slot].
+            if (((slot - home) & mMask) >= ((slot - hole) & mMask)) {
+                mKeys[hole] = mKeys[slot];
+                mValues[hole] = mValues[slot];
+                hole = slot;
+            }
+        }
+        mValues[hole] = null;
+    }
+
+    private void resize(int size) {
+        long[] keys = mKeys;
+        Object[] values = mValues;
+        mKeys = new long[size];
+        mValues = new Object[size];
+        mMask = size - 1;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                int slot = slot(keys[i]);
+                while (mValues[slot] != null) {
+                    slot = (slot + 1) & mMask;
+                }
+                mKeys[slot] = keys[i];
+                mValues[slot] = values[i];
+            }
+        }
+    }
+
+    private int slot(long key) {
+        // Timestamps share their high bits and step by the frame duration, so mix before masking.
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mMask;
+    }
+}
@@ -1,19 +1,30 @@
 package com.example.android.output;
 
 import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CaptureFailure;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.InputConfiguration;
 import android.media.Image;
 import android.media.ImageReader;
 import android.media.ImageWriter;
-import android.os.AsyncTask;
 import android.os.Handler;
 import android.util.Size;
 import android.view.Surface;
 
+import com.example.android.trace.TraceRing;
+
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 public class OutputSurface {
 
@@ -21,32 +32,111 @@ public class OutputSurface {
     private int mFlags;
     private ImageWriter mImageWriter;
 
+    /**
+     * Flags of the outputs an OutputSurface can have, one reader each; they can be or'ed
+     * together to name several readers filled by one capture request.
+     */
+    public static final int SURFACE_FORMAT_JPEG         = 1;
+    public static final int SURFACE_FORMAT_YUV          = 1 << 1;
+    public static final int SURFACE_FORMAT_SENSOR_RAW   = 1 << 2;
+
     private static final int JPEG_MAX_BUFFER        = 20;
     private static final int NON_JPEG_MAX_BUFFER    = 15;
+    // A full resolution RAW frame is tens of megabytes.
+    private static final int RAW_MAX_BUFFER         = 5;
+
+    private static final int SAVER_THREADS          = 2;
+
+    // Images a ZSL reader needs beyond its ring: one being acquired, one being reprocessed.
+    private static final int ZSL_EXTRA_BUFFERS      = 2;
+
+    // How often a paced burst retries while other captures hold every slot.
+    private static final long BURST_SLOT_RETRY_MS       = 10;
+
+    private static final long DEFAULT_IMAGE_TIMEOUT_MS  = 1000;
+    private static final long DEFAULT_RESULT_TIMEOUT_MS = 3000;
 
+    // Per frame events go to the trace ring rather than the log, so no strings are built for them.
+    private static final TraceRing TRACE = TraceRing.getDefault();
+    private static final int EV_IMAGE_AVAILABLE = TRACE.defineEvent("imageAvailable", "format");
+    private static final int EV_QUEUE_REQUEST =
+            TRACE.defineEvent("queueRequest", "requestId", "format");
+    private static final int EV_HELD_BACK = TRACE.defineEvent("requestHeldBack", "requestId",
+            "inFlight");
+    private static final int EV_DEQUEUE_REQUEST =
+            TRACE.defineEvent("dequeueRequest", "requestId", "format");
+    private static final int EV_QUEUE_REQUESTS =
+            TRACE.defineEvent("queueRequests", "requestId", "flags");
+    private static final int EV_MATCHED = TRACE.defineEvent("imageMatched", "requestId",
+            "timestamp");
+    private static final int EV_SAVER_QUEUE_DEPTH = TRACE.defineEvent("saverQueueDepth", "depth");
+    private static final int EV_SAVE = TRACE.defineEvent("save", "requestId");
+    private static final int EV_ZSL_FRAME_QUEUED = TRACE.defineEvent("zslFrameQueued",
+            "timestamp");
+    private static final int EV_CAPTURE_REPROCESS = TRACE.defineEvent("captureReprocess",
+            "requestId");
+    private static final int EV_CAPTURE_BURST = TRACE.defineEvent("captureBurst",
+            "firstRequestId", "frames");
 
-    private class ImageReaderWrapper {
+    private final Object mCameraLock;
+    private final SaverExecutor mSaverExecutor;
+    private final boolean mOwnsSaverExecutor;
+    private long mImageTimeoutNs = TimeUnit.MILLISECONDS.toNanos(DEFAULT_IMAGE_TIMEOUT_MS);
+    private long mResultTimeoutNs = TimeUnit.MILLISECONDS.toNanos(DEFAULT_RESULT_TIMEOUT_MS);
+    private boolean mZeroCopyJpeg;
+
+    private ImageReader mZslReader;
+    private ZslRing<Image, TotalCaptureResult> mZslRing;
+
+    private static final ZslRing.Scorer<TotalCaptureResult> ZSL_SCORER = result ->
+            ZslScore.score(result.get(CaptureResult.CONTROL_AF_MODE),
+                    result.get(CaptureResult.CONTROL_AF_STATE),
+                    result.get(CaptureResult.CONTROL_AE_STATE),
+                    result.get(CaptureResult.CONTROL_AWB_STATE));
+
+
+    private class ImageReaderWrapper
+            implements TimestampCorrelator.Listener<Image, ImageSaver.ImageSaverBuilder> {
         private RefCountedAutoCloseable<ImageReader> mImageReader;
-        private final TreeMap<Integer, ImageSaver.ImageSaverBuilder> mResultQueue = new TreeMap<>();
+        private final RequestRing<ImageSaver.ImageSaverBuilder> mResultQueue;
+        private final TimestampCorrelator<Image, ImageSaver.ImageSaverBuilder> mCorrelator;
+        private final CaptureAdmission mAdmission;
+        private long mRequestTimeoutNs = mImageTimeoutNs + mResultTimeoutNs;
+        // When the scheduled expiry pass runs, or Long.MAX_VALUE if none is.
+        private long mExpiryAtNs = Long.MAX_VALUE;
+
+        /**
+         * Orphans what has waited too long even when nothing else arrives, as after the last
+         * frame of a burst, so its image and reader reference are not held open for good.
+         */
+        private final Runnable mExpiry = () -> {
+            synchronized (mCameraLock) {
+                mExpiryAtNs = Long.MAX_VALUE;
+                long now = System.nanoTime();
+                expireRequests(now);
+                mCorrelator.expire(now);
+                scheduleExpiryLocked();
+            }
+        };
 
         private final ImageReader.OnImageAvailableListener mImageReaderListener =
                 reader -> {
-                        android.util.Log.d("gwas", "OnImageAvailable");
-                        dequeueAndSaveImageLocked();
+                        TRACE.instant(EV_IMAGE_AVAILABLE, mImageFormat, 0);
+                        synchronized (mCameraLock) {
+                            onImageAvailableLocked();
+                        }
                 };
         private int mImageFormat;
 
-        private ImageReaderWrapper (int imageFormat, Size surfaceSize) {
+        private ImageReaderWrapper (int imageFormat, Size surfaceSize, int maxBuffer) {
             mImageFormat = imageFormat;
-            android.util.Log.d("gwas", "ImageReaderWrapper, width:" + surfaceSize.getWidth() + ", height:" + surfaceSize.getHeight());
-
-            int maxBuffer;
-            if (mImageFormat == ImageFormat.JPEG) {
-                maxBuffer = JPEG_MAX_BUFFER;
-            } else {
-                maxBuffer = NON_JPEG_MAX_BUFFER;
-            }
+            android.util.Log.d("gwas", "ImageReaderWrapper, format:" + imageFormat + ", width:" + surfaceSize.getWidth() + ", height:" + surfaceSize.getHeight() + ", maxBuffer:" + maxBuffer);
 
+            // Room for every buffer the reader can hold, twice over, before the ring has to grow.
+            mResultQueue = new RequestRing<>(2 * maxBuffer);
+            mCorrelator = new TimestampCorrelator<>(maxBuffer, mImageTimeoutNs, mResultTimeoutNs,
+                    this);
+            mAdmission = new CaptureAdmission(maxBuffer);
             mImageReader = new RefCountedAutoCloseable<>(ImageReader.newInstance(surfaceSize.getWidth(),
                     surfaceSize.getHeight(), mImageFormat, maxBuffer));
             mImageReader.get().setOnImageAvailableListener(mImageReaderListener, mImageReaderHandler);
@@ -57,53 +147,79 @@ public class OutputSurface {
         }
 
         private ImageSaver.ImageSaverBuilder dequeueRequest(int requestId) {
-            android.util.Log.d("gwas", "dequeueRequest " + requestId + " " + mResultQueue.size());
+            TRACE.instant(EV_DEQUEUE_REQUEST, requestId, mImageFormat);
             return mResultQueue.get(requestId);
         }
 
-        private void queueRequest(int requestId, ImageSaver.ImageSaverBuilder builder) {
-            mResultQueue.put(requestId, builder);
-            android.util.Log.d("gwas", "queueRequest " + requestId + " " + mResultQueue.size());
+        private boolean queueRequest(int requestId, ImageSaver.ImageSaverBuilder builder) {
+            expireRequests(System.nanoTime());
+            // A request queued again under the same id keeps the slot it already has.
+            if (mResultQueue.get(requestId) == null && !mAdmission.tryAcquire()) {
+                TRACE.instant(EV_HELD_BACK, requestId, mAdmission.getInFlight());
+                return false;
+            }
+            mResultQueue.put(requestId, builder.setRequestId(requestId), System.nanoTime());
+            TRACE.instant(EV_QUEUE_REQUEST, requestId, mImageFormat);
+            return true;
         }
 
         private void removeRequest(int id) {
-            mResultQueue.remove(id);
+            if (mResultQueue.remove(id) != null) {
+                mAdmission.release();
+            }
         }
 
-        private void close() {
-            mImageReader.close();
+        /**
+         * Give up on requests whose result has not come by the time an image and then a result
+         * would have been orphaned, and give back their slots. Their capture was lost without
+         * a failure callback, and they would otherwise hold the request window open and their
+         * slot in use for good.
+         */
+        private void expireRequests(long nowNs) {
+            ImageSaver.ImageSaverBuilder builder;
+            while ((builder = mResultQueue.pollExpired(nowNs, mRequestTimeoutNs)) != null) {
+                android.util.Log.e("gwas", "No result for requestId:" + builder.getRequestId() + ", dropping it");
+                mAdmission.release();
+            }
         }
 
+        private void setOrphanTimeouts(long imageTimeoutNs, long resultTimeoutNs) {
+            mCorrelator.setTimeouts(imageTimeoutNs, resultTimeoutNs);
+            mRequestTimeoutNs = imageTimeoutNs + resultTimeoutNs;
+            scheduleExpiryLocked();
+        }
 
-        private void dequeueAndSaveImageLocked() {
-
-            Iterator<Map.Entry<Integer, ImageSaver.ImageSaverBuilder>>
-                    iterator = mResultQueue.entrySet().iterator();
-            Map.Entry<Integer, ImageSaver.ImageSaverBuilder> entry = null;
-            while (iterator.hasNext()) {
-                entry = iterator.next();
-                if ((entry != null) && (!entry.getValue().isImageReady())) {
-                    break;
-                }
-            }
-
-//            Map.Entry<Integer, ImageSaver.ImageSaverBuilder> entry =
-//                    mResultQueue.firstEntry();
-            if (entry == null) {
-                android.util.Log.e("gwas", "ResultQueue first entry is null, return!");
+        /**
+         * Make sure an expiry pass runs by the time the oldest waiting image or result times out.
+         */
+        private void scheduleExpiryLocked() {
+            long next = mCorrelator.getNextExpiryNs();
+            if (next >= mExpiryAtNs || mImageReaderHandler == null) {
+                // Nothing waits, or an early enough pass is already posted.
                 return;
             }
-            android.util.Log.d("gwas", "dequeueAndSaveImageLocked requestId:" + entry.getKey());
+            mImageReaderHandler.removeCallbacks(mExpiry);
+            mExpiryAtNs = next;
+            long delayMs = TimeUnit.NANOSECONDS.toMillis(next - System.nanoTime()) + 1;
+            mImageReaderHandler.postDelayed(mExpiry, Math.max(0, delayMs));
+        }
 
-            ImageSaver.ImageSaverBuilder builder = entry.getValue();
+        private void closeLocked() {
+            if (mImageReaderHandler != null) {
+                mImageReaderHandler.removeCallbacks(mExpiry);
+            }
+            // Hand back every image still waiting for its result before the reader goes away.
+            mCorrelator.clear();
+            mImageReader.close();
+        }
 
+        private void onImageAvailableLocked() {
             // Increment reference count to prevent ImageReader from being closed while we
             // are saving its Images in a background thread (otherwise their resources may
             // be freed while we are writing to a file).
             if (mImageReader == null || mImageReader.getAndRetain() == null) {
                 android.util.Log.e("gwas", "Paused the activity before we could save the image," +
                         " ImageReader already closed.");
-                mResultQueue.remove(entry.getKey());
                 return;
             }
 
@@ -111,17 +227,56 @@ public class OutputSurface {
             try {
                 image = mImageReader.get().acquireNextImage();
             } catch (IllegalStateException e) {
-                android.util.Log.e("gwas", "Too many images queued for saving, dropping image for request: " +
-                        entry.getKey());
-                mResultQueue.remove(entry.getKey());
+                android.util.Log.e("gwas", "Too many images queued for saving, dropping image");
+                image = null;
+            }
+            if (image == null) {
+                mImageReader.close();
+                return;
+            }
+            // Pair the image with its result by sensor timestamp; images can be dropped or
+            // arrive out of request order, so the oldest waiting request need not be its own.
+            mCorrelator.putImage(image.getTimestamp(), image, System.nanoTime());
+            scheduleExpiryLocked();
+        }
+
+        private void onResultLocked(ImageSaver.ImageSaverBuilder builder) {
+            expireRequests(System.nanoTime());
+            if (builder.isImageReady()) {
+                handleCompletionInternalLocked(builder.getRequestId(), builder, this);
+                return;
+            }
+            long timestamp = builder.getSensorTimestamp();
+            if (timestamp < 0) {
+                android.util.Log.e("gwas", "No sensor timestamp for requestId:" + builder.getRequestId());
                 return;
             }
-            if (image.getFormat() == ImageFormat.JPEG) {
+            mCorrelator.putResult(timestamp, builder, System.nanoTime());
+            scheduleExpiryLocked();
+        }
+
+        @Override
+        public void onMatched(long timestamp, Image image, ImageSaver.ImageSaverBuilder builder) {
+            TRACE.instant(EV_MATCHED, builder.getRequestId(), timestamp);
+            if (image.getFormat() == ImageFormat.JPEG && !mZeroCopyJpeg) {
                 builder.setRefCountedReader(mImageReader).setBytes(getJpegBytes(image));
             } else {
                 builder.setRefCountedReader(mImageReader).setImage(image);
             }
-            handleCompletionInternalLocked(entry.getKey(), builder, this);
+            handleCompletionInternalLocked(builder.getRequestId(), builder, this);
+        }
+
+        @Override
+        public void onImageOrphaned(long timestamp, Image image) {
+            android.util.Log.e("gwas", "No result for image, timestamp:" + timestamp + ", dropping it");
+            image.close();
+            mImageReader.close();
+        }
+
+        @Override
+        public void onResultOrphaned(long timestamp, ImageSaver.ImageSaverBuilder builder) {
+            android.util.Log.e("gwas", "No image for requestId:" + builder.getRequestId() + ", timestamp:" + timestamp);
+            removeRequest(builder.getRequestId());
         }
 
     }
@@ -138,34 +293,99 @@ public class OutputSurface {
         return bytes;
     }
 
-    private int convert2ImageFormat(int sensorFormat) {
-        int format = ImageFormat.JPEG;
-/*        switch (sensorFormat) {
+    private static int convert2ImageFormat(int sensorFormat) {
+        switch (sensorFormat) {
             case SURFACE_FORMAT_JPEG:
-                format = ImageFormat.JPEG;
-                break;
+                return ImageFormat.JPEG;
 
             case SURFACE_FORMAT_YUV:
-                format = ImageFormat.YUV_420_888;
-                break;
+                return ImageFormat.YUV_420_888;
 
             case SURFACE_FORMAT_SENSOR_RAW:
-                format = ImageFormat.RAW_SENSOR;
-                break;
-        }*/
-        return format;
+                return ImageFormat.RAW_SENSOR;
+        }
+        throw new IllegalArgumentException("unknown surface format " + sensorFormat);
+    }
+
+    private static int getDefaultMaxBuffer(int imageFormat) {
+        switch (imageFormat) {
+            case ImageFormat.JPEG:
+                return JPEG_MAX_BUFFER;
+
+            case ImageFormat.RAW_SENSOR:
+                return RAW_MAX_BUFFER;
+        }
+        return NON_JPEG_MAX_BUFFER;
+    }
+
+    private static int getTotalDefaultMaxBuffer(Map<Integer, Size> surfaceSize) {
+        int total = 0;
+        for (int flag : surfaceSize.keySet()) {
+            total += getDefaultMaxBuffer(convert2ImageFormat(flag));
+        }
+        return total;
     }
 
     private HashMap<Integer, Size> mSurfaceSize;
+    private Map<Integer, Integer> mMaxBuffers;
     private HashMap<Integer, ImageReaderWrapper> mImageReaders = new HashMap<>();
 
     public OutputSurface(HashMap<Integer, Size> surfaceSize,
                          Handler imageReaderHandler, Object cameraLock) {
+        // Saves are submitted on the image reader handler with the camera lock held, so the
+        // executor must never block. Room for every reader's whole budget means that, with the
+        // admission slots holding captures back, it never has to reject either.
+        this(surfaceSize, null, imageReaderHandler, cameraLock,
+                new SaverExecutor(SAVER_THREADS, getTotalDefaultMaxBuffer(surfaceSize),
+                        SaverExecutor.POLICY_REJECT), true);
+    }
+
+    /**
+     * @param saverExecutor runs the {@link ImageSaver}s; it is not shut down by
+     *                      {@link #release()}. Saves are submitted on the image reader handler
+     *                      with the camera lock held, so it should be a
+     *                      {@link SaverExecutor#POLICY_REJECT} executor: one that blocks stalls
+     *                      every camera and reader callback while its queue is full.
+     */
+    public OutputSurface(HashMap<Integer, Size> surfaceSize,
+                         Handler imageReaderHandler, Object cameraLock,
+                         SaverExecutor saverExecutor) {
+        this(surfaceSize, null, imageReaderHandler, cameraLock, saverExecutor, false);
+    }
+
+    /**
+     * @param maxBuffers images each reader may hold, by flag; readers missing from it, or all
+     *                   of them if it is null, get a default for their format.
+     * @param saverExecutor runs the {@link ImageSaver}s; it is not shut down by
+     *                      {@link #release()}. It should not block, as for
+     *                      {@link #OutputSurface(HashMap, Handler, Object, SaverExecutor)}.
+     */
+    public OutputSurface(HashMap<Integer, Size> surfaceSize, Map<Integer, Integer> maxBuffers,
+                         Handler imageReaderHandler, Object cameraLock,
+                         SaverExecutor saverExecutor) {
+        this(surfaceSize, maxBuffers, imageReaderHandler, cameraLock, saverExecutor, false);
+    }
+
+    private OutputSurface(HashMap<Integer, Size> surfaceSize, Map<Integer, Integer> maxBuffers,
+                          Handler imageReaderHandler, Object cameraLock,
+                          SaverExecutor saverExecutor, boolean ownsSaverExecutor) {
+        if (saverExecutor == null) throw new NullPointerException();
         mSurfaceSize = surfaceSize;
+        mMaxBuffers = maxBuffers != null ? maxBuffers : new HashMap<Integer, Integer>();
         mImageReaderHandler = imageReaderHandler;
+        mCameraLock = cameraLock != null ? cameraLock : this;
+        mSaverExecutor = saverExecutor;
+        mOwnsSaverExecutor = ownsSaverExecutor;
         initialize();
     }
 
+    /**
+     * @return the executor the images are saved on, for its queue metrics.
+     */
+    public SaverExecutor getSaverExecutor() {
+        return mSaverExecutor;
+    }
+
     public Surface getSurfaceLocked(int flag) {
 
         if (mImageReaders.containsKey(flag)) {
@@ -175,17 +395,46 @@ public class OutputSurface {
         return null; //gwas
     }
 
-    public void queueRequestLocked(int flag, int requestId, ImageSaver.ImageSaverBuilder builder) {
+    /**
+     * Queue a capture request for the reader of {@code flag}, if its buffer budget allows.
+     *
+     * @return false if too many captures are already in flight for that reader; the request
+     * should not be submitted until {@link #awaitCaptureSlot(int, long)} says there is room.
+     */
+    public boolean queueRequestLocked(int flag, int requestId, ImageSaver.ImageSaverBuilder builder) {
         if (mImageReaders.containsKey(flag)) {
-            android.util.Log.d("gwas", "queueRequestLocked, flag" + flag + ", requestId:" + requestId);
-            mImageReaders.get(flag).queueRequest(requestId, builder);
-            return;
+            return mImageReaders.get(flag).queueRequest(requestId, builder);
+        }
+        return false;
+    }
+
+    /**
+     * Wait until the reader of {@code flag} can take another capture. Must not be called with
+     * the camera lock held, since slots are given back under it.
+     *
+     * @return whether there was room before the timeout.
+     */
+    public boolean awaitCaptureSlot(int flag, long timeoutMs) throws InterruptedException {
+        ImageReaderWrapper wrapper;
+        synchronized (mCameraLock) {
+            wrapper = mImageReaders.get(flag);
+        }
+        return wrapper != null && wrapper.mAdmission.awaitSlot(timeoutMs);
+    }
+
+    /**
+     * @return the number of captures queued for the reader of {@code flag} whose images have
+     * not been saved or dropped yet.
+     */
+    public int getInFlightCountLocked(int flag) {
+        if (mImageReaders.containsKey(flag)) {
+            return mImageReaders.get(flag).mAdmission.getInFlight();
         }
+        return 0;
     }
 
     public ImageSaver.ImageSaverBuilder dequeueRequestLocked(int flag, int requestId) {
         if (mImageReaders.containsKey(flag)) {
-            android.util.Log.d("gwas", "dequeueRequestLocked, flag:" + flag + ", requestId:" + requestId);
             return mImageReaders.get(flag).dequeueRequest(requestId);
         }
         return null; //gwas
@@ -198,16 +447,123 @@ public class OutputSurface {
         }
     }
 
+    /**
+     * Called once the result has been set on a queued builder; saves the image as soon as the
+     * one with the same sensor timestamp has arrived.
+     */
     public void handleCompletionLocked(int flag, int requestId,
             ImageSaver.ImageSaverBuilder builder) {
         if (mImageReaders.containsKey(flag)) {
-            handleCompletionInternalLocked(requestId, builder, mImageReaders.get(flag));
+            mImageReaders.get(flag).onResultLocked(builder.setRequestId(requestId));
             return;
         }
     }
 
+    /**
+     * Queue one capture request for several readers at once, say a JPEG to keep and a YUV
+     * image to analyse, with a builder for each: {@code builders} maps each flag set in
+     * {@code flags} to its builder. Either every reader takes the request or none does.
+     * <p/>
+     * Add the surfaces with {@link #addTargetsLocked} and, when the capture completes, hand its
+     * result to {@link #onCaptureCompletedLocked}. All the builders are given the same request
+     * id and result, which is how a listener tells which images were captured together.
+     *
+     * @return false if one of the readers has no capture slot left.
+     */
+    public boolean queueRequestsLocked(int flags, int requestId,
+            Map<Integer, ImageSaver.ImageSaverBuilder> builders) {
+        if ((flags & ~mFlags) != 0) {
+            throw new IllegalArgumentException("no reader for flags " + (flags & ~mFlags));
+        }
+        int queued = 0;
+        for (Map.Entry<Integer, ImageReaderWrapper> entry : mImageReaders.entrySet()) {
+            int flag = entry.getKey();
+            if ((flags & flag) == 0) {
+                continue;
+            }
+            ImageSaver.ImageSaverBuilder builder = builders.get(flag);
+            if (builder == null) throw new NullPointerException("no builder for flag " + flag);
+            if (!entry.getValue().queueRequest(requestId, builder)) {
+                removeRequestsLocked(queued, requestId);
+                return false;
+            }
+            queued |= flag;
+        }
+        TRACE.instant(EV_QUEUE_REQUESTS, requestId, flags);
+        return true;
+    }
+
+    /**
+     * Add the surfaces of the readers in {@code flags} to {@code request}.
+     */
+    public void addTargetsLocked(CaptureRequest.Builder request, int flags) {
+        for (Map.Entry<Integer, ImageReaderWrapper> entry : mImageReaders.entrySet()) {
+            if ((flags & entry.getKey()) != 0) {
+                request.addTarget(entry.getValue().getSurface());
+            }
+        }
+    }
+
+    /**
+     * Set the result of a request queued with {@link #queueRequestsLocked} on the builder of
+     * every reader in {@code flags}; each image is saved once it has arrived too.
+     */
+    public void onCaptureCompletedLocked(int flags, int requestId, CaptureResult result) {
+        for (Map.Entry<Integer, ImageReaderWrapper> entry : mImageReaders.entrySet()) {
+            if ((flags & entry.getKey()) == 0) {
+                continue;
+            }
+            ImageReaderWrapper wrapper = entry.getValue();
+            ImageSaver.ImageSaverBuilder builder = wrapper.dequeueRequest(requestId);
+            if (builder != null) {
+                wrapper.onResultLocked(builder.setResult(result).setRequestId(requestId));
+            }
+        }
+    }
+
+    /**
+     * Forget a request queued with {@link #queueRequestsLocked}, for instance when its capture
+     * failed.
+     */
+    public void removeRequestsLocked(int flags, int requestId) {
+        for (Map.Entry<Integer, ImageReaderWrapper> entry : mImageReaders.entrySet()) {
+            if ((flags & entry.getKey()) != 0) {
+                entry.getValue().removeRequest(requestId);
+            }
+        }
+    }
+
+    /**
+     * Set how long an image may wait for its capture result, and a result for its image, before
+     * it is dropped.
+     */
+    public void setOrphanTimeoutsLocked(long imageTimeoutMs, long resultTimeoutMs) {
+        mImageTimeoutNs = TimeUnit.MILLISECONDS.toNanos(imageTimeoutMs);
+        mResultTimeoutNs = TimeUnit.MILLISECONDS.toNanos(resultTimeoutMs);
+        for (ImageReaderWrapper wrapper : mImageReaders.values()) {
+            wrapper.setOrphanTimeouts(mImageTimeoutNs, mResultTimeoutNs);
+        }
+    }
+
+    /**
+     * Choose how JPEG images reach the {@link IImageReadyListener}. By default the plane is
+     * copied into the byte array of {@link ImageSaver.ImageDataWrapper#getBytes} and the image
+     * is closed right away. With {@code zeroCopy} set, the image itself is passed on instead and
+     * held open until the listener returns, so it can be written straight from its plane with
+     * {@link ImageSaver.ImageDataWrapper#writeJpeg}. That saves a full-size copy per shot, but
+     * {@code getBytes} returns null and the image keeps its reader buffer in use meanwhile, so
+     * only listeners written for it should turn it on.
+     */
+    public void setZeroCopyJpegLocked(boolean zeroCopy) {
+        mZeroCopyJpeg = zeroCopy;
+    }
+
     public void initReprocessImageWriter(Surface surface) {
         android.util.Log.d("gwas", "initImageWriter");
+        if (mImageWriter != null) {
+            // The input surface of a previous session.
+            mImageWriter.close();
+        }
         mImageWriter = ImageWriter.newInstance(surface, NON_JPEG_MAX_BUFFER);
     }
 
@@ -215,10 +571,404 @@ public class OutputSurface {
         mImageWriter.queueInputImage(image);
     }
 
+    /**
+     * Start zero shutter lag: keep the last {@code depth} frames delivered to the returned
+     * surface, paired with the results passed to {@link #onZslResultLocked}, so that a shutter
+     * press can reprocess one of them instead of waiting for a new exposure.
+     *
+     * @param format {@link ImageFormat#YUV_420_888} or {@link ImageFormat#PRIVATE}, matching the
+     *               input configuration of the reprocessable session.
+     * @return the surface to add to the repeating request.
+     */
+    public Surface enableZslLocked(Size size, int format, int depth) {
+        if (mZslReader != null) {
+            throw new IllegalStateException("ZSL is already enabled");
+        }
+        mZslRing = new ZslRing<>(depth, (timestamp, image) -> image.close());
+        mZslReader = ImageReader.newInstance(size.getWidth(), size.getHeight(), format,
+                depth + ZSL_EXTRA_BUFFERS);
+        mZslReader.setOnImageAvailableListener(reader -> {
+            synchronized (mCameraLock) {
+                if (mZslRing == null) {
+                    return;
+                }
+                Image image;
+                try {
+                    image = reader.acquireNextImage();
+                } catch (IllegalStateException e) {
+                    android.util.Log.e("gwas", "ZSL reader out of buffers, dropping frame");
+                    return;
+                }
+                if (image != null) {
+                    mZslRing.putImage(image.getTimestamp(), image);
+                }
+            }
+        }, mImageReaderHandler);
+        android.util.Log.d("gwas", "enableZslLocked, depth:" + depth + ", format:" + format);
+        return mZslReader.getSurface();
+    }
+
+    public Surface getZslSurfaceLocked() {
+        return mZslReader != null ? mZslReader.getSurface() : null;
+    }
+
+    /**
+     * Pass on a result of the repeating request that targets the ZSL surface.
+     */
+    public void onZslResultLocked(TotalCaptureResult result) {
+        Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+        if (mZslRing != null && timestamp != null) {
+            mZslRing.putResult(timestamp, result);
+        }
+    }
+
+    /**
+     * On shutter, send the best recent ZSL frame, the most recent one with focus and exposure
+     * settled, to the reprocess {@link ImageWriter}.
+     *
+     * @return the result of that frame, to build the reprocess request from, or null if no held
+     * frame qualifies and a regular capture is needed instead.
+     */
+    public TotalCaptureResult queueBestZslFrameLocked() {
+        if (mZslRing == null || mImageWriter == null) {
+            return null;
+        }
+        ZslRing.Frame<Image, TotalCaptureResult> frame = mZslRing.takeBest(ZSL_SCORER,
+                ZslScore.MIN_SCORE);
+        if (frame == null) {
+            android.util.Log.d("gwas", "No settled ZSL frame among " + mZslRing.size());
+            return null;
+        }
+        TRACE.instant(EV_ZSL_FRAME_QUEUED, frame.getTimestamp(), 0);
+        // The writer takes ownership of the image and closes it.
+        mImageWriter.queueInputImage(frame.getImage());
+        return frame.getResult();
+    }
+
+    /**
+     * Create a reprocessable session that takes ZSL frames as input, which must have been
+     * enabled with {@link #enableZslLocked}. Its outputs are {@code outputs}, such as the preview,
+     * plus the ZSL surface and the surfaces of all readers. The reprocess {@link ImageWriter} is
+     * set up on the session's input surface before {@code callback} hears it is configured.
+     */
+    public void createReprocessableSessionLocked(CameraDevice device, List<Surface> outputs,
+            final CameraCaptureSession.StateCallback callback) throws CameraAccessException {
+        if (mZslReader == null) {
+            throw new IllegalStateException("ZSL is not enabled");
+        }
+        List<Surface> surfaces = new ArrayList<>(outputs);
+        surfaces.add(mZslReader.getSurface());
+        for (ImageReaderWrapper wrapper : mImageReaders.values()) {
+            surfaces.add(wrapper.getSurface());
+        }
+        InputConfiguration input = new InputConfiguration(mZslReader.getWidth(),
+                mZslReader.getHeight(), mZslReader.getImageFormat());
+        device.createReprocessableCaptureSession(input, surfaces,
+                new CameraCaptureSession.StateCallback() {
+                    @Override
+                    public void onConfigured(CameraCaptureSession session) {
+                        synchronized (mCameraLock) {
+                            initReprocessImageWriter(session.getInputSurface());
+                        }
+                        callback.onConfigured(session);
+                    }
+
+                    @Override
+                    public void onConfigureFailed(CameraCaptureSession session) {
+                        callback.onConfigureFailed(session);
+                    }
+
+                    @Override
+                    public void onReady(CameraCaptureSession session) {
+                        callback.onReady(session);
+                    }
+
+                    @Override
+                    public void onActive(CameraCaptureSession session) {
+                        callback.onActive(session);
+                    }
+
+                    @Override
+                    public void onClosed(CameraCaptureSession session) {
+                        callback.onClosed(session);
+                    }
+                }, mImageReaderHandler);
+    }
+
+    /**
+     * Take a picture from a held ZSL frame rather than a new exposure: the best frame goes to
+     * the session's input and a reprocess request built from its result is submitted to the
+     * reader of {@code flag}. The output comes back through the request queue like any other
+     * capture, so {@code callback} sets the result on {@code builder} and calls
+     * {@link #handleCompletionLocked} as usual; the reprocessed image and result carry the
+     * timestamp of the input frame, which is what pairs them up. The request is tagged with
+     * {@code requestId}.
+     *
+     * @return false if no held frame qualifies or the reader has no capture slot left; take a
+     * regular capture instead.
+     */
+    public boolean captureReprocessLocked(CameraCaptureSession session, int flag, int requestId,
+            ImageSaver.ImageSaverBuilder builder, CameraCaptureSession.CaptureCallback callback)
+            throws CameraAccessException {
+        Surface target = getSurfaceLocked(flag);
+        if (target == null || mZslRing == null || mImageWriter == null
+                || !session.isReprocessable()) {
+            return false;
+        }
+        // Take the capture slot first, so a held frame is not given up for nothing.
+        if (!queueRequestLocked(flag, requestId, builder)) {
+            return false;
+        }
+        TotalCaptureResult result = queueBestZslFrameLocked();
+        if (result == null) {
+            removewRequestLocked(flag, requestId);
+            return false;
+        }
+        try {
+            CaptureRequest.Builder request =
+                    session.getDevice().createReprocessCaptureRequest(result);
+            request.addTarget(target);
+            request.setTag(requestId);
+            session.capture(request.build(), callback, mImageReaderHandler);
+        } catch (CameraAccessException | RuntimeException e) {
+            removewRequestLocked(flag, requestId);
+            throw e;
+        }
+        TRACE.instant(EV_CAPTURE_REPROCESS, requestId, 0);
+        return true;
+    }
+
+    /**
+     * Take a burst of stills for the reader of {@code flag}. Frame {@code i} is built from a
+     * copy of {@code request}, targets that reader only, is tagged with
+     * {@code firstRequestId + i} and is queued with {@code builders.get(i)}, so each frame is
+     * saved as soon as its own image and result are in while the rest of the burst is still
+     * being captured. {@code request} itself is left as it is. The builders need everything but
+     * the image, the result and the listener; results are set here, and {@code listener} is
+     * called for every saved frame.
+     * <p/>
+     * As many frames as the reader's buffer budget allows go out in one captureBurst call right
+     * away. The rest are not dropped but paced: they follow in further captureBurst calls on the
+     * image reader handler as saves give capture slots back, so a burst larger than the budget
+     * runs at the rate the saves keep up with. Frames count as failed in {@code stats} only if
+     * their capture fails or cannot be submitted; its summary is logged once every frame is
+     * saved or failed. A frame whose image or result never arrives is dropped by the orphan
+     * timeouts without being counted.
+     *
+     * @param callback also told about every frame; may be null.
+     * @return the number of frames submitted right away.
+     */
+    public int captureBurstLocked(CameraCaptureSession session, int flag,
+            CaptureRequest.Builder request, int firstRequestId,
+            List<ImageSaver.ImageSaverBuilder> builders, IImageReadyListener listener,
+            BurstStats stats, CameraCaptureSession.CaptureCallback callback)
+            throws CameraAccessException {
+        Surface target = getSurfaceLocked(flag);
+        if (target == null || builders.size() != stats.getFrameCount()) {
+            throw new IllegalArgumentException("flag " + flag + ", " + builders.size()
+                    + " builders for " + stats.getFrameCount() + " frames");
+        }
+        CaptureRequest.Builder frame = copyRequest(session.getDevice(), request.build());
+        frame.addTarget(target);
+        BurstSubmitter submitter = new BurstSubmitter(session, flag, frame, firstRequestId,
+                builders, listener, stats, callback);
+        stats.onSubmitted(System.nanoTime());
+        return submitter.submitLocked();
+    }
+
+    /**
+     * A builder with the settings of {@code request}, made from a template since builders cannot
+     * be copied. Targets cannot be read back from a request, so it has none.
+     */
+    private static CaptureRequest.Builder copyRequest(CameraDevice device, CaptureRequest request)
+            throws CameraAccessException {
+        CaptureRequest.Builder copy =
+                device.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+        for (CaptureRequest.Key<?> key : request.getKeys()) {
+            copyKey(copy, request, key);
+        }
+        return copy;
+    }
+
+    private static <T> void copyKey(CaptureRequest.Builder to, CaptureRequest from,
+            CaptureRequest.Key<T> key) {
+        to.set(key, from.get(key));
+    }
+
+    /**
+     * Submits the frames of a burst in as many captureBurst calls as the reader's buffer budget
+     * needs, each with the frames that have a capture slot. Runs on the image reader handler
+     * after the first call, whenever a frame of the burst is done with and otherwise every
+     * {@link #BURST_SLOT_RETRY_MS} while slots are held by other captures.
+     */
+    private class BurstSubmitter extends CameraCaptureSession.CaptureCallback
+            implements Runnable {
+        private final CameraCaptureSession mSession;
+        private final int mFlag;
+        private final CaptureRequest.Builder mFrame;
+        private final int mFirstRequestId;
+        private final List<ImageSaver.ImageSaverBuilder> mBuilders;
+        private final BurstStats mStats;
+        private final CameraCaptureSession.CaptureCallback mCallback;
+        // Index of the first frame not submitted yet; guarded by mCameraLock.
+        private int mNext;
+
+        BurstSubmitter(CameraCaptureSession session, int flag, CaptureRequest.Builder frame,
+                int firstRequestId, List<ImageSaver.ImageSaverBuilder> builders,
+                final IImageReadyListener listener, final BurstStats stats,
+                CameraCaptureSession.CaptureCallback callback) {
+            mSession = session;
+            mFlag = flag;
+            mFrame = frame;
+            mFirstRequestId = firstRequestId;
+            mBuilders = new ArrayList<>(builders.size());
+            mStats = stats;
+            mCallback = callback;
+            for (int i = 0; i < builders.size(); i++) {
+                final int index = i;
+                mBuilders.add(builders.get(i).setImageReadyListener(
+                        (imageData, file, result) -> {
+                            try {
+                                listener.onImageReady(imageData, file, result);
+                            } finally {
+                                stats.onSaved(index, System.nanoTime());
+                                logIfDone(stats);
+                                // The save gives its slot back once this returns.
+                                postSubmit(0);
+                            }
+                        }));
+            }
+        }
+
+        @Override
+        public void run() {
+            synchronized (mCameraLock) {
+                submitPendingLocked();
+            }
+        }
+
+        private void postSubmit(long delayMs) {
+            if (mImageReaderHandler != null) {
+                // At most one pass is pending, however many frames ask for one.
+                mImageReaderHandler.removeCallbacks(this);
+                mImageReaderHandler.postDelayed(this, delayMs);
+            }
+        }
+
+        /**
+         * Queue and submit the next frames that have a capture slot. If frames are left but
+         * none has a slot, try again shortly.
+         *
+         * @return the number of frames submitted.
+         * @throws CameraAccessException if the burst could not be submitted; its frames and all
+         *                               later ones have been counted as failed.
+         */
+        int submitLocked() throws CameraAccessException {
+            if (mNext == mBuilders.size()) {
+                return 0;
+            }
+            int start = mNext;
+            List<CaptureRequest> requests = new ArrayList<>();
+            while (mNext < mBuilders.size()
+                    && queueRequestLocked(mFlag, mFirstRequestId + mNext, mBuilders.get(mNext))) {
+                mFrame.setTag(mFirstRequestId + mNext);
+                requests.add(mFrame.build());
+                mNext++;
+            }
+            if (requests.isEmpty()) {
+                postSubmit(BURST_SLOT_RETRY_MS);
+                return 0;
+            }
+            try {
+                mSession.captureBurst(requests, this, mImageReaderHandler);
+            } catch (CameraAccessException | RuntimeException e) {
+                for (int i = start; i < mNext; i++) {
+                    removewRequestLocked(mFlag, mFirstRequestId + i);
+                }
+                for (int i = start; i < mBuilders.size(); i++) {
+                    mStats.onFailed(i);
+                }
+                mNext = mBuilders.size();
+                logIfDone(mStats);
+                throw e;
+            }
+            TRACE.instant(EV_CAPTURE_BURST, mFirstRequestId + start, requests.size());
+            return requests.size();
+        }
+
+        /**
+         * {@link #submitLocked()} for the later parts of the burst, with no caller to throw to.
+         */
+        private void submitPendingLocked() {
+            int left = mBuilders.size() - mNext;
+            try {
+                submitLocked();
+            } catch (CameraAccessException | RuntimeException e) {
+                android.util.Log.e("gwas", "captureBurst failed, " + left + " frames lost: " + e);
+            }
+        }
+
+        @Override
+        public void onCaptureCompleted(CameraCaptureSession session, CaptureRequest request,
+                TotalCaptureResult result) {
+            int requestId = (Integer) request.getTag();
+            Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+            mStats.onCaptured(requestId - mFirstRequestId,
+                    timestamp != null ? timestamp : 0, System.nanoTime());
+            synchronized (mCameraLock) {
+                ImageSaver.ImageSaverBuilder builder = dequeueRequestLocked(mFlag, requestId);
+                if (builder != null) {
+                    builder.setResult(result);
+                    handleCompletionLocked(mFlag, requestId, builder);
+                }
+            }
+            if (mCallback != null) {
+                mCallback.onCaptureCompleted(session, request, result);
+            }
+        }
+
+        @Override
+        public void onCaptureFailed(CameraCaptureSession session, CaptureRequest request,
+                CaptureFailure failure) {
+            int requestId = (Integer) request.getTag();
+            synchronized (mCameraLock) {
+                removewRequestLocked(mFlag, requestId);
+                // Its slot is free again.
+                submitPendingLocked();
+            }
+            mStats.onFailed(requestId - mFirstRequestId);
+            logIfDone(mStats);
+            if (mCallback != null) {
+                mCallback.onCaptureFailed(session, request, failure);
+            }
+        }
+    }
+
+    private static void logIfDone(BurstStats stats) {
+        if (stats.isDone()) {
+            android.util.Log.d("gwas", stats.toString());
+        }
+    }
+
+    /**
+     * Stop zero shutter lag and close the frames held for it.
+     */
+    public void disableZslLocked() {
+        if (mZslReader == null) {
+            return;
+        }
+        mZslRing.clear();
+        mZslRing = null;
+        mZslReader.close();
+        mZslReader = null;
+    }
+
     private void initialize() {
         for(Map.Entry<Integer, Size> entry : mSurfaceSize.entrySet()) {
-            ImageReaderWrapper wrapper = new ImageReaderWrapper(
-                    convert2ImageFormat(entry.getKey()), entry.getValue());
+            int format = convert2ImageFormat(entry.getKey());
+            Integer maxBuffer = mMaxBuffers.get(entry.getKey());
+            ImageReaderWrapper wrapper = new ImageReaderWrapper(format, entry.getValue(),
+                    maxBuffer != null ? maxBuffer : getDefaultMaxBuffer(format));
             mImageReaders.put(entry.getKey(), wrapper);
             mFlags |= entry.getKey();
         }
@@ -227,17 +977,48 @@ public class OutputSurface {
     private void handleCompletionInternalLocked(int requestId, ImageSaver.ImageSaverBuilder builder,
             ImageReaderWrapper wrapper) {
         if (builder == null) return;
-        ImageSaver saver = builder.buildIfComplete();
+        final ImageSaver saver = builder.buildIfComplete();
         if (saver != null) {
-            wrapper.removeRequest(requestId);
-            android.util.Log.d("gwas", "execute saver");
-            AsyncTask.THREAD_POOL_EXECUTOR.execute(saver);
+            // The request's admission slot passes to the save, which gives it back when done.
+            final CaptureAdmission admission =
+                    wrapper.mResultQueue.remove(requestId) != null ? wrapper.mAdmission : null;
+            TRACE.counter(EV_SAVER_QUEUE_DEPTH, mSaverExecutor.getQueueDepth());
+            try {
+                mSaverExecutor.execute(() -> {
+                    TRACE.begin(EV_SAVE, requestId, 0);
+                    try {
+                        saver.run();
+                    } finally {
+                        TRACE.end(EV_SAVE, requestId, 0);
+                        if (admission != null) {
+                            admission.release();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                android.util.Log.e("gwas", "Saver rejected for requestId:" + requestId + ", " + e.getMessage());
+                saver.discard();
+                if (admission != null) {
+                    admission.release();
+                }
+            }
         }
     }
 
     public void release() {
-        for(Map.Entry<Integer, ImageReaderWrapper> entry : mImageReaders.entrySet()) {
-            entry.getValue().close();
+        synchronized (mCameraLock) {
+            for(Map.Entry<Integer, ImageReaderWrapper> entry : mImageReaders.entrySet()) {
+                entry.getValue().closeLocked();
+            }
+            disableZslLocked();
+            if (mImageWriter != null) {
+                mImageWriter.close();
+                mImageWriter = null;
+            }
+        }
+        if (mOwnsSaverExecutor) {
+            // Saves already queued still run; they hold their own reader references.
+            mSaverExecutor.shutdown();
         }
     }
 
@@ -1,8 +1,20 @@
 package com.example.android.output;
 
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Wraps an {@link AutoCloseable} and closes it once every user has released it.
+ * <p/>
+ * The reference count lives in a single atomic state word: the number of extra retains while the
+ * object is open, and a negative value once it has been released. All methods are lock-free, so
+ * the reader thread fetching the object for each image never waits on saver threads releasing
+ * theirs.
+ */
 public class RefCountedAutoCloseable<T extends AutoCloseable> implements AutoCloseable {
-    private T mObject;
-    private long mRefCount = 0;
+    private static final long RELEASED = -1;
+
+    private volatile T mObject;
+    private final AtomicLong mRefCount = new AtomicLong();
 
     /**
      * Wrap the given object.
@@ -19,11 +31,15 @@ public class RefCountedAutoCloseable<T extends AutoCloseable> implements AutoClo
      *
      * @return the wrapped object, or null if the object has been released.
      */
-    public synchronized T getAndRetain() {
-        if (mRefCount < 0) {
-            return null;
-        }
-        mRefCount++;
+    public T getAndRetain() {
+        long count;
+        do {
+            count = mRefCount.get();
+            if (count < 0) {
+                return null;
+            }
+        } while (!mRefCount.compareAndSet(count, count + 1));
+        // The reference just taken keeps the count above zero, so the object is still set.
         return mObject;
     }
 
@@ -32,7 +48,7 @@ public class RefCountedAutoCloseable<T extends AutoCloseable> implements AutoClo
      *
      * @return the wrapped object, or null if the object has been released.
      */
-    public synchronized T get() {
+    public T get() {
         return mObject;
     }
 
@@ -41,17 +57,22 @@ public class RefCountedAutoCloseable<T extends AutoCloseable> implements AutoClo
      * users retaining this object.
      */
     @Override
-    public synchronized void close() {
-        if (mRefCount >= 0) {
-            mRefCount--;
-            if (mRefCount < 0) {
-                try {
-                    mObject.close();
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                } finally {
-                    mObject = null;
-                }
+    public void close() {
+        long count;
+        do {
+            count = mRefCount.get();
+            if (count < 0) {
+                return;
+            }
+        } while (!mRefCount.compareAndSet(count, count - 1));
+        if (count - 1 == RELEASED) {
+            // Only the thread that moved the count to RELEASED gets here, exactly once.
+            T object = mObject;
+            mObject = null;
+            try {
+                object.close();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
             }
         }
     }
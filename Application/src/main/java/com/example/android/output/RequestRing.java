@@ -0,0 +1,149 @@
+package com.example.android.output;
+
+/**
+ * Pending capture requests keyed by request id, until their results come in.
+ * <p/>
+ * Requests are numbered by a counter, so the ids in flight form a narrow window. Each id maps
+ * straight to a slot of a power of two array, without boxing or tree nodes. Lookup, insertion
+ * and removal are O(1) amortized however many requests are in flight; the array doubles when
+ * the window outgrows it.
+ * <p/>
+ * The window only slides past removed requests, so one whose result never comes would hold it
+ * open for good. The owner takes such requests out with {@link #pollExpired}.
+ * <p/>
+ * Request ids must not be negative. This class is not thread safe.
+ */
+public class RequestRing<T> {
+
+    private Object[] mValues;
+    private long[] mQueuedNs;
+    private int mMask;
+    private int mSize;
+
+    // Every queued id is in [mHead, mTail).
+    private int mHead;
+    private int mTail;
+
+    /**
+     * @param capacity number of requests expected in flight; the ring grows past it if needed.
+     */
+    public RequestRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mValues = new Object[size];
+        mQueuedNs = new long[size];
+        mMask = size - 1;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Queue {@code value} under {@code requestId} at {@code nowNs}, replacing any request with the
+     * same id.
+     */
+    public void put(int requestId, T value, long nowNs) {
+        if (requestId < 0) {
+            throw new IllegalArgumentException("negative request id " + requestId);
+        }
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        if (mSize == 0) {
+            mHead = requestId;
+            mTail = requestId + 1;
+        } else if (requestId < mHead) {
+            ensureCapacity(mTail - requestId);
+            mHead = requestId;
+        } else if (requestId >= mTail) {
+            ensureCapacity(requestId + 1 - mHead);
+            mTail = requestId + 1;
+        }
+        int slot = requestId & mMask;
+        if (mValues[slot] == null) {
+            mSize++;
+        }
+        mValues[slot] = value;
+        mQueuedNs[slot] = nowNs;
+    }
+
+    /**
+     * @return the request queued under {@code requestId}, or null.
+     */
+    @SuppressWarnings("unchecked")
+    public T get(int requestId) {
+        if (requestId < mHead || requestId >= mTail) {
+            return null;
+        }
+        return (T) mValues[requestId & mMask];
+    }
+
+    /**
+     * Remove the request queued under {@code requestId}.
+     *
+     * @return the removed request, or null if there was none.
+     */
+    public T remove(int requestId) {
+        T value = get(requestId);
+        if (value == null) {
+            return null;
+        }
+        int slot = requestId & mMask;
+        mValues[slot] = null;
+        mSize--;
+        if (mSize == 0) {
+            mHead = mTail = 0;
+            return value;
+        }
+        while (mValues[mHead & mMask] == null) {
+            mHead++;
+        }
+        while (mValues[(mTail - 1) & mMask] == null) {
+            mTail--;
+        }
+        return value;
+    }
+
+    /**
+     * Remove the oldest request if it was queued at least {@code timeoutNs} before {@code nowNs},
+     * for instance because its capture was lost without a failure callback. Call again until it
+     * returns null to take out every such request. Requests are taken to be queued in id order,
+     * so the oldest is the one with the lowest id.
+     *
+     * @return the removed request, or null if the oldest one has not timed out.
+     */
+    public T pollExpired(long nowNs, long timeoutNs) {
+        if (mSize == 0 || nowNs - mQueuedNs[mHead & mMask] < timeoutNs) {
+            return null;
+        }
+        return remove(mHead);
+    }
+
+    /**
+     * Remove every request.
+     */
+    public void clear() {
+        for (int i = 0; i < mValues.length; i++) {
+            mValues[i] = null;
+        }
+        mSize = 0;
+        mHead = mTail = 0;
+    }
+
+    private void ensureCapacity(int window) {
+        if (window <= mValues.length) {
+            return;
+        }
+        int size = Integer.highestOneBit(window - 1) << 1;
+        Object[] values = new Object[size];
+        long[] queuedNs = new long[size];
+        int mask = size - 1;
+        for (int id = mHead; id < mTail; id++) {
+            values[id & mask] = mValues[id & mMask];
+            queuedNs[id & mask] = mQueuedNs[id & mMask];
+        }
+        mValues = values;
+        mQueuedNs = queuedNs;
+        mMask = mask;
+    }
+}
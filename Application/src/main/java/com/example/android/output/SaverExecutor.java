@@ -0,0 +1,217 @@
+package com.example.android.output;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed pool of threads that runs {@link ImageSaver}s and nothing else, with a bounded queue.
+ * <p/>
+ * Every save holds a pending image, so the queue must not grow without limit while a long burst
+ * outruns the storage. Once {@code threadCount} saves are running and {@code queueCapacity} more
+ * are waiting, {@link #execute(Runnable)} either blocks the caller until one finishes
+ * ({@link #POLICY_BLOCK}) or throws {@link RejectedExecutionException} ({@link #POLICY_REJECT}).
+ * Blocking pushes back on the thread that hands out images, which in turn leaves them in the
+ * ImageReader; tasks run with that policy must therefore not wait on anything the caller holds.
+ * <p/>
+ * The queue depth, the time tasks spend waiting for a thread and the number of rejected tasks are
+ * counted for monitoring.
+ * <p/>
+ * This class is thread safe.
+ */
+public class SaverExecutor implements Executor {
+
+    /** Block the submitting thread until there is room in the queue. */
+    public static final int POLICY_BLOCK = 0;
+
+    /** Throw {@link RejectedExecutionException} when the queue is full. */
+    public static final int POLICY_REJECT = 1;
+
+    private final ThreadPoolExecutor mPool;
+    private final Semaphore mPermits;
+    private final int mPolicy;
+
+    private final AtomicInteger mMaxQueueDepth = new AtomicInteger();
+    private final AtomicLong mStartedCount = new AtomicLong();
+    private final AtomicLong mRejectedCount = new AtomicLong();
+    private final AtomicLong mTotalWaitNs = new AtomicLong();
+    private final AtomicLong mMaxWaitNs = new AtomicLong();
+
+    /**
+     * @param threadCount   number of saves that run at once.
+     * @param queueCapacity number of saves that may wait for a thread.
+     * @param policy        {@link #POLICY_BLOCK} or {@link #POLICY_REJECT}.
+     */
+    public SaverExecutor(int threadCount, int queueCapacity, int policy) {
+        if (threadCount < 1 || queueCapacity < 0) {
+            throw new IllegalArgumentException(
+                    "bad pool size " + threadCount + "+" + queueCapacity);
+        }
+        if (policy != POLICY_BLOCK && policy != POLICY_REJECT) {
+            throw new IllegalArgumentException("unknown policy " + policy);
+        }
+        mPolicy = policy;
+        mPermits = new Semaphore(threadCount + queueCapacity);
+        // The permits keep the queue within its capacity; the queue itself only needs to be
+        // large enough never to refuse a task that holds one.
+        mPool = new ThreadPoolExecutor(threadCount, threadCount, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(threadCount + queueCapacity),
+                new SaverThreadFactory());
+    }
+
+    /**
+     * Run {@code command} on a saver thread, waiting for room in the queue or rejecting it
+     * according to the policy.
+     *
+     * @throws RejectedExecutionException if the queue is full under {@link #POLICY_REJECT}, the
+     *                                    caller is interrupted while waiting, or the executor is
+     *                                    shut down.
+     */
+    @Override
+    public void execute(Runnable command) {
+        if (command == null) throw new NullPointerException();
+        if (mPolicy == POLICY_REJECT) {
+            if (!mPermits.tryAcquire()) {
+                mRejectedCount.incrementAndGet();
+                throw new RejectedExecutionException("saver queue is full");
+            }
+        } else {
+            try {
+                mPermits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                mRejectedCount.incrementAndGet();
+                throw new RejectedExecutionException("interrupted waiting for the saver queue");
+            }
+        }
+        try {
+            mPool.execute(new Task(command, System.nanoTime()));
+        } catch (RejectedExecutionException e) {
+            mPermits.release();
+            mRejectedCount.incrementAndGet();
+            throw e;
+        }
+        int depth = mPool.getQueue().size();
+        int max;
+        while (depth > (max = mMaxQueueDepth.get())) {
+            if (mMaxQueueDepth.compareAndSet(max, depth)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return the number of saves waiting for a thread right now.
+     */
+    public int getQueueDepth() {
+        return mPool.getQueue().size();
+    }
+
+    /**
+     * @return the largest number of saves seen waiting for a thread at once.
+     */
+    public int getMaxQueueDepth() {
+        return mMaxQueueDepth.get();
+    }
+
+    /**
+     * @return the number of saves that have started running.
+     */
+    public long getStartedCount() {
+        return mStartedCount.get();
+    }
+
+    /**
+     * @return the number of saves that were refused.
+     */
+    public long getRejectedCount() {
+        return mRejectedCount.get();
+    }
+
+    /**
+     * @return the mean time, in nanoseconds, from submitting a save to it starting, or 0 if none
+     * has started.
+     */
+    public long getAverageWaitNs() {
+        long started = mStartedCount.get();
+        return started == 0 ? 0 : mTotalWaitNs.get() / started;
+    }
+
+    /**
+     * @return the longest time, in nanoseconds, a save has waited to start.
+     */
+    public long getMaxWaitNs() {
+        return mMaxWaitNs.get();
+    }
+
+    /**
+     * Clear the counters, but not the current queue depth.
+     */
+    public void resetMetrics() {
+        mMaxQueueDepth.set(0);
+        mStartedCount.set(0);
+        mRejectedCount.set(0);
+        mTotalWaitNs.set(0);
+        mMaxWaitNs.set(0);
+    }
+
+    /**
+     * Finish the saves already submitted and refuse new ones.
+     */
+    public void shutdown() {
+        mPool.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return mPool.awaitTermination(timeout, unit);
+    }
+
+    private void recordWait(long waitNs) {
+        mStartedCount.incrementAndGet();
+        mTotalWaitNs.addAndGet(waitNs);
+        long max;
+        while (waitNs > (max = mMaxWaitNs.get())) {
+            if (mMaxWaitNs.compareAndSet(max, waitNs)) {
+                break;
+            }
+        }
+    }
+
+    private class Task implements Runnable {
+        private final Runnable mCommand;
+        private final long mSubmitTimeNs;
+
+        Task(Runnable command, long submitTimeNs) {
+            mCommand = command;
+            mSubmitTimeNs = submitTimeNs;
+        }
+
+        @Override
+        public void run() {
+            recordWait(System.nanoTime() - mSubmitTimeNs);
+            try {
+                mCommand.run();
+            } finally {
+                mPermits.release();
+            }
+        }
+    }
+
+    private static class SaverThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "ImageSaver-" + mCount.incrementAndGet());
+            // Saving should not take time away from the preview and capture threads.
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    }
+}
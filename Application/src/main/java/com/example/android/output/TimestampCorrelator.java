@@ -0,0 +1,267 @@
+package com.example.android.output;
+
+/**
+ * Pairs images with the capture results they belong to by sensor timestamp, rather than by the
+ * order in which they arrive.
+ * <p/>
+ * {@code Image.getTimestamp()} and {@code CaptureResult.SENSOR_TIMESTAMP} carry the same value
+ * for a frame, so whichever half shows up first is parked under that timestamp in a
+ * {@link LongHashMap} until the other half arrives, in any order and with any frames dropped in
+ * between. A half that waits longer than its timeout is handed back as an orphan, so that an
+ * image whose result never comes does not pin a reader buffer forever, and a result whose image
+ * was dropped does not leak its request. Images and results get separate timeouts since images
+ * are the scarcer resource.
+ * <p/>
+ * Time is passed in by the caller, in nanoseconds on any monotonic clock, so nothing expires
+ * between calls. A caller that may stop calling, say at the end of a burst, should schedule an
+ * {@link #expire} for {@link #getNextExpiryNs()}. Listener callbacks run synchronously on the
+ * calling thread. This class is not thread safe.
+ *
+ * @param <I> the image type.
+ * @param <R> the result type.
+ */
+public class TimestampCorrelator<I, R> {
+
+    /**
+     * Receives matched pairs and orphans.
+     */
+    public interface Listener<I, R> {
+        void onMatched(long timestamp, I image, R result);
+
+        void onImageOrphaned(long timestamp, I image);
+
+        void onResultOrphaned(long timestamp, R result);
+    }
+
+    private final Listener<I, R> mListener;
+    private final Pending mImages;
+    private final Pending mResults;
+    private long mImageTimeoutNs;
+    private long mResultTimeoutNs;
+
+    /**
+     * @param capacity        number of images or results expected to wait at once; the
+     *                        correlator grows past it if needed.
+     * @param imageTimeoutNs  how long an image may wait for its result.
+     * @param resultTimeoutNs how long a result may wait for its image.
+     */
+    public TimestampCorrelator(int capacity, long imageTimeoutNs, long resultTimeoutNs,
+            Listener<I, R> listener) {
+        if (listener == null) throw new NullPointerException();
+        mListener = listener;
+        mImages = new Pending(capacity);
+        mResults = new Pending(capacity);
+        setTimeouts(imageTimeoutNs, resultTimeoutNs);
+    }
+
+    /**
+     * Change the timeouts. They apply to everything already waiting as well.
+     */
+    public void setTimeouts(long imageTimeoutNs, long resultTimeoutNs) {
+        if (imageTimeoutNs < 0 || resultTimeoutNs < 0) {
+            throw new IllegalArgumentException("negative timeout");
+        }
+        mImageTimeoutNs = imageTimeoutNs;
+        mResultTimeoutNs = resultTimeoutNs;
+    }
+
+    public int getPendingImageCount() {
+        return mImages.mMap.size();
+    }
+
+    public int getPendingResultCount() {
+        return mResults.mMap.size();
+    }
+
+    /**
+     * Match an image with the result waiting under its timestamp, or park it until that result
+     * arrives. Anything that timed out by {@code nowNs} is orphaned first. An image already
+     * waiting under the same timestamp is replaced and orphaned; putting the same image again has no
+     * effect.
+     */
+    @SuppressWarnings("unchecked")
+    public void putImage(long timestamp, I image, long nowNs) {
+        if (image == null) throw new NullPointerException();
+        expire(nowNs);
+        R result = (R) mResults.mMap.remove(timestamp);
+        if (result != null) {
+            mListener.onMatched(timestamp, image, result);
+            return;
+        }
+        I previous = (I) mImages.park(timestamp, image, nowNs);
+        if (previous != null && previous != image) {
+            mListener.onImageOrphaned(timestamp, previous);
+        }
+    }
+
+    /**
+     * Match a result with the image waiting under its timestamp, or park it until that image
+     * arrives. Anything that timed out by {@code nowNs} is orphaned first. A result already
+     * waiting under the same timestamp is replaced and orphaned; putting the same result again
+     * has no effect.
+     */
+    @SuppressWarnings("unchecked")
+    public void putResult(long timestamp, R result, long nowNs) {
+        if (result == null) throw new NullPointerException();
+        expire(nowNs);
+        I image = (I) mImages.mMap.remove(timestamp);
+        if (image != null) {
+            mListener.onMatched(timestamp, image, result);
+            return;
+        }
+        R previous = (R) mResults.park(timestamp, result, nowNs);
+        if (previous != null && previous != result) {
+            mListener.onResultOrphaned(timestamp, previous);
+        }
+    }
+
+    /**
+     * Orphan every image and result that has waited longer than its timeout at {@code nowNs}.
+     */
+    public void expire(long nowNs) {
+        expireImages(nowNs, false);
+        expireResults(nowNs, false);
+    }
+
+    /**
+     * @return the time by which {@link #expire} should next be called for nothing to wait past
+     * its timeout, or {@link Long#MAX_VALUE} if nothing is waiting. It may be early, when the
+     * oldest entry has been matched since.
+     */
+    public long getNextExpiryNs() {
+        long next = Long.MAX_VALUE;
+        if (mImages.mCount > 0) {
+            next = deadline(mImages.oldestArrival(), mImageTimeoutNs);
+        }
+        if (mResults.mCount > 0) {
+            next = Math.min(next, deadline(mResults.oldestArrival(), mResultTimeoutNs));
+        }
+        return next;
+    }
+
+    private static long deadline(long arrivalNs, long timeoutNs) {
+        long deadline = arrivalNs + timeoutNs;
+        // Saturate rather than wrap for timeouts that never end.
+        return deadline < arrivalNs ? Long.MAX_VALUE : deadline;
+    }
+
+    /**
+     * Orphan everything that is still waiting.
+     */
+    public void clear() {
+        expireImages(0, true);
+        expireResults(0, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void expireImages(long nowNs, boolean all) {
+        Pending pending = mImages;
+        while (pending.mCount > 0 && (all || nowNs - pending.oldestArrival() >= mImageTimeoutNs)) {
+            long timestamp = pending.oldestTimestamp();
+            I image = (I) pending.pollOldest();
+            if (image != null) {
+                mListener.onImageOrphaned(timestamp, image);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void expireResults(long nowNs, boolean all) {
+        Pending pending = mResults;
+        while (pending.mCount > 0
+                && (all || nowNs - pending.oldestArrival() >= mResultTimeoutNs)) {
+            long timestamp = pending.oldestTimestamp();
+            R result = (R) pending.pollOldest();
+            if (result != null) {
+                mListener.onResultOrphaned(timestamp, result);
+            }
+        }
+    }
+
+    /**
+     * One half of the correlator: the waiting values by timestamp, plus a FIFO of them in arrival
+     * order so that expiry only ever looks at the oldest. Matched values are taken out of the map
+     * only and are skipped when they reach the head of the FIFO.
+     */
+    private static class Pending {
+        final LongHashMap<Object> mMap;
+        private long[] mTimestamps;
+        private long[] mArrivals;
+        private Object[] mValues;
+        private int mHead;
+        int mCount;
+
+        Pending(int capacity) {
+            int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+            mMap = new LongHashMap<>(capacity);
+            mTimestamps = new long[size];
+            mArrivals = new long[size];
+            mValues = new Object[size];
+        }
+
+        /**
+         * @return the value this one replaced, if any.
+         */
+        Object park(long timestamp, Object value, long nowNs) {
+            if (mMap.get(timestamp) == value) {
+                return value;
+            }
+            // Frames usually match in order, so most stale entries are at the head already.
+            while (mCount > 0 && mMap.get(mTimestamps[mHead]) != mValues[mHead]) {
+                pollOldest();
+            }
+            if (mCount == mValues.length) {
+                grow();
+            }
+            int tail = (mHead + mCount) & (mValues.length - 1);
+            mTimestamps[tail] = timestamp;
+            mArrivals[tail] = nowNs;
+            mValues[tail] = value;
+            mCount++;
+            return mMap.put(timestamp, value);
+        }
+
+        long oldestTimestamp() {
+            return mTimestamps[mHead];
+        }
+
+        long oldestArrival() {
+            return mArrivals[mHead];
+        }
+
+        /**
+         * Drop the oldest FIFO entry.
+         *
+         * @return its value if it was still waiting, or null if it was matched or replaced.
+         */
+        Object pollOldest() {
+            long timestamp = mTimestamps[mHead];
+            Object value = mValues[mHead];
+            mValues[mHead] = null;
+            mHead = (mHead + 1) & (mValues.length - 1);
+            mCount--;
+            if (mMap.get(timestamp) != value) {
+                return null;
+            }
+            mMap.remove(timestamp);
+            return value;
+        }
+
+        private void grow() {
+            int size = 2 * mValues.length;
+            long[] timestamps = new long[size];
+            long[] arrivals = new long[size];
+            Object[] values = new Object[size];
+            for (int i = 0; i < mCount; i++) {
+                int from = (mHead + i) & (mValues.length - 1);
+                timestamps[i] = mTimestamps[from];
+                arrivals[i] = mArrivals[from];
+                values[i] = mValues[from];
+            }
+            mTimestamps = timestamps;
+            mArrivals = arrivals;
+            mValues = values;
+            mHead = 0;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.android.output;
+
+/**
+ * The most recent frames of a zero shutter lag stream, each an image and its capture result
+ * paired up by sensor timestamp, so that a shutter press can pick a frame that was already
+ * captured instead of waiting for a new one.
+ * <p/>
+ * The ring holds a fixed number of frames. Images and results are filed under their timestamp in
+ * a {@link LongHashMap} of preallocated slots, so adding either half allocates nothing; once the
+ * ring is full, each new timestamp evicts the oldest frame, complete or not, and its image is
+ * handed to the {@link Listener} to be closed.
+ * <p/>
+ * This class is not thread safe.
+ *
+ * @param <I> the image type.
+ * @param <R> the result type.
+ */
+public class ZslRing<I, R> {
+
+    /**
+     * Rates the result of a complete frame for {@link #takeBest(Scorer, int)}.
+     */
+    public interface Scorer<R> {
+        /**
+         * @return how suitable the frame is; higher is better.
+         */
+        int score(R result);
+    }
+
+    /**
+     * Receives the images of frames that drop out of the ring.
+     */
+    public interface Listener<I> {
+        void onEvicted(long timestamp, I image);
+    }
+
+    /**
+     * A frame taken out of the ring. Its image now belongs to the caller.
+     */
+    public static class Frame<I, R> {
+        private final long mTimestamp;
+        private final I mImage;
+        private final R mResult;
+
+        Frame(long timestamp, I image, R result) {
+            mTimestamp = timestamp;
+            mImage = image;
+            mResult = result;
+        }
+
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+
+        public I getImage() {
+            return mImage;
+        }
+
+        public R getResult() {
+            return mResult;
+        }
+    }
+
+    private static class Slot {
+        long timestamp;
+        Object image;
+        Object result;
+        boolean used;
+    }
+
+    private final Listener<I> mListener;
+    private final Slot[] mSlots;
+    private final LongHashMap<Slot> mByTimestamp;
+    // Slots in arrival order of their timestamps: mSlots[(mOldest + i) % length] for i < mCount.
+    private int mOldest;
+    private int mCount;
+
+    /**
+     * @param capacity number of frames to keep.
+     */
+    public ZslRing(int capacity, Listener<I> listener) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity " + capacity);
+        }
+        if (listener == null) throw new NullPointerException();
+        mListener = listener;
+        mSlots = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            mSlots[i] = new Slot();
+        }
+        mByTimestamp = new LongHashMap<>(capacity);
+    }
+
+    public int getCapacity() {
+        return mSlots.length;
+    }
+
+    /**
+     * @return the number of frames held, complete or not.
+     */
+    public int size() {
+        return mByTimestamp.size();
+    }
+
+    /**
+     * File an image under its sensor timestamp. An image already filed under it is evicted.
+     */
+    public void putImage(long timestamp, I image) {
+        if (image == null) throw new NullPointerException();
+        Slot slot = slotFor(timestamp);
+        if (slot.image != null) {
+            evictImage(slot);
+        }
+        slot.image = image;
+    }
+
+    /**
+     * File a capture result under its sensor timestamp.
+     */
+    public void putResult(long timestamp, R result) {
+        if (result == null) throw new NullPointerException();
+        slotFor(timestamp).result = result;
+    }
+
+    /**
+     * Take the complete frame with the highest score out of the ring; of equal scores, the most
+     * recent one wins.
+     *
+     * @param minScore frames scoring lower are never picked.
+     * @return the frame, or null if no complete frame scores at least {@code minScore}.
+     */
+    @SuppressWarnings("unchecked")
+    public Frame<I, R> takeBest(Scorer<R> scorer, int minScore) {
+        Slot best = null;
+        int bestScore = minScore;
+        for (int i = mCount - 1; i >= 0; i--) {
+            Slot slot = mSlots[(mOldest + i) % mSlots.length];
+            if (!slot.used || slot.image == null || slot.result == null) {
+                continue;
+            }
+            int score = scorer.score((R) slot.result);
+            if (best == null ? score >= bestScore : score > bestScore) {
+                best = slot;
+                bestScore = score;
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        Frame<I, R> frame = new Frame<>(best.timestamp, (I) best.image, (R) best.result);
+        // The slot keeps its place in arrival order and is reused once it is the oldest.
+        mByTimestamp.remove(best.timestamp);
+        best.image = null;
+        best.result = null;
+        best.used = false;
+        return frame;
+    }
+
+    /**
+     * Evict every frame.
+     */
+    public void clear() {
+        for (int i = 0; i < mCount; i++) {
+            Slot slot = mSlots[(mOldest + i) % mSlots.length];
+            evict(slot);
+        }
+        mOldest = 0;
+        mCount = 0;
+    }
+
+    private Slot slotFor(long timestamp) {
+        Slot slot = mByTimestamp.get(timestamp);
+        if (slot != null) {
+            return slot;
+        }
+        if (mCount == mSlots.length) {
+            slot = mSlots[mOldest];
+            evict(slot);
+            mOldest = (mOldest + 1) % mSlots.length;
+            mCount--;
+        }
+        slot = mSlots[(mOldest + mCount) % mSlots.length];
+        mCount++;
+        slot.timestamp = timestamp;
+        slot.used = true;
+        mByTimestamp.put(timestamp, slot);
+        return slot;
+    }
+
+    private void evict(Slot slot) {
+        if (slot.used) {
+            mByTimestamp.remove(slot.timestamp);
+            evictImage(slot);
+        }
+        slot.result = null;
+        slot.used = false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void evictImage(Slot slot) {
+        if (slot.image != null) {
+            I image = (I) slot.image;
+            slot.image = null;
+            mListener.onEvicted(slot.timestamp, image);
+        }
+    }
+}
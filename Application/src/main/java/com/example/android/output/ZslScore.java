@@ -0,0 +1,53 @@
+package com.example.android.output;
+
+/**
+ * Rates zero shutter lag frames by the 3A state of their capture results: focus counts most,
+ * then white balance. A frame whose exposure has not converged or been locked scores 0 whatever
+ * its focus, so it never reaches {@link #MIN_SCORE}.
+ * <p/>
+ * Takes the raw 3A fields rather than a {@code CaptureResult}, so the rating can be exercised
+ * off device; the constants mirror their {@code CaptureResult} counterparts.
+ */
+public class ZslScore {
+
+    public static final int AF_MODE_OFF = 0;
+    public static final int AF_STATE_PASSIVE_FOCUSED = 2;
+    public static final int AF_STATE_FOCUSED_LOCKED = 4;
+    public static final int AE_STATE_CONVERGED = 2;
+    public static final int AE_STATE_LOCKED = 3;
+    public static final int AWB_STATE_CONVERGED = 2;
+    public static final int AWB_STATE_LOCKED = 3;
+
+    /**
+     * Lowest score of a frame worth taking: exposure settled and at least passively in focus.
+     */
+    public static final int MIN_SCORE = 5;
+
+    private ZslScore() {
+    }
+
+    /**
+     * Each argument is the value of the matching {@code CaptureResult} key, or null if the
+     * result does not have it.
+     *
+     * @return the score, 0 unless exposure has settled.
+     */
+    public static int score(Integer afMode, Integer afState, Integer aeState, Integer awbState) {
+        if (aeState == null
+                || (aeState != AE_STATE_CONVERGED && aeState != AE_STATE_LOCKED)) {
+            return 0;
+        }
+        int score = 2;
+        if ((afMode != null && afMode == AF_MODE_OFF)
+                || (afState != null && afState == AF_STATE_FOCUSED_LOCKED)) {
+            score += 4;
+        } else if (afState != null && afState == AF_STATE_PASSIVE_FOCUSED) {
+            score += 3;
+        }
+        if (awbState != null
+                && (awbState == AWB_STATE_CONVERGED || awbState == AWB_STATE_LOCKED)) {
+            score += 1;
+        }
+        return score;
+    }
+}
@@ -0,0 +1,406 @@
+package com.example.android.sim;
+
+import com.example.android.image.JpegEncoder;
+import com.example.android.image.YuvPlaneCopier;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * A deterministic stand-in for a camera device and one {@code ImageReader}, so the capture and
+ * save path can be exercised and benchmarked on a plain JVM.
+ * <p/>
+ * Every {@link #submit(int) submitted} request is exposed at the next frame boundary of a sensor
+ * running at the configured frame rate, with the frame duration jittered at random. Its image
+ * and its result are then delivered separately, each after its own latency, so they arrive in
+ * either order and frames overlap the way they do on a device. Images come from a fixed pool of
+ * buffers laid out with the row and pixel strides of a camera HAL; when every buffer is still
+ * held by the consumer, the image is dropped and only the result is delivered.
+ * <p/>
+ * Time is simulated: {@link #step} delivers the next event at once and advances
+ * {@link #getNowNs()} to its due time, unless {@link #setRealTime real time} pacing is on. The
+ * same seed and the same calls give the same timestamps, latencies and drops. Events are
+ * delivered on the thread that calls {@link #step}; images may be closed from any thread.
+ */
+public class CameraSimulator {
+
+    /** The value of {@code ImageFormat.YUV_420_888}. */
+    public static final int FORMAT_YUV_420_888 = 0x23;
+    /** The value of {@code ImageFormat.JPEG}. */
+    public static final int FORMAT_JPEG = 0x100;
+
+    private static final long START_TIME_NS = 1000000000L;
+    private static final long MS = 1000000L;
+
+    /**
+     * Receives the simulated camera's output.
+     */
+    public interface Listener {
+        void onCaptureCompleted(SimulatedResult result);
+
+        /**
+         * The image belongs to the listener until it is closed.
+         */
+        void onImageAvailable(SimulatedImage image);
+
+        /**
+         * No buffer was free for the image of a frame; its result is delivered anyway.
+         */
+        void onImageDropped(long timestamp, long frameNumber);
+    }
+
+    private static class Event implements Comparable<Event> {
+        final long mTime;
+        final long mSequence;
+        final SimulatedResult mResult;
+        final boolean mIsImage;
+
+        Event(long time, long sequence, SimulatedResult result, boolean isImage) {
+            mTime = time;
+            mSequence = sequence;
+            mResult = result;
+            mIsImage = isImage;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            if (mTime != other.mTime) {
+                return mTime < other.mTime ? -1 : 1;
+            }
+            return Long.compare(mSequence, other.mSequence);
+        }
+    }
+
+    private final int mFormat;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mMaxImages;
+
+    private long mFrameDurationNs = 33333333L;
+    private double mJitter;
+    private long mExposureTimeNs = 10 * MS;
+    private long mImageLatencyNs;
+    private long mMinResultLatencyNs = 20 * MS;
+    private long mMaxResultLatencyNs = 60 * MS;
+    private int mRowAlignment = 64;
+    private int mChromaPixelStride = 2;
+    private Random mRandom = new Random(0);
+    private boolean mRealTime;
+
+    private final PriorityQueue<Event> mEvents = new PriorityQueue<>();
+    private final ArrayDeque<SimulatedImage> mFreeImages = new ArrayDeque<>();
+    private boolean mAllocated;
+    private long mNowNs = START_TIME_NS;
+    private long mNextFrameNs = START_TIME_NS;
+    private long mFrameNumber;
+    private long mSequence;
+    private long mWallStartNs;
+    private int mDroppedCount;
+
+    /**
+     * @param format    {@link #FORMAT_YUV_420_888} or {@link #FORMAT_JPEG}.
+     * @param width     frame width; must be even.
+     * @param height    frame height; must be even.
+     * @param maxImages number of image buffers, as for {@code ImageReader.newInstance}.
+     */
+    public CameraSimulator(int format, int width, int height, int maxImages) {
+        if (format != FORMAT_YUV_420_888 && format != FORMAT_JPEG) {
+            throw new IllegalArgumentException("unsupported format " + format);
+        }
+        if (width < 2 || height < 2 || (width & 1) != 0 || (height & 1) != 0) {
+            throw new IllegalArgumentException("bad size " + width + "x" + height);
+        }
+        if (maxImages < 1) {
+            throw new IllegalArgumentException("maxImages " + maxImages);
+        }
+        mFormat = format;
+        mWidth = width;
+        mHeight = height;
+        mMaxImages = maxImages;
+        // A JPEG goes through the hardware encoder after readout.
+        mImageLatencyNs = format == FORMAT_JPEG ? 120 * MS : 30 * MS;
+    }
+
+    public int getFormat() {
+        return mFormat;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @param jitter largest deviation of a frame duration from the nominal one, as a fraction
+     *               of it.
+     */
+    public synchronized CameraSimulator setFrameRate(double fps, double jitter) {
+        if (fps <= 0 || jitter < 0 || jitter >= 1) {
+            throw new IllegalArgumentException("fps " + fps + ", jitter " + jitter);
+        }
+        mFrameDurationNs = (long) (1e9 / fps);
+        mJitter = jitter;
+        return this;
+    }
+
+    /**
+     * Set how long after the start of exposure the image, and the result, are delivered. The
+     * result latency of each frame is drawn evenly from its range.
+     */
+    public synchronized CameraSimulator setLatencies(long exposureTimeNs, long imageLatencyNs,
+            long minResultLatencyNs, long maxResultLatencyNs) {
+        if (exposureTimeNs < 0 || imageLatencyNs < 0 || minResultLatencyNs < 0
+                || maxResultLatencyNs < minResultLatencyNs) {
+            throw new IllegalArgumentException("bad latencies");
+        }
+        mExposureTimeNs = exposureTimeNs;
+        mImageLatencyNs = imageLatencyNs;
+        mMinResultLatencyNs = minResultLatencyNs;
+        mMaxResultLatencyNs = maxResultLatencyNs;
+        return this;
+    }
+
+    /**
+     * Set the layout of YUV buffers: rows start at multiples of {@code rowAlignment} bytes, and
+     * chroma is interleaved, with a pixel stride of 2, or planar. Must be called before the
+     * first request.
+     */
+    public synchronized CameraSimulator setYuvLayout(int rowAlignment, int chromaPixelStride) {
+        if (mAllocated) {
+            throw new IllegalStateException("buffers are already allocated");
+        }
+        if (rowAlignment < 1 || (chromaPixelStride != 1 && chromaPixelStride != 2)) {
+            throw new IllegalArgumentException("alignment " + rowAlignment + ", pixel stride "
+                    + chromaPixelStride);
+        }
+        mRowAlignment = rowAlignment;
+        mChromaPixelStride = chromaPixelStride;
+        return this;
+    }
+
+    public synchronized CameraSimulator setSeed(long seed) {
+        mRandom = new Random(seed);
+        return this;
+    }
+
+    /**
+     * Deliver events when they are due by the wall clock, as a device would, rather than at
+     * once.
+     */
+    public synchronized CameraSimulator setRealTime(boolean realTime) {
+        mRealTime = realTime;
+        mWallStartNs = System.nanoTime() - (mNowNs - START_TIME_NS);
+        return this;
+    }
+
+    /**
+     * @return the current simulated time, in nanoseconds; the time base of the timestamps.
+     */
+    public synchronized long getNowNs() {
+        return mNowNs;
+    }
+
+    public synchronized int getPendingEventCount() {
+        return mEvents.size();
+    }
+
+    public synchronized int getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    public synchronized int getFreeImageCount() {
+        allocate();
+        return mFreeImages.size();
+    }
+
+    /**
+     * Queue a single capture. It is exposed at the next frame boundary after the previous one,
+     * or right away if the sensor is idle.
+     */
+    public synchronized void submit(int requestId) {
+        allocate();
+        long start = Math.max(mNextFrameNs, mNowNs);
+        double deviation = mJitter * (2 * mRandom.nextDouble() - 1);
+        mNextFrameNs = start + (long) (mFrameDurationNs * (1 + deviation));
+        SimulatedResult result = new SimulatedResult(requestId, mFrameNumber++, start,
+                mExposureTimeNs);
+        long resultLatency = mMinResultLatencyNs
+                + (long) (mRandom.nextDouble() * (mMaxResultLatencyNs - mMinResultLatencyNs));
+        mEvents.add(new Event(start + mExposureTimeNs + mImageLatencyNs, mSequence++, result,
+                true));
+        mEvents.add(new Event(start + mExposureTimeNs + resultLatency, mSequence++, result,
+                false));
+    }
+
+    /**
+     * Deliver the next event to {@code listener}.
+     *
+     * @return false if there was nothing left to deliver.
+     */
+    public boolean step(Listener listener) throws InterruptedException {
+        long delayNs = 0;
+        synchronized (this) {
+            Event next = mEvents.peek();
+            if (next == null) {
+                return false;
+            }
+            if (mRealTime) {
+                delayNs = mWallStartNs + (next.mTime - START_TIME_NS) - System.nanoTime();
+            }
+        }
+        if (delayNs > 0) {
+            // Not under the lock, so images can still be closed meanwhile.
+            Thread.sleep(delayNs / MS, (int) (delayNs % MS));
+        }
+        Event event;
+        SimulatedImage image = null;
+        boolean dropped = false;
+        synchronized (this) {
+            event = mEvents.poll();
+            if (event == null) {
+                return false;
+            }
+            mNowNs = Math.max(mNowNs, event.mTime);
+            if (event.mIsImage) {
+                image = mFreeImages.poll();
+                if (image == null) {
+                    mDroppedCount++;
+                    dropped = true;
+                } else {
+                    image.open(event.mResult.getSensorTimestamp(),
+                            event.mResult.getFrameNumber());
+                    if (mFormat == FORMAT_YUV_420_888) {
+                        stamp(image);
+                    }
+                }
+            }
+        }
+        // Delivered outside the lock, so the listener may close images or submit requests.
+        if (!event.mIsImage) {
+            listener.onCaptureCompleted(event.mResult);
+        } else if (dropped) {
+            listener.onImageDropped(event.mResult.getSensorTimestamp(),
+                    event.mResult.getFrameNumber());
+        } else {
+            listener.onImageAvailable(image);
+        }
+        return true;
+    }
+
+    /**
+     * Deliver every pending event.
+     */
+    public void runUntilIdle(Listener listener) throws InterruptedException {
+        while (step(listener)) {
+            // Keep going.
+        }
+    }
+
+    synchronized void recycle(SimulatedImage image) {
+        mFreeImages.add(image);
+    }
+
+    private void allocate() {
+        if (mAllocated) {
+            return;
+        }
+        mAllocated = true;
+        byte[] jpeg = mFormat == FORMAT_JPEG ? encodeJpeg() : null;
+        for (int i = 0; i < mMaxImages; i++) {
+            YuvPlaneCopier.Plane[] planes;
+            if (jpeg != null) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(jpeg.length);
+                buffer.put(jpeg).clear();
+                planes = new YuvPlaneCopier.Plane[] {new SimulatedImage.Plane(buffer, 0, 0)};
+            } else {
+                planes = createYuvPlanes();
+            }
+            mFreeImages.add(new SimulatedImage(this, mFormat, mWidth, mHeight, planes));
+        }
+    }
+
+    /**
+     * Lay out a smooth test pattern in a HAL's strides: Y rows padded to the row alignment, and
+     * chroma either interleaved in one buffer seen through two overlapping planes, or planar.
+     */
+    private YuvPlaneCopier.Plane[] createYuvPlanes() {
+        int lumaStride = align(mWidth);
+        ByteBuffer luma = ByteBuffer.allocateDirect(lumaStride * (mHeight - 1) + mWidth);
+        for (int row = 0; row < mHeight; row++) {
+            for (int col = 0; col < mWidth; col++) {
+                luma.put(row * lumaStride + col,
+                        (byte) (16 + 200 * (col + row) / (mWidth + mHeight)));
+            }
+        }
+        int chromaWidth = mWidth / 2;
+        int chromaHeight = mHeight / 2;
+        if (mChromaPixelStride == 2) {
+            int stride = align(mWidth);
+            ByteBuffer chroma = ByteBuffer.allocateDirect(stride * (chromaHeight - 1) + mWidth);
+            for (int row = 0; row < chromaHeight; row++) {
+                for (int col = 0; col < chromaWidth; col++) {
+                    chroma.put(row * stride + 2 * col, (byte) (160 - 64 * row / chromaHeight));
+                    chroma.put(row * stride + 2 * col + 1, (byte) (96 + 64 * col / chromaWidth));
+                }
+            }
+            // NV21, as most HALs deliver it: V first, U one byte later.
+            chroma.limit(chroma.capacity() - 1);
+            ByteBuffer v = chroma.slice();
+            chroma.clear().position(1);
+            ByteBuffer u = chroma.slice();
+            return new YuvPlaneCopier.Plane[] {new SimulatedImage.Plane(luma, lumaStride, 1),
+                    new SimulatedImage.Plane(u, stride, 2), new SimulatedImage.Plane(v, stride, 2)};
+        }
+        int stride = align(chromaWidth);
+        ByteBuffer u = ByteBuffer.allocateDirect(stride * (chromaHeight - 1) + chromaWidth);
+        ByteBuffer v = ByteBuffer.allocateDirect(stride * (chromaHeight - 1) + chromaWidth);
+        for (int row = 0; row < chromaHeight; row++) {
+            for (int col = 0; col < chromaWidth; col++) {
+                u.put(row * stride + col, (byte) (96 + 64 * col / chromaWidth));
+                v.put(row * stride + col, (byte) (160 - 64 * row / chromaHeight));
+            }
+        }
+        return new YuvPlaneCopier.Plane[] {new SimulatedImage.Plane(luma, lumaStride, 1),
+                new SimulatedImage.Plane(u, stride, 1), new SimulatedImage.Plane(v, stride, 1)};
+    }
+
+    private byte[] encodeJpeg() {
+        int alignment = mRowAlignment;
+        int pixelStride = mChromaPixelStride;
+        mRowAlignment = 1;
+        mChromaPixelStride = 1;
+        YuvPlaneCopier.Plane[] planes = createYuvPlanes();
+        mRowAlignment = alignment;
+        mChromaPixelStride = pixelStride;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            new JpegEncoder(90, null).encode(planes, 0, 0, mWidth, mHeight, out);
+        } catch (IOException e) {
+            // Not thrown by a ByteArrayOutputStream.
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Write the frame number into the first row, so every frame differs from the previous one.
+     */
+    private static void stamp(SimulatedImage image) {
+        ByteBuffer luma = image.getPlanes()[0].getBuffer();
+        long frameNumber = image.getFrameNumber();
+        for (int i = 0; i < 8 && i < image.getWidth(); i++) {
+            luma.put(i, (byte) (frameNumber >>> (8 * i)));
+        }
+    }
+
+    private int align(int bytes) {
+        return (bytes + mRowAlignment - 1) / mRowAlignment * mRowAlignment;
+    }
+}
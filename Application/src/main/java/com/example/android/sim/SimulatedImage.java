@@ -0,0 +1,121 @@
+package com.example.android.sim;
+
+import com.example.android.image.YuvPlaneCopier;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A frame delivered by a {@link CameraSimulator}, standing in for {@code android.media.Image}.
+ * <p/>
+ * Like an image from an {@code ImageReader}, it occupies one of a fixed number of buffers until
+ * it is closed; an unclosed image starves the simulator, which then drops frames.
+ */
+public class SimulatedImage implements AutoCloseable {
+
+    private final CameraSimulator mSimulator;
+    private final int mFormat;
+    private final int mWidth;
+    private final int mHeight;
+    private final YuvPlaneCopier.Plane[] mPlanes;
+    private long mTimestamp;
+    private long mFrameNumber;
+    private boolean mOpen;
+
+    SimulatedImage(CameraSimulator simulator, int format, int width, int height,
+            YuvPlaneCopier.Plane[] planes) {
+        mSimulator = simulator;
+        mFormat = format;
+        mWidth = width;
+        mHeight = height;
+        mPlanes = planes;
+    }
+
+    /**
+     * @return {@link CameraSimulator#FORMAT_YUV_420_888} or {@link CameraSimulator#FORMAT_JPEG}.
+     */
+    public int getFormat() {
+        return mFormat;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return the sensor timestamp, the same as the {@link SimulatedResult}'s of the frame.
+     */
+    public synchronized long getTimestamp() {
+        return mTimestamp;
+    }
+
+    public synchronized long getFrameNumber() {
+        return mFrameNumber;
+    }
+
+    /**
+     * @return the Y, U and V planes of a YUV image, or the single plane of a JPEG image, whose
+     * row and pixel strides are 0 as on a device.
+     */
+    public YuvPlaneCopier.Plane[] getPlanes() {
+        synchronized (this) {
+            if (!mOpen) {
+                throw new IllegalStateException("image is already closed");
+            }
+        }
+        return mPlanes;
+    }
+
+    /**
+     * Give the buffer back to the simulator. Closing twice has no effect.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (!mOpen) {
+                return;
+            }
+            mOpen = false;
+        }
+        mSimulator.recycle(this);
+    }
+
+    synchronized void open(long timestamp, long frameNumber) {
+        mTimestamp = timestamp;
+        mFrameNumber = frameNumber;
+        mOpen = true;
+        for (YuvPlaneCopier.Plane plane : mPlanes) {
+            plane.getBuffer().clear();
+        }
+    }
+
+    static class Plane implements YuvPlaneCopier.Plane {
+        private final ByteBuffer mBuffer;
+        private final int mRowStride;
+        private final int mPixelStride;
+
+        Plane(ByteBuffer buffer, int rowStride, int pixelStride) {
+            mBuffer = buffer;
+            mRowStride = rowStride;
+            mPixelStride = pixelStride;
+        }
+
+        @Override
+        public ByteBuffer getBuffer() {
+            return mBuffer;
+        }
+
+        @Override
+        public int getRowStride() {
+            return mRowStride;
+        }
+
+        @Override
+        public int getPixelStride() {
+            return mPixelStride;
+        }
+    }
+}
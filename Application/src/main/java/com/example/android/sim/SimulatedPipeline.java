@@ -0,0 +1,212 @@
+package com.example.android.sim;
+
+import com.example.android.output.BurstStats;
+import com.example.android.output.CaptureAdmission;
+import com.example.android.output.RequestRing;
+import com.example.android.output.SaverExecutor;
+import com.example.android.output.TimestampCorrelator;
+
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The request queue and save path of one {@code OutputSurface} reader, fed by a
+ * {@link CameraSimulator} instead of a camera device.
+ * <p/>
+ * OutputSurface itself is bound to {@code Image}, {@code ImageReader} and
+ * {@code CaptureResult}, which do not exist off device. This class puts the same parts together
+ * the same way: requests wait in a {@link RequestRing} under a {@link CaptureAdmission} budget
+ * equal to the reader's buffer count, results and images are paired by sensor timestamp in a
+ * {@link TimestampCorrelator}, and each pair is saved on a {@link SaverExecutor}, after which
+ * the image is closed and the capture slot given back. What a save does is up to the
+ * {@link FrameSaver}, such as copying YUV planes out or writing JPEG bytes.
+ */
+public class SimulatedPipeline implements CameraSimulator.Listener,
+        TimestampCorrelator.Listener<SimulatedImage, SimulatedPipeline.Request> {
+
+    private static final long DEFAULT_IMAGE_TIMEOUT_NS = 1000000000L;
+    private static final long DEFAULT_RESULT_TIMEOUT_NS = 3000000000L;
+    private static final long SLOT_WAIT_MS = 100;
+
+    /**
+     * Saves a frame, on a saver thread. The image is closed once this returns.
+     */
+    public interface FrameSaver {
+        void save(SimulatedImage image, SimulatedResult result) throws IOException;
+    }
+
+    /**
+     * A queued request, given its result once the capture completes.
+     */
+    static class Request {
+        final int mRequestId;
+        SimulatedResult mResult;
+
+        Request(int requestId) {
+            mRequestId = requestId;
+        }
+    }
+
+    private final CameraSimulator mSimulator;
+    private final SaverExecutor mExecutor;
+    private final FrameSaver mSaver;
+    private final RequestRing<Request> mResultQueue;
+    private final TimestampCorrelator<SimulatedImage, Request> mCorrelator;
+    private final CaptureAdmission mAdmission;
+    private final Object mDoneLock = new Object();
+
+    private BurstStats mStats;
+    private int mFirstRequestId;
+    private final AtomicInteger mSaveFailures = new AtomicInteger();
+
+    /**
+     * @param maxImages the simulator's buffer count, used as the capture budget.
+     */
+    public SimulatedPipeline(CameraSimulator simulator, int maxImages, SaverExecutor executor,
+            FrameSaver saver) {
+        if (simulator == null || executor == null || saver == null) {
+            throw new NullPointerException();
+        }
+        mSimulator = simulator;
+        mExecutor = executor;
+        mSaver = saver;
+        mResultQueue = new RequestRing<>(2 * maxImages);
+        mCorrelator = new TimestampCorrelator<>(maxImages, DEFAULT_IMAGE_TIMEOUT_NS,
+                DEFAULT_RESULT_TIMEOUT_NS, this);
+        mAdmission = new CaptureAdmission(maxImages);
+    }
+
+    public CaptureAdmission getAdmission() {
+        return mAdmission;
+    }
+
+    /**
+     * @return the number of saves that threw.
+     */
+    public int getSaveFailureCount() {
+        return mSaveFailures.get();
+    }
+
+    /**
+     * Capture {@code frames} frames with consecutive request ids, submitting each as soon as
+     * the capture budget allows, and wait until every one has been saved or lost.
+     */
+    public BurstStats run(int frames, int firstRequestId) throws InterruptedException {
+        BurstStats stats = new BurstStats(frames);
+        synchronized (this) {
+            mStats = stats;
+            mFirstRequestId = firstRequestId;
+        }
+        stats.onSubmitted(System.nanoTime());
+        int submitted = 0;
+        while (submitted < frames) {
+            if (queueRequest(firstRequestId + submitted)) {
+                submitted++;
+            } else if (!mSimulator.step(this)) {
+                // Every slot is held by a save in progress.
+                mAdmission.awaitSlot(SLOT_WAIT_MS);
+            }
+        }
+        mSimulator.runUntilIdle(this);
+        synchronized (this) {
+            // Every event is in, so whatever is still unpaired never will be.
+            mCorrelator.clear();
+        }
+        synchronized (mDoneLock) {
+            while (!stats.isDone()) {
+                mDoneLock.wait();
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Queue a request and submit it to the simulator, if the capture budget allows.
+     */
+    public synchronized boolean queueRequest(int requestId) {
+        if (mResultQueue.get(requestId) != null || !mAdmission.tryAcquire()) {
+            return false;
+        }
+        mResultQueue.put(requestId, new Request(requestId), mSimulator.getNowNs());
+        mSimulator.submit(requestId);
+        return true;
+    }
+
+    @Override
+    public synchronized void onCaptureCompleted(SimulatedResult result) {
+        Request request = mResultQueue.get(result.getRequestId());
+        if (request == null) {
+            return;
+        }
+        request.mResult = result;
+        mCorrelator.putResult(result.getSensorTimestamp(), request, mSimulator.getNowNs());
+    }
+
+    @Override
+    public synchronized void onImageAvailable(SimulatedImage image) {
+        mCorrelator.putImage(image.getTimestamp(), image, mSimulator.getNowNs());
+    }
+
+    @Override
+    public void onImageDropped(long timestamp, long frameNumber) {
+        // Its result is orphaned once it times out.
+    }
+
+    @Override
+    public void onMatched(long timestamp, final SimulatedImage image, Request request) {
+        mResultQueue.remove(request.mRequestId);
+        final SimulatedResult result = request.mResult;
+        final int index = request.mRequestId - mFirstRequestId;
+        final BurstStats stats = mStats;
+        if (stats != null) {
+            stats.onCaptured(index, timestamp, System.nanoTime());
+        }
+        try {
+            mExecutor.execute(() -> {
+                boolean saved = false;
+                try {
+                    mSaver.save(image, result);
+                    saved = true;
+                } catch (IOException e) {
+                    mSaveFailures.incrementAndGet();
+                } finally {
+                    image.close();
+                    mAdmission.release();
+                    finish(stats, index, saved);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            image.close();
+            mAdmission.release();
+            finish(stats, index, false);
+        }
+    }
+
+    @Override
+    public void onImageOrphaned(long timestamp, SimulatedImage image) {
+        image.close();
+    }
+
+    @Override
+    public void onResultOrphaned(long timestamp, Request request) {
+        if (mResultQueue.remove(request.mRequestId) != null) {
+            mAdmission.release();
+        }
+        finish(mStats, request.mRequestId - mFirstRequestId, false);
+    }
+
+    private void finish(BurstStats stats, int index, boolean saved) {
+        if (stats == null || index < 0 || index >= stats.getFrameCount()) {
+            return;
+        }
+        if (saved) {
+            stats.onSaved(index, System.nanoTime());
+        } else {
+            stats.onFailed(index);
+        }
+        synchronized (mDoneLock) {
+            mDoneLock.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.android.sim;
+
+/**
+ * The capture result of a frame from a {@link CameraSimulator}, standing in for
+ * {@code android.hardware.camera2.TotalCaptureResult}: the request it answers and the sensor
+ * timestamp that pairs it with its image.
+ */
+public class SimulatedResult {
+
+    private final int mRequestId;
+    private final long mFrameNumber;
+    private final long mSensorTimestamp;
+    private final long mExposureTimeNs;
+
+    SimulatedResult(int requestId, long frameNumber, long sensorTimestamp, long exposureTimeNs) {
+        mRequestId = requestId;
+        mFrameNumber = frameNumber;
+        mSensorTimestamp = sensorTimestamp;
+        mExposureTimeNs = exposureTimeNs;
+    }
+
+    /**
+     * @return the id the request was submitted with, as a request tag would carry it.
+     */
+    public int getRequestId() {
+        return mRequestId;
+    }
+
+    public long getFrameNumber() {
+        return mFrameNumber;
+    }
+
+    public long getSensorTimestamp() {
+        return mSensorTimestamp;
+    }
+
+    public long getExposureTimeNs() {
+        return mExposureTimeNs;
+    }
+}
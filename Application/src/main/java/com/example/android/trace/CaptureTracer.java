@@ -0,0 +1,167 @@
+package com.example.android.trace;
+
+import java.util.Locale;
+
+/**
+ * Times the stages of each still capture, from the shutter press to the saved file being
+ * scanned into the media store, and keeps a {@link LogHistogram} per stage.
+ * <p/>
+ * Each stage is marked with the request id of its capture. The time a stage is charged with
+ * runs from the latest earlier stage, in the order of the {@code STAGE_*} constants, marked for
+ * the same request; stages that are skipped or that complete out of order, such as an image
+ * arriving before its capture result, are still charged sensibly. When the last stage is marked
+ * the whole capture is recorded under {@link #STAGE_TOTAL} as well.
+ * <p/>
+ * The timestamps of the last {@code capacity} requests are kept in preallocated slots chosen by
+ * request id, so marking a stage allocates nothing; marks for a request whose slot has since
+ * been reused are ignored.
+ * <p/>
+ * This class is thread safe.
+ */
+public class CaptureTracer {
+
+    /** The shutter was pressed. */
+    public static final int STAGE_TAKE_PICTURE = 0;
+    /** Focus, and exposure if needed, settled and the still request was submitted. */
+    public static final int STAGE_AF_LOCKED = 1;
+    /** The capture result of the still request arrived. */
+    public static final int STAGE_CAPTURE_COMPLETED = 2;
+    /** The image of the still request arrived. */
+    public static final int STAGE_IMAGE_AVAILABLE = 3;
+    /** The image was written to its file. */
+    public static final int STAGE_FILE_WRITTEN = 4;
+    /** The media scanner finished with the file. */
+    public static final int STAGE_SCAN_COMPLETED = 5;
+    /** From the shutter press to the last stage. */
+    public static final int STAGE_TOTAL = 6;
+
+    private static final int STAGE_COUNT = STAGE_TOTAL;
+    private static final String[] STAGE_NAMES = {
+            "takePicture", "afLocked", "captureCompleted", "imageAvailable", "fileWritten",
+            "scanCompleted", "total"
+    };
+
+    private static final long NOT_MARKED = -1;
+
+    /**
+     * The source of timestamps, so tests can step time by hand.
+     */
+    public interface Clock {
+        long nanoTime();
+    }
+
+    private static final Clock SYSTEM_CLOCK = System::nanoTime;
+
+    private final Clock mClock;
+    private final LogHistogram[] mHistograms = new LogHistogram[STAGE_TOTAL + 1];
+    private final int[] mSlotRequestIds;
+    private final long[][] mSlotTimes;
+    private final int mMask;
+
+    /**
+     * @param capacity number of requests that can be in progress at once; rounded up to a power
+     *                 of two.
+     */
+    public CaptureTracer(int capacity) {
+        this(capacity, SYSTEM_CLOCK);
+    }
+
+    public CaptureTracer(int capacity, Clock clock) {
+        if (capacity < 1 || capacity > 1 << 20) {
+            throw new IllegalArgumentException("capacity " + capacity);
+        }
+        if (clock == null) throw new NullPointerException();
+        int slots = Integer.highestOneBit(capacity);
+        if (slots < capacity) {
+            slots <<= 1;
+        }
+        mClock = clock;
+        mMask = slots - 1;
+        mSlotRequestIds = new int[slots];
+        mSlotTimes = new long[slots][STAGE_COUNT];
+        for (long[] times : mSlotTimes) {
+            times[STAGE_TAKE_PICTURE] = NOT_MARKED;
+        }
+        for (int i = 0; i <= STAGE_TOTAL; i++) {
+            mHistograms[i] = new LogHistogram();
+        }
+    }
+
+    public static String getStageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    /**
+     * Mark {@code stage} of request {@code requestId} as reached now. Marking
+     * {@link #STAGE_TAKE_PICTURE} starts tracing the request, and takes over its slot.
+     */
+    public void mark(int requestId, int stage) {
+        markAt(requestId, stage, mClock.nanoTime());
+    }
+
+    private synchronized void markAt(int requestId, int stage, long now) {
+        if (stage < 0 || stage >= STAGE_COUNT) {
+            throw new IllegalArgumentException("stage " + stage);
+        }
+        int slot = requestId & mMask;
+        long[] times = mSlotTimes[slot];
+        if (stage == STAGE_TAKE_PICTURE) {
+            mSlotRequestIds[slot] = requestId;
+            for (int i = 1; i < STAGE_COUNT; i++) {
+                times[i] = NOT_MARKED;
+            }
+            times[STAGE_TAKE_PICTURE] = now;
+            return;
+        }
+        if (mSlotRequestIds[slot] != requestId || times[STAGE_TAKE_PICTURE] == NOT_MARKED
+                || times[stage] != NOT_MARKED) {
+            return;
+        }
+        times[stage] = now;
+        int previous = stage - 1;
+        while (times[previous] == NOT_MARKED) {
+            previous--;
+        }
+        mHistograms[stage].record(Math.max(0, now - times[previous]));
+        if (stage == STAGE_COUNT - 1) {
+            mHistograms[STAGE_TOTAL].record(Math.max(0, now - times[STAGE_TAKE_PICTURE]));
+            times[STAGE_TAKE_PICTURE] = NOT_MARKED;
+        }
+    }
+
+    /**
+     * @return the histogram of the time spent reaching {@code stage}, in nanoseconds.
+     */
+    public LogHistogram getHistogram(int stage) {
+        return mHistograms[stage];
+    }
+
+    public synchronized void reset() {
+        for (LogHistogram histogram : mHistograms) {
+            histogram.reset();
+        }
+        for (long[] times : mSlotTimes) {
+            times[STAGE_TAKE_PICTURE] = NOT_MARKED;
+        }
+    }
+
+    /**
+     * @return one line per stage with its count and its p50, p99 and max in milliseconds.
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int stage = STAGE_AF_LOCKED; stage <= STAGE_TOTAL; stage++) {
+            LogHistogram histogram = mHistograms[stage];
+            builder.append(String.format(Locale.US,
+                    "%-16s n=%d p50=%.1f ms p99=%.1f ms max=%.1f ms%n", STAGE_NAMES[stage],
+                    histogram.getCount(), toMs(histogram.getValueAtPercentile(50)),
+                    toMs(histogram.getValueAtPercentile(99)), toMs(histogram.getMax())));
+        }
+        return builder.toString();
+    }
+
+    private static double toMs(long ns) {
+        return ns < 0 ? 0 : ns / 1e6;
+    }
+}
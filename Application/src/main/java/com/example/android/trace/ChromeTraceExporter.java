@@ -0,0 +1,75 @@
+package com.example.android.trace;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Writes the events of a {@link TraceRing} in the Chrome trace event format, a JSON file that
+ * chrome://tracing and Perfetto open, with each thread on its own track.
+ * <p/>
+ * This runs offline, on a snapshot of the ring, so it is free to build strings.
+ */
+public class ChromeTraceExporter {
+
+    private static final String[] PHASES = {"i", "B", "E", "C"};
+
+    private ChromeTraceExporter() {
+    }
+
+    public static void write(TraceRing ring, Writer out) throws IOException {
+        write(ring, ring.snapshot(), out);
+    }
+
+    /**
+     * @param events events of {@code ring}, such as a {@link TraceRing#snapshot()}.
+     */
+    public static void write(TraceRing ring, List<TraceRing.Event> events, Writer out)
+            throws IOException {
+        out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+        boolean first = true;
+        for (TraceRing.Event event : events) {
+            String[] names = ring.getEventNames(event.getId());
+            out.write(first ? "\n" : ",\n");
+            first = false;
+            out.write("{\"name\":");
+            writeString(names[0], out);
+            out.write(",\"ph\":\"" + PHASES[event.getPhase()] + "\"");
+            // Microseconds, kept to the nanosecond.
+            out.write(String.format(Locale.US, ",\"ts\":%d.%03d",
+                    event.getTimestamp() / 1000, event.getTimestamp() % 1000));
+            out.write(",\"pid\":0,\"tid\":" + event.getThreadId());
+            if (event.getPhase() == TraceRing.PHASE_INSTANT) {
+                out.write(",\"s\":\"t\"");
+            }
+            out.write(",\"args\":{");
+            for (int i = 1; i < names.length; i++) {
+                if (i > 1) {
+                    out.write(",");
+                }
+                writeString(names[i], out);
+                out.write(":" + (i == 1 ? event.getArg0() : event.getArg1()));
+            }
+            out.write("}}");
+        }
+        out.write("\n]}\n");
+        out.flush();
+    }
+
+    private static void writeString(String value, Writer out) throws IOException {
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.write('\\');
+                out.write(c);
+            } else if (c < 0x20) {
+                out.write(String.format(Locale.US, "\\u%04x", (int) c));
+            } else {
+                out.write(c);
+            }
+        }
+        out.write('"');
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.android.trace;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative values, such as durations in nanoseconds, in log-linear buckets:
+ * every power of two is split into {@value #SUB_BUCKETS} equal buckets, so a reported value is
+ * within 1/{@value #SUB_BUCKETS} of the recorded one across the whole range of a long.
+ * <p/>
+ * Recording is an index computation and an atomic increment into a preallocated array, cheap
+ * enough for camera and saver threads; percentiles are worked out when asked for.
+ * <p/>
+ * This class is thread safe. A percentile read while values are being recorded may miss the
+ * values recorded meanwhile.
+ */
+public class LogHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    // Values below SUB_BUCKETS get a bucket each; every bit above adds SUB_BUCKETS buckets.
+    private static final int BUCKET_COUNT = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mTotalCount = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong(-1);
+
+    public void record(long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("value " + value);
+        }
+        mCounts.incrementAndGet(bucketOf(value));
+        mTotalCount.incrementAndGet();
+        long max;
+        while (value > (max = mMax.get()) && !mMax.compareAndSet(max, value)) {
+            // Raced with another record; try again.
+        }
+    }
+
+    public long getCount() {
+        return mTotalCount.get();
+    }
+
+    /**
+     * @return the largest value recorded, or -1 if there is none.
+     */
+    public long getMax() {
+        return mMax.get();
+    }
+
+    /**
+     * @return the value below which {@code percentile} percent of the recorded values fall, to
+     * the precision of a bucket and never above {@link #getMax()}; -1 if nothing was recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = mTotalCount.get();
+        if (total == 0) {
+            return -1;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mCounts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValueIn(i), mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mCounts.set(i, 0);
+        }
+        mTotalCount.set(0);
+        mMax.set(-1);
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long highestValueIn(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
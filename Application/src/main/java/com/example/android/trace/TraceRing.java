@@ -0,0 +1,231 @@
+package com.example.android.trace;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size ring of binary trace events, cheap enough to leave on in production.
+ * <p/>
+ * An event is an id, a phase, a timestamp, the id of the thread that recorded it and two long
+ * arguments, written into preallocated arrays: recording builds no strings and allocates nothing.
+ * Names are given to event ids once, with {@link #defineEvent}, and are only looked at when the
+ * ring is exported, for instance by {@link ChromeTraceExporter}. Once the ring is full the
+ * newest events overwrite the oldest.
+ * <p/>
+ * This class is thread safe. Events recorded while a {@link #snapshot()} is taken may be left
+ * out of it, but a snapshot never holds a half written event.
+ */
+public class TraceRing {
+
+    public static final int PHASE_INSTANT = 0;
+    public static final int PHASE_BEGIN = 1;
+    public static final int PHASE_END = 2;
+    public static final int PHASE_COUNTER = 3;
+
+    private static final int DEFAULT_CAPACITY = 8192;
+    private static final int MAX_EVENTS = 1 << 16;
+
+    // Longs per event: timestamp, thread id and phase and event id, argument 0, argument 1.
+    private static final int FIELDS = 4;
+    private static final long WRITING = -1;
+
+    private static final TraceRing sDefault = new TraceRing(DEFAULT_CAPACITY);
+
+    /**
+     * An event copied out of the ring.
+     */
+    public static class Event {
+        private final long mTimestamp;
+        private final int mThreadId;
+        private final int mPhase;
+        private final int mId;
+        private final long mArg0;
+        private final long mArg1;
+
+        Event(long timestamp, int threadId, int phase, int id, long arg0, long arg1) {
+            mTimestamp = timestamp;
+            mThreadId = threadId;
+            mPhase = phase;
+            mId = id;
+            mArg0 = arg0;
+            mArg1 = arg1;
+        }
+
+        /** @return the {@link System#nanoTime()} at which the event was recorded. */
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+
+        public int getThreadId() {
+            return mThreadId;
+        }
+
+        public int getPhase() {
+            return mPhase;
+        }
+
+        public int getId() {
+            return mId;
+        }
+
+        public long getArg0() {
+            return mArg0;
+        }
+
+        public long getArg1() {
+            return mArg1;
+        }
+    }
+
+    private final AtomicLongArray mData;
+    // The sequence number of the event in each slot, or WRITING while it is being written.
+    private final AtomicLongArray mSequences;
+    private final AtomicLong mNextSequence = new AtomicLong();
+    private final int mMask;
+    private volatile boolean mEnabled = true;
+
+    private final List<String[]> mEvents = new ArrayList<>();
+
+    /**
+     * @return the ring shared by the whole process.
+     */
+    public static TraceRing getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * @param capacity number of events kept; rounded up to a power of two.
+     */
+    public TraceRing(int capacity) {
+        if (capacity < 1 || capacity > 1 << 24) {
+            throw new IllegalArgumentException("capacity " + capacity);
+        }
+        int slots = Integer.highestOneBit(capacity);
+        if (slots < capacity) {
+            slots <<= 1;
+        }
+        mMask = slots - 1;
+        mData = new AtomicLongArray(slots * FIELDS);
+        mSequences = new AtomicLongArray(slots);
+        for (int i = 0; i < slots; i++) {
+            mSequences.set(i, WRITING);
+        }
+    }
+
+    public int getCapacity() {
+        return mMask + 1;
+    }
+
+    /**
+     * Give an event a name, and its arguments names too. Meant to be called once per event, to
+     * initialize a constant.
+     *
+     * @param argNames names of the arguments in use, at most two.
+     * @return the id to record the event with.
+     */
+    public synchronized int defineEvent(String name, String... argNames) {
+        if (argNames.length > 2) {
+            throw new IllegalArgumentException(argNames.length + " arguments");
+        }
+        if (mEvents.size() == MAX_EVENTS) {
+            throw new IllegalStateException("too many events");
+        }
+        String[] names = new String[1 + argNames.length];
+        names[0] = name;
+        System.arraycopy(argNames, 0, names, 1, argNames.length);
+        mEvents.add(names);
+        return mEvents.size() - 1;
+    }
+
+    /**
+     * @return the name of event {@code id}, followed by the names of its arguments.
+     */
+    public synchronized String[] getEventNames(int id) {
+        return mEvents.get(id).clone();
+    }
+
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    public void instant(int id, long arg0, long arg1) {
+        record(PHASE_INSTANT, id, arg0, arg1);
+    }
+
+    /**
+     * Start a span on this thread, to be closed by {@link #end} with the same id.
+     */
+    public void begin(int id, long arg0, long arg1) {
+        record(PHASE_BEGIN, id, arg0, arg1);
+    }
+
+    public void end(int id, long arg0, long arg1) {
+        record(PHASE_END, id, arg0, arg1);
+    }
+
+    /**
+     * Record the current value of a quantity, such as a queue depth.
+     */
+    public void counter(int id, long value) {
+        record(PHASE_COUNTER, id, value, 0);
+    }
+
+    private void record(int phase, int id, long arg0, long arg1) {
+        if (!mEnabled) {
+            return;
+        }
+        long timestamp = System.nanoTime();
+        long sequence = mNextSequence.getAndIncrement();
+        int slot = (int) sequence & mMask;
+        int base = slot * FIELDS;
+        long meta = (Thread.currentThread().getId() << 32) | ((long) phase << 16) | id;
+        mSequences.set(slot, WRITING);
+        mData.lazySet(base, timestamp);
+        mData.lazySet(base + 1, meta);
+        mData.lazySet(base + 2, arg0);
+        mData.lazySet(base + 3, arg1);
+        mSequences.lazySet(slot, sequence);
+    }
+
+    /**
+     * @return the events held, oldest first.
+     */
+    public List<Event> snapshot() {
+        long next = mNextSequence.get();
+        long first = Math.max(0, next - getCapacity());
+        List<Event> events = new ArrayList<>((int) (next - first));
+        for (long sequence = first; sequence < next; sequence++) {
+            int slot = (int) sequence & mMask;
+            int base = slot * FIELDS;
+            if (mSequences.get(slot) != sequence) {
+                continue;
+            }
+            long timestamp = mData.get(base);
+            long meta = mData.get(base + 1);
+            long arg0 = mData.get(base + 2);
+            long arg1 = mData.get(base + 3);
+            // Overwritten or being overwritten while it was read.
+            if (mSequences.get(slot) != sequence) {
+                continue;
+            }
+            events.add(new Event(timestamp, (int) (meta >>> 32), (int) (meta >>> 16) & 0xffff,
+                    (int) meta & 0xffff, arg0, arg1));
+        }
+        return events;
+    }
+
+    /**
+     * Drop every event recorded so far. Event definitions are kept.
+     */
+    public void clear() {
+        for (int i = 0; i <= mMask; i++) {
+            mSequences.set(i, WRITING);
+        }
+    }
+}
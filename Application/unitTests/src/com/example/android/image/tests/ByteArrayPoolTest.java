@@ -0,0 +1,92 @@
+package com.example.android.image.tests;
+
+import com.example.android.image.ByteArrayPool;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link ByteArrayPool}.
+ */
+public class ByteArrayPoolTest extends TestCase {
+
+    public void testReusesByLength() {
+        ByteArrayPool pool = new ByteArrayPool(1000, 4);
+        byte[] small = pool.acquire(10);
+        byte[] large = pool.acquire(100);
+        assertEquals(2, pool.getMissCount());
+        pool.release(small);
+        pool.release(large);
+        assertEquals(110, pool.getPooledBytes());
+
+        assertSame(large, pool.acquire(100));
+        assertSame(small, pool.acquire(10));
+        assertNotSame(small, pool.acquire(10));
+        assertEquals(2, pool.getHitCount());
+        assertEquals(3, pool.getMissCount());
+        assertEquals(0, pool.getPooledCount());
+    }
+
+    public void testByteBudgetEvictsOldest() {
+        ByteArrayPool pool = new ByteArrayPool(250, 8);
+        byte[] first = new byte[100];
+        byte[] second = new byte[100];
+        byte[] third = new byte[100];
+        pool.release(first);
+        pool.release(second);
+        pool.release(third);
+        assertEquals(2, pool.getPooledCount());
+        assertEquals(200, pool.getPooledBytes());
+
+        assertSame(third, pool.acquire(100));
+        assertSame(second, pool.acquire(100));
+        assertNotSame(first, pool.acquire(100));
+    }
+
+    public void testCountBudgetEvictsOldest() {
+        ByteArrayPool pool = new ByteArrayPool(1000, 2);
+        byte[] first = new byte[1];
+        byte[] second = new byte[2];
+        byte[] third = new byte[3];
+        pool.release(first);
+        pool.release(second);
+        pool.release(third);
+        assertEquals(2, pool.getPooledCount());
+        assertEquals(5, pool.getPooledBytes());
+        assertNotSame(first, pool.acquire(1));
+        assertSame(second, pool.acquire(2));
+        assertSame(third, pool.acquire(3));
+    }
+
+    public void testKeepsNothingOverBudget() {
+        ByteArrayPool pool = new ByteArrayPool(50, 4);
+        pool.release(new byte[51]);
+        assertEquals(0, pool.getPooledCount());
+
+        ByteArrayPool empty = new ByteArrayPool(1000, 0);
+        empty.release(new byte[1]);
+        assertEquals(0, empty.getPooledCount());
+    }
+
+    public void testRejectsDoubleRelease() {
+        ByteArrayPool pool = new ByteArrayPool(1000, 4);
+        byte[] buffer = pool.acquire(10);
+        pool.release(buffer);
+        try {
+            pool.release(buffer);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(1, pool.getPooledCount());
+        assertSame(buffer, pool.acquire(10));
+        assertNotSame(buffer, pool.acquire(10));
+    }
+
+    public void testClear() {
+        ByteArrayPool pool = new ByteArrayPool(1000, 4);
+        pool.release(new byte[10]);
+        pool.release(new byte[20]);
+        pool.clear();
+        assertEquals(0, pool.getPooledCount());
+        assertEquals(0, pool.getPooledBytes());
+    }
+}
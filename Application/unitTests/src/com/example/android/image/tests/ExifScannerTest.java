@@ -0,0 +1,185 @@
+package com.example.android.image.tests;
+
+import com.example.android.image.ExifScanner;
+
+import junit.framework.TestCase;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Tests for {@link ExifScanner}, on JPEG files from the JDK's encoder with Exif segments laid out
+ * the way camera HALs write them spliced in.
+ */
+public class ExifScannerTest extends TestCase {
+
+    public void testBigEndianOrientation() throws IOException {
+        byte[] jpeg = withExif(exif(ByteOrder.BIG_ENDIAN, ExifScanner.ORIENTATION_ROTATE_90));
+        assertNotNull(JpegEncoderTest.decode(jpeg));
+        assertEquals(ExifScanner.ORIENTATION_ROTATE_90,
+                ExifScanner.getOrientation(jpeg, 0, jpeg.length));
+    }
+
+    public void testLittleEndianOrientation() throws IOException {
+        byte[] jpeg = withExif(exif(ByteOrder.LITTLE_ENDIAN, ExifScanner.ORIENTATION_ROTATE_270));
+        assertEquals(ExifScanner.ORIENTATION_ROTATE_270,
+                ExifScanner.getOrientation(jpeg, 0, jpeg.length));
+    }
+
+    public void testExifIfdTags() throws IOException {
+        for (ByteOrder order : new ByteOrder[] {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            byte[] jpeg = withExif(exif(order, ExifScanner.ORIENTATION_NORMAL));
+            assertEquals(400, ExifScanner.getIntTag(jpeg, 0, jpeg.length,
+                    ExifScanner.TAG_ISO_SPEED_RATINGS, -1));
+            assertEquals(4032, ExifScanner.getIntTag(jpeg, 0, jpeg.length,
+                    ExifScanner.TAG_PIXEL_X_DIMENSION, -1));
+            assertEquals(3024, ExifScanner.getIntTag(jpeg, 0, jpeg.length,
+                    ExifScanner.TAG_PIXEL_Y_DIMENSION, -1));
+            // The Make tag is an ASCII string, which is not an integer tag.
+            assertEquals(-1, ExifScanner.getIntTag(jpeg, 0, jpeg.length, 0x010F, -1));
+            assertEquals(-1, ExifScanner.getIntTag(jpeg, 0, jpeg.length, 0x9999, -1));
+        }
+    }
+
+    public void testByteBuffers() throws IOException {
+        byte[] jpeg = withExif(exif(ByteOrder.BIG_ENDIAN, ExifScanner.ORIENTATION_ROTATE_180));
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(jpeg.length + 10);
+        direct.position(10);
+        direct.put(jpeg);
+        direct.position(10);
+        assertEquals(ExifScanner.ORIENTATION_ROTATE_180, ExifScanner.getOrientation(direct));
+        assertEquals(10, direct.position());
+
+        byte[] padded = new byte[jpeg.length + 7];
+        System.arraycopy(jpeg, 0, padded, 7, jpeg.length);
+        ByteBuffer heap = ByteBuffer.wrap(padded);
+        heap.position(3);
+        ByteBuffer slice = heap.slice();
+        slice.position(4);
+        assertEquals(ExifScanner.ORIENTATION_ROTATE_180, ExifScanner.getOrientation(slice));
+        assertEquals(ExifScanner.ORIENTATION_ROTATE_180,
+                ExifScanner.getOrientation(padded, 7, jpeg.length));
+    }
+
+    public void testSkipsOtherApp1Segments() throws IOException {
+        byte[] xmp = "http://ns.adobe.com/xap/1.0/\0<x:xmpmeta/>".getBytes("US-ASCII");
+        byte[] jpeg = withSegments(segment(0xE1, xmp),
+                segment(0xE1, exif(ByteOrder.LITTLE_ENDIAN, ExifScanner.ORIENTATION_ROTATE_90)));
+        assertEquals(ExifScanner.ORIENTATION_ROTATE_90,
+                ExifScanner.getOrientation(jpeg, 0, jpeg.length));
+    }
+
+    public void testNoExif() throws IOException {
+        byte[] jpeg = plainJpeg();
+        assertEquals(ExifScanner.ORIENTATION_UNDEFINED,
+                ExifScanner.getOrientation(jpeg, 0, jpeg.length));
+    }
+
+    public void testMalformed() throws IOException {
+        byte[] jpeg = withExif(exif(ByteOrder.BIG_ENDIAN, ExifScanner.ORIENTATION_ROTATE_90));
+        // Cut inside the Exif segment, and then corrupt the IFD0 offset.
+        assertEquals(ExifScanner.ORIENTATION_UNDEFINED, ExifScanner.getOrientation(jpeg, 0, 30));
+        jpeg[2 + 4 + 6 + 4] = 0x7F;
+        assertEquals(ExifScanner.ORIENTATION_UNDEFINED,
+                ExifScanner.getOrientation(jpeg, 0, jpeg.length));
+        assertEquals(ExifScanner.ORIENTATION_UNDEFINED,
+                ExifScanner.getOrientation(new byte[] {1, 2, 3, 4, 5}, 0, 5));
+    }
+
+    public void testDegrees() {
+        assertEquals(0, ExifScanner.toDegrees(ExifScanner.ORIENTATION_UNDEFINED));
+        assertEquals(0, ExifScanner.toDegrees(ExifScanner.ORIENTATION_NORMAL));
+        assertEquals(90, ExifScanner.toDegrees(ExifScanner.ORIENTATION_ROTATE_90));
+        assertEquals(180, ExifScanner.toDegrees(ExifScanner.ORIENTATION_ROTATE_180));
+        assertEquals(270, ExifScanner.toDegrees(ExifScanner.ORIENTATION_ROTATE_270));
+        assertEquals(90, ExifScanner.toDegrees(ExifScanner.ORIENTATION_TRANSVERSE));
+        assertEquals(270, ExifScanner.toDegrees(ExifScanner.ORIENTATION_TRANSPOSE));
+    }
+
+    /**
+     * The payload of an Exif APP1 segment: IFD0 with Make, Orientation and the Exif IFD pointer,
+     * and an Exif IFD with ISO and pixel dimensions, as a phone camera writes them.
+     */
+    private static byte[] exif(ByteOrder order, int orientation) {
+        ByteBuffer tiff = ByteBuffer.allocate(128).order(order);
+        tiff.put(order == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+        tiff.put(tiff.get(0));
+        tiff.putShort((short) 42);
+        tiff.putInt(8);
+
+        int ifd0Entries = 3;
+        int exifIfd = 8 + 2 + ifd0Entries * 12 + 4;
+        int exifEntries = 3;
+        int make = exifIfd + 2 + exifEntries * 12 + 4;
+        tiff.putShort((short) ifd0Entries);
+        entry(tiff, 0x010F, 2, 7, make);
+        entry(tiff, ExifScanner.TAG_ORIENTATION, 3, 1, orientation);
+        entry(tiff, 0x8769, 4, 1, exifIfd);
+        tiff.putInt(0);
+
+        tiff.putShort((short) exifEntries);
+        entry(tiff, ExifScanner.TAG_ISO_SPEED_RATINGS, 3, 1, 400);
+        entry(tiff, ExifScanner.TAG_PIXEL_X_DIMENSION, 4, 1, 4032);
+        entry(tiff, ExifScanner.TAG_PIXEL_Y_DIMENSION, 3, 1, 3024);
+        tiff.putInt(0);
+        tiff.put(new byte[] {'G', 'o', 'o', 'g', 'l', 'e', 0});
+
+        byte[] payload = new byte[6 + tiff.position()];
+        System.arraycopy(new byte[] {'E', 'x', 'i', 'f', 0, 0}, 0, payload, 0, 6);
+        System.arraycopy(tiff.array(), 0, payload, 6, tiff.position());
+        return payload;
+    }
+
+    private static void entry(ByteBuffer tiff, int tag, int type, int count, int value) {
+        tiff.putShort((short) tag);
+        tiff.putShort((short) type);
+        tiff.putInt(count);
+        if (type == 3) {
+            // SHORT values are left aligned in the value field.
+            tiff.putShort((short) value);
+            tiff.putShort((short) 0);
+        } else {
+            tiff.putInt(value);
+        }
+    }
+
+    private static byte[] segment(int marker, byte[] payload) {
+        byte[] segment = new byte[4 + payload.length];
+        segment[0] = (byte) 0xFF;
+        segment[1] = (byte) marker;
+        segment[2] = (byte) ((payload.length + 2) >> 8);
+        segment[3] = (byte) (payload.length + 2);
+        System.arraycopy(payload, 0, segment, 4, payload.length);
+        return segment;
+    }
+
+    private static byte[] withExif(byte[] exif) throws IOException {
+        return withSegments(segment(0xE1, exif));
+    }
+
+    /**
+     * Splice segments in right after the SOI of an encoded file, ahead of its JFIF APP0.
+     */
+    private static byte[] withSegments(byte[]... segments) throws IOException {
+        byte[] jpeg = plainJpeg();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(jpeg, 0, 2);
+        for (byte[] segment : segments) {
+            out.write(segment);
+        }
+        out.write(jpeg, 2, jpeg.length - 2);
+        return out.toByteArray();
+    }
+
+    private static byte[] plainJpeg() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(32, 16, BufferedImage.TYPE_INT_RGB), "jpeg", out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.android.image.tests;
+
+import com.example.android.image.YuvPlaneCopier;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Builds {@link YuvPlaneCopier.Plane}s the way camera HALs lay them out, for tests that run
+ * without a device.
+ */
+public class FakeYuvImage {
+
+    public static final int LAYOUT_I420 = 0;
+    public static final int LAYOUT_NV21 = 1;
+    public static final int LAYOUT_NV12 = 2;
+    public static final int LAYOUT_STRIDED = 3;
+
+    public final int width;
+    public final int height;
+    public final byte[] y;
+    public final byte[] u;
+    public final byte[] v;
+
+    /**
+     * Create an image with a deterministic, non-repeating test pattern.
+     */
+    public FakeYuvImage(int width, int height) {
+        this.width = width;
+        this.height = height;
+        y = new byte[width * height];
+        u = new byte[(width / 2) * (height / 2)];
+        v = new byte[(width / 2) * (height / 2)];
+        for (int i = 0; i < y.length; i++) {
+            y[i] = (byte) (i * 7 + (i / width) * 3);
+        }
+        for (int i = 0; i < u.length; i++) {
+            u[i] = (byte) (i * 5 + 11);
+            v[i] = (byte) (i * 13 + 101);
+        }
+    }
+
+    /**
+     * Create an image of smooth gradients, which survives lossy compression nearly unchanged.
+     */
+    public static FakeYuvImage smooth(int width, int height) {
+        FakeYuvImage image = new FakeYuvImage(width, height);
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                image.y[row * width + col] = (byte) (16 + 200 * (col + row) / (width + height));
+            }
+        }
+        int cw = width / 2;
+        int ch = height / 2;
+        for (int row = 0; row < ch; row++) {
+            for (int col = 0; col < cw; col++) {
+                image.u[row * cw + col] = (byte) (96 + 64 * col / cw);
+                image.v[row * cw + col] = (byte) (160 - 64 * row / ch);
+            }
+        }
+        return image;
+    }
+
+    public int getY(int x, int y) {
+        return this.y[y * width + x];
+    }
+
+    public int getU(int x, int y) {
+        return u[y * (width / 2) + x];
+    }
+
+    public int getV(int x, int y) {
+        return v[y * (width / 2) + x];
+    }
+
+    /**
+     * Lay the image out in direct buffers.
+     *
+     * @param layout  one of the {@code LAYOUT_*} constants.
+     * @param padding extra bytes at the end of every row.
+     */
+    public YuvPlaneCopier.Plane[] toPlanes(int layout, int padding) {
+        int lumaStride = width + padding;
+        ByteBuffer luma = ByteBuffer.allocateDirect(lumaStride * (height - 1) + width);
+        for (int row = 0; row < height; row++) {
+            luma.position(row * lumaStride);
+            luma.put(y, row * width, width);
+        }
+        luma.clear();
+        YuvPlaneCopier.Plane yPlane = new Plane(luma, lumaStride, 1);
+
+        int cw = width / 2;
+        int ch = height / 2;
+        switch (layout) {
+            case LAYOUT_I420: {
+                int stride = cw + padding;
+                return new YuvPlaneCopier.Plane[] {yPlane,
+                        new Plane(planar(u, stride), stride, 1),
+                        new Plane(planar(v, stride), stride, 1)};
+            }
+            case LAYOUT_NV21:
+            case LAYOUT_NV12: {
+                int stride = width + padding;
+                byte[] first = layout == LAYOUT_NV21 ? v : u;
+                byte[] second = layout == LAYOUT_NV21 ? u : v;
+                ByteBuffer chroma = ByteBuffer.allocateDirect(stride * (ch - 1) + 2 * cw);
+                for (int row = 0; row < ch; row++) {
+                    for (int col = 0; col < cw; col++) {
+                        chroma.put(row * stride + 2 * col, first[row * cw + col]);
+                        chroma.put(row * stride + 2 * col + 1, second[row * cw + col]);
+                    }
+                }
+                chroma.limit(chroma.capacity() - 1);
+                ByteBuffer firstView = chroma.slice();
+                chroma.clear().position(1);
+                ByteBuffer secondView = chroma.slice();
+                Plane firstPlane = new Plane(firstView, stride, 2);
+                Plane secondPlane = new Plane(secondView, stride, 2);
+                return layout == LAYOUT_NV21
+                        ? new YuvPlaneCopier.Plane[] {yPlane, secondPlane, firstPlane}
+                        : new YuvPlaneCopier.Plane[] {yPlane, firstPlane, secondPlane};
+            }
+            default: {
+                int stride = width + padding;
+                return new YuvPlaneCopier.Plane[] {yPlane,
+                        new Plane(strided(u, stride), stride, 2),
+                        new Plane(strided(v, stride), stride, 2)};
+            }
+        }
+    }
+
+    private ByteBuffer planar(byte[] samples, int stride) {
+        int cw = width / 2;
+        int ch = height / 2;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(stride * (ch - 1) + cw);
+        for (int row = 0; row < ch; row++) {
+            buffer.position(row * stride);
+            buffer.put(samples, row * cw, cw);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    private ByteBuffer strided(byte[] samples, int stride) {
+        int cw = width / 2;
+        int ch = height / 2;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(stride * (ch - 1) + 2 * cw - 1);
+        for (int row = 0; row < ch; row++) {
+            for (int col = 0; col < cw; col++) {
+                buffer.put(row * stride + 2 * col, samples[row * cw + col]);
+            }
+        }
+        return buffer;
+    }
+
+    private static class Plane implements YuvPlaneCopier.Plane {
+        private final ByteBuffer mBuffer;
+        private final int mRowStride;
+        private final int mPixelStride;
+
+        Plane(ByteBuffer buffer, int rowStride, int pixelStride) {
+            mBuffer = buffer;
+            mRowStride = rowStride;
+            mPixelStride = pixelStride;
+        }
+
+        @Override
+        public ByteBuffer getBuffer() {
+            return mBuffer;
+        }
+
+        @Override
+        public int getRowStride() {
+            return mRowStride;
+        }
+
+        @Override
+        public int getPixelStride() {
+            return mPixelStride;
+        }
+    }
+}
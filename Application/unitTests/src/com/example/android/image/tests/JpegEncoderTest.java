@@ -0,0 +1,146 @@
+package com.example.android.image.tests;
+
+import com.example.android.image.ByteArrayPool;
+import com.example.android.image.JpegEncoder;
+
+import junit.framework.TestCase;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Tests for {@link JpegEncoder}, decoding its output with the JDK's own JPEG reader.
+ */
+public class JpegEncoderTest extends TestCase {
+
+    public void testDecodesToSource() throws IOException {
+        FakeYuvImage image = FakeYuvImage.smooth(96, 64);
+        byte[] jpeg = encode(new JpegEncoder(95, null), image, FakeYuvImage.LAYOUT_NV21,
+                0, 0, 96, 64);
+
+        assertEquals(0xFF, jpeg[0] & 0xFF);
+        assertEquals(0xD8, jpeg[1] & 0xFF);
+        assertEquals(0xFF, jpeg[jpeg.length - 2] & 0xFF);
+        assertEquals(0xD9, jpeg[jpeg.length - 1] & 0xFF);
+        assertLumaClose(image, 0, 0, decode(jpeg), 3.0);
+    }
+
+    public void testPartialMcus() throws IOException {
+        // Neither dimension is a multiple of the 16 pixel MCU, and the crop is offset.
+        FakeYuvImage image = FakeYuvImage.smooth(120, 90);
+        byte[] jpeg = encode(new JpegEncoder(90, null), image, FakeYuvImage.LAYOUT_I420,
+                4, 2, 102, 74);
+        BufferedImage decoded = decode(jpeg);
+        assertEquals(102, decoded.getWidth());
+        assertEquals(74, decoded.getHeight());
+        assertLumaClose(image, 4, 2, decoded, 3.0);
+    }
+
+    public void testLayoutsEncodeIdentically() throws IOException {
+        FakeYuvImage image = new FakeYuvImage(64, 48);
+        JpegEncoder encoder = new JpegEncoder(80, new ByteArrayPool(1 << 20, 2));
+        byte[] reference = encode(encoder, image, FakeYuvImage.LAYOUT_I420, 0, 0, 64, 48);
+        for (int layout : new int[] {FakeYuvImage.LAYOUT_NV21, FakeYuvImage.LAYOUT_NV12,
+                FakeYuvImage.LAYOUT_STRIDED}) {
+            assertTrue("layout " + layout, Arrays.equals(reference,
+                    encode(encoder, image, layout, 0, 0, 64, 48)));
+        }
+    }
+
+    public void testParallelBandsDecode() throws IOException {
+        // 23 MCU rows over 3 threads gives uneven bands and more than eight restart markers.
+        FakeYuvImage image = FakeYuvImage.smooth(200, 362);
+        JpegEncoder encoder = new JpegEncoder(90, new ByteArrayPool(1 << 20, 16));
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            for (int layout : new int[] {FakeYuvImage.LAYOUT_I420, FakeYuvImage.LAYOUT_NV21}) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                encoder.encode(image.toPlanes(layout, 8), 2, 0, 196, 362, out, pool);
+                byte[] jpeg = out.toByteArray();
+                assertEquals(0xD9, jpeg[jpeg.length - 1] & 0xFF);
+                assertTrue("no restart interval", indexOf(jpeg, 0xDD) > 0);
+                BufferedImage decoded = decode(jpeg);
+                assertEquals(196, decoded.getWidth());
+                assertEquals(362, decoded.getHeight());
+                assertLumaClose(image, 2, 0, decoded, 3.0);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public void testParallelFallsBackToSerial() throws IOException {
+        // A single MCU row cannot be split, so the output matches the serial encoder exactly.
+        FakeYuvImage image = new FakeYuvImage(64, 16);
+        JpegEncoder encoder = new JpegEncoder(80, null);
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            encoder.encode(image.toPlanes(FakeYuvImage.LAYOUT_I420, 0), 0, 0, 64, 16, out, pool);
+            assertTrue(Arrays.equals(encode(encoder, image, FakeYuvImage.LAYOUT_I420,
+                    0, 0, 64, 16), out.toByteArray()));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public void testRejectsOddSize() throws IOException {
+        FakeYuvImage image = new FakeYuvImage(16, 16);
+        try {
+            encode(new JpegEncoder(90, null), image, FakeYuvImage.LAYOUT_I420, 0, 0, 15, 16);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    static byte[] encode(JpegEncoder encoder, FakeYuvImage image, int layout, int left, int top,
+            int width, int height) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.encode(image.toPlanes(layout, 8), left, top, width, height, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * @return the offset of the first 0xFF {@code marker} pair, or -1.
+     */
+    static int indexOf(byte[] jpeg, int marker) {
+        for (int i = 0; i + 1 < jpeg.length; i++) {
+            if ((jpeg[i] & 0xFF) == 0xFF && (jpeg[i + 1] & 0xFF) == marker) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static BufferedImage decode(byte[] jpeg) throws IOException {
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(jpeg));
+        assertNotNull("not a decodable JPEG", decoded);
+        return decoded;
+    }
+
+    /**
+     * Check that the mean error between the source luma and the decoded image is within
+     * {@code tolerance}.
+     */
+    static void assertLumaClose(FakeYuvImage image, int left, int top, BufferedImage decoded,
+            double tolerance) {
+        double error = 0;
+        for (int y = 0; y < decoded.getHeight(); y++) {
+            for (int x = 0; x < decoded.getWidth(); x++) {
+                int rgb = decoded.getRGB(x, y);
+                double luma = 0.299 * ((rgb >> 16) & 0xFF) + 0.587 * ((rgb >> 8) & 0xFF)
+                        + 0.114 * (rgb & 0xFF);
+                error += Math.abs(luma - (image.getY(left + x, top + y) & 0xFF));
+            }
+        }
+        error /= decoded.getWidth() * decoded.getHeight();
+        assertTrue("mean luma error " + error, error < tolerance);
+    }
+}
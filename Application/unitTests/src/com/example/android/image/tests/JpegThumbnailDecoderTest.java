@@ -0,0 +1,184 @@
+package com.example.android.image.tests;
+
+import com.example.android.image.JpegEncoder;
+import com.example.android.image.JpegThumbnailDecoder;
+
+import junit.framework.TestCase;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Tests for {@link JpegThumbnailDecoder}, checked against box filtered full decodes from the JDK's
+ * own JPEG reader.
+ */
+public class JpegThumbnailDecoderTest extends TestCase {
+
+    public void testEighthScale() throws IOException {
+        byte[] jpeg = JpegEncoderTest.encode(new JpegEncoder(90, null),
+                FakeYuvImage.smooth(200, 120), FakeYuvImage.LAYOUT_NV21, 0, 0, 200, 120);
+        assertMatchesReference(jpeg, JpegThumbnailDecoder.SCALE_1_8, 25, 15);
+    }
+
+    public void testQuarterScale() throws IOException {
+        // 4:2:0 with partial MCUs on both edges.
+        byte[] jpeg = JpegEncoderTest.encode(new JpegEncoder(90, null),
+                FakeYuvImage.smooth(200, 120), FakeYuvImage.LAYOUT_I420, 0, 0, 198, 118);
+        assertMatchesReference(jpeg, JpegThumbnailDecoder.SCALE_1_4, 50, 30);
+    }
+
+    public void testRestartIntervals() throws IOException {
+        FakeYuvImage image = FakeYuvImage.smooth(160, 400);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            new JpegEncoder(85, null).encode(image.toPlanes(FakeYuvImage.LAYOUT_NV12, 0),
+                    0, 0, 160, 400, out, pool);
+        } finally {
+            pool.shutdown();
+        }
+        assertMatchesReference(out.toByteArray(), JpegThumbnailDecoder.SCALE_1_4, 40, 100);
+    }
+
+    public void testJdkEncodedFile() throws IOException {
+        // A JFIF file from another encoder, with its own tables and 4:2:0 sampling.
+        BufferedImage source = gradient(123, 77);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(source, "jpeg", out);
+        assertMatchesReference(out.toByteArray(), JpegThumbnailDecoder.SCALE_1_8, 16, 10);
+        assertMatchesReference(out.toByteArray(), JpegThumbnailDecoder.SCALE_1_4, 31, 20);
+    }
+
+    public void testByteBuffers() throws IOException {
+        byte[] jpeg = JpegEncoderTest.encode(new JpegEncoder(90, null),
+                FakeYuvImage.smooth(96, 64), FakeYuvImage.LAYOUT_NV21, 0, 0, 96, 64);
+        JpegThumbnailDecoder decoder = new JpegThumbnailDecoder();
+        int[] expected = decoder.decode(jpeg, 0, jpeg.length, JpegThumbnailDecoder.SCALE_1_4)
+                .getPixels();
+
+        // A direct buffer, as an Image plane is, with the file in the middle of it.
+        ByteBuffer direct = ByteBuffer.allocateDirect(jpeg.length + 12);
+        direct.position(5);
+        direct.put(jpeg);
+        direct.position(5).limit(5 + jpeg.length);
+        JpegThumbnailDecoder.Thumbnail thumbnail =
+                decoder.decode(direct, JpegThumbnailDecoder.SCALE_1_4);
+        assertTrue(Arrays.equals(expected, thumbnail.getPixels()));
+        assertEquals(5, direct.position());
+
+        ByteBuffer heap = ByteBuffer.wrap(Arrays.copyOf(jpeg, jpeg.length + 3));
+        heap.limit(jpeg.length);
+        thumbnail = decoder.decode(heap.slice(), JpegThumbnailDecoder.SCALE_1_4);
+        assertTrue(Arrays.equals(expected, thumbnail.getPixels()));
+
+        direct.limit(5 + jpeg.length / 3);
+        try {
+            decoder.decode(direct, JpegThumbnailDecoder.SCALE_1_8);
+        } catch (IOException expectedForTruncation) {
+            // Either a flat tail or a clean failure is fine; an unchecked exception is not.
+        }
+    }
+
+    public void testGrayscale() throws IOException {
+        BufferedImage source = new BufferedImage(64, 40, BufferedImage.TYPE_BYTE_GRAY);
+        source.getGraphics().drawImage(gradient(64, 40), 0, 0, null);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(source, "jpeg", out);
+        assertMatchesReference(out.toByteArray(), JpegThumbnailDecoder.SCALE_1_8, 8, 5);
+    }
+
+    public void testRejectsProgressive() throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageOutputStream stream = ImageIO.createImageOutputStream(out);
+        writer.setOutput(stream);
+        writer.write(null, new IIOImage(gradient(32, 32), null, null), param);
+        stream.close();
+        writer.dispose();
+        byte[] jpeg = out.toByteArray();
+        try {
+            new JpegThumbnailDecoder().decode(jpeg, 0, jpeg.length,
+                    JpegThumbnailDecoder.SCALE_1_8);
+            fail("expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testRejectsGarbage() {
+        byte[] data = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xC0, 0, 11, 8};
+        try {
+            new JpegThumbnailDecoder().decode(data, 0, data.length, JpegThumbnailDecoder.SCALE_1_8);
+            fail("expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * A gentle gradient; at 1/8 scale 4:2:0 chroma only has one sample per two pixels, so steep
+     * colour changes are legitimately blurred.
+     */
+    private static BufferedImage gradient(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, ((64 + x * 96 / width) << 16) | ((64 + y * 96 / height) << 8) | 96);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Decode {@code jpeg} at {@code scale} and check every channel of every pixel against the
+     * average of the matching block of a full decode.
+     */
+    private static void assertMatchesReference(byte[] jpeg, int scale, int width, int height)
+            throws IOException {
+        JpegThumbnailDecoder.Thumbnail thumbnail = new JpegThumbnailDecoder().decode(jpeg, 0,
+                jpeg.length, scale);
+        assertEquals(width, thumbnail.getWidth());
+        assertEquals(height, thumbnail.getHeight());
+        BufferedImage full = JpegEncoderTest.decode(jpeg);
+        double error = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int actual = thumbnail.getPixels()[y * width + x];
+                assertEquals(0xFF, actual >>> 24);
+                for (int shift = 0; shift <= 16; shift += 8) {
+                    error += Math.abs(((actual >> shift) & 0xFF)
+                            - average(full, x * scale, y * scale, scale, shift));
+                }
+            }
+        }
+        error /= width * height * 3;
+        assertTrue("mean error " + error, error < 4.0);
+    }
+
+    private static double average(BufferedImage image, int x0, int y0, int size, int shift) {
+        // getRGB would gamma correct gray images, so read their samples directly.
+        boolean gray = image.getType() == BufferedImage.TYPE_BYTE_GRAY;
+        double sum = 0;
+        int count = 0;
+        for (int y = y0; y < Math.min(y0 + size, image.getHeight()); y++) {
+            for (int x = x0; x < Math.min(x0 + size, image.getWidth()); x++) {
+                sum += gray ? image.getRaster().getSample(x, y, 0)
+                        : (image.getRGB(x, y) >> shift) & 0xFF;
+                count++;
+            }
+        }
+        return sum / count;
+    }
+}
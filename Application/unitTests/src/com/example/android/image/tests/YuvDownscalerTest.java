@@ -0,0 +1,92 @@
+package com.example.android.image.tests;
+
+import com.example.android.image.YuvDownscaler;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+/**
+ * Tests for {@link YuvDownscaler}.
+ */
+public class YuvDownscalerTest extends TestCase {
+
+    public void testScaleFactor() {
+        assertEquals(2, YuvDownscaler.getScaleFactor(100, 80, 320));
+        assertEquals(2, YuvDownscaler.getScaleFactor(640, 480, 320));
+        assertEquals(4, YuvDownscaler.getScaleFactor(642, 480, 320));
+        assertEquals(14, YuvDownscaler.getScaleFactor(4000, 3000, 320));
+    }
+
+    public void testMatchesReferenceOnAllLayouts() {
+        FakeYuvImage image = new FakeYuvImage(96, 64);
+        YuvDownscaler downscaler = new YuvDownscaler();
+        for (int layout : new int[] {FakeYuvImage.LAYOUT_I420, FakeYuvImage.LAYOUT_NV21,
+                FakeYuvImage.LAYOUT_NV12, FakeYuvImage.LAYOUT_STRIDED}) {
+            // The crop leaves a partial block on both edges, which must be dropped.
+            int[] argb = downscaler.toArgb(image.toPlanes(layout, 8), 4, 2, 90, 60, 4);
+            assertEquals(22 * 15, argb.length);
+            for (int y = 0; y < 15; y++) {
+                for (int x = 0; x < 22; x++) {
+                    assertEquals("layout " + layout + " (" + x + "," + y + ")",
+                            reference(image, 4 + 4 * x, 2 + 4 * y, 4), argb[y * 22 + x]);
+                }
+            }
+        }
+    }
+
+    public void testGrayStaysGray() {
+        FakeYuvImage image = new FakeYuvImage(16, 16);
+        Arrays.fill(image.y, (byte) 200);
+        Arrays.fill(image.u, (byte) 128);
+        Arrays.fill(image.v, (byte) 128);
+        int[] argb = new YuvDownscaler().toArgb(image.toPlanes(FakeYuvImage.LAYOUT_NV21, 0),
+                0, 0, 16, 16, 8);
+        assertEquals(4, argb.length);
+        for (int pixel : argb) {
+            assertEquals(0xFFC8C8C8, pixel);
+        }
+    }
+
+    public void testRejectsOddFactor() {
+        FakeYuvImage image = new FakeYuvImage(16, 16);
+        try {
+            new YuvDownscaler().toArgb(image.toPlanes(FakeYuvImage.LAYOUT_I420, 0), 0, 0, 16, 16, 3);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Average one block sample by sample and convert it with the floating point JFIF matrix.
+     */
+    private static int reference(FakeYuvImage image, int x0, int y0, int factor) {
+        int half = factor / 2;
+        double y = 0;
+        double u = 0;
+        double v = 0;
+        for (int row = 0; row < factor; row++) {
+            for (int col = 0; col < factor; col++) {
+                y += image.getY(x0 + col, y0 + row) & 0xFF;
+            }
+        }
+        for (int row = 0; row < half; row++) {
+            for (int col = 0; col < half; col++) {
+                u += image.getU(x0 / 2 + col, y0 / 2 + row) & 0xFF;
+                v += image.getV(x0 / 2 + col, y0 / 2 + row) & 0xFF;
+            }
+        }
+        int luma = (int) y / (factor * factor);
+        double cb = (int) u / (half * half) - 128;
+        double cr = (int) v / (half * half) - 128;
+        int r = clamp(luma + (int) Math.round(1.402 * cr));
+        int g = clamp(luma - (int) Math.round(0.344136 * cb + 0.714136 * cr));
+        int b = clamp(luma + (int) Math.round(1.772 * cb));
+        return 0xFF000000 | (r << 16) | (g << 8) | b;
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.android.image.tests;
+
+import com.example.android.image.YuvPlaneCopier;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Tests for {@link YuvPlaneCopier}.
+ */
+public class YuvPlaneCopierTest extends TestCase {
+
+    private static final int[] LAYOUTS = {
+            FakeYuvImage.LAYOUT_I420,
+            FakeYuvImage.LAYOUT_NV21,
+            FakeYuvImage.LAYOUT_NV12,
+            FakeYuvImage.LAYOUT_STRIDED};
+
+    private static final int[] FORMATS = {
+            YuvPlaneCopier.FORMAT_I420,
+            YuvPlaneCopier.FORMAT_NV21,
+            YuvPlaneCopier.FORMAT_NV12,
+            YuvPlaneCopier.FORMAT_YV12};
+
+    public void testBufferSize() {
+        assertEquals(640 * 480 * 3 / 2, YuvPlaneCopier.getBufferSize(640, 480));
+    }
+
+    public void testAllLayoutsAndFormats() {
+        FakeYuvImage image = new FakeYuvImage(64, 48);
+        YuvPlaneCopier copier = new YuvPlaneCopier();
+        for (int layout : LAYOUTS) {
+            for (int padding : new int[] {0, 24}) {
+                for (int format : FORMATS) {
+                    byte[] data = copier.copy(image.toPlanes(layout, padding), 0, 0,
+                            image.width, image.height, format);
+                    assertPacked("layout " + layout + " padding " + padding + " format " + format,
+                            image, 0, 0, image.width, image.height, format, data, 0);
+                }
+            }
+        }
+    }
+
+    public void testCrop() {
+        FakeYuvImage image = new FakeYuvImage(96, 64);
+        YuvPlaneCopier copier = new YuvPlaneCopier();
+        for (int layout : LAYOUTS) {
+            for (int format : FORMATS) {
+                byte[] data = copier.copy(image.toPlanes(layout, 8), 16, 10, 48, 32, format);
+                assertPacked("layout " + layout + " format " + format,
+                        image, 16, 10, 48, 32, format, data, 0);
+            }
+        }
+    }
+
+    public void testParallelMatchesSerial() {
+        FakeYuvImage image = new FakeYuvImage(320, 242);
+        YuvPlaneCopier copier = new YuvPlaneCopier();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            copier.setForkJoinPool(pool);
+            copier.setParallelThreshold(0);
+            for (int layout : LAYOUTS) {
+                for (int format : FORMATS) {
+                    byte[] data = copier.copy(image.toPlanes(layout, 16), 8, 2, 304, 240, format);
+                    assertPacked("layout " + layout + " format " + format,
+                            image, 8, 2, 304, 240, format, data, 0);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public void testOutputOffset() {
+        FakeYuvImage image = new FakeYuvImage(32, 16);
+        byte[] out = new byte[7 + YuvPlaneCopier.getBufferSize(32, 16)];
+        new YuvPlaneCopier().copy(image.toPlanes(FakeYuvImage.LAYOUT_NV21, 0), 0, 0, 32, 16,
+                YuvPlaneCopier.FORMAT_NV21, out, 7);
+        assertPacked("offset", image, 0, 0, 32, 16, YuvPlaneCopier.FORMAT_NV21, out, 7);
+    }
+
+    public void testDirectBufferOutput() {
+        FakeYuvImage image = new FakeYuvImage(320, 242);
+        YuvPlaneCopier copier = new YuvPlaneCopier();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int threshold : new int[] {Integer.MAX_VALUE, 0}) {
+                copier.setForkJoinPool(pool);
+                copier.setParallelThreshold(threshold);
+                for (int layout : LAYOUTS) {
+                    for (int format : FORMATS) {
+                        int size = YuvPlaneCopier.getBufferSize(304, 240);
+                        ByteBuffer out = ByteBuffer.allocateDirect(size + 9);
+                        out.position(5);
+                        copier.copy(image.toPlanes(layout, 16), 8, 2, 304, 240, format, out);
+                        assertEquals(5 + size, out.position());
+                        byte[] data = new byte[size];
+                        out.position(5);
+                        out.get(data);
+                        assertPacked("threshold " + threshold + " layout " + layout
+                                + " format " + format, image, 8, 2, 304, 240, format, data, 0);
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public void testWrapRoundTrips() {
+        FakeYuvImage image = new FakeYuvImage(40, 22);
+        YuvPlaneCopier copier = new YuvPlaneCopier();
+        byte[] reference = copier.copy(image.toPlanes(FakeYuvImage.LAYOUT_I420, 0), 0, 0, 40, 22,
+                YuvPlaneCopier.FORMAT_I420);
+        for (int packedFormat : FORMATS) {
+            byte[] packed = new byte[3 + YuvPlaneCopier.getBufferSize(40, 22)];
+            copier.copy(image.toPlanes(FakeYuvImage.LAYOUT_NV21, 4), 0, 0, 40, 22, packedFormat,
+                    packed, 3);
+            YuvPlaneCopier.Plane[] planes = YuvPlaneCopier.wrap(packed, 3, 40, 22, packedFormat);
+            byte[] data = copier.copy(planes, 0, 0, 40, 22, YuvPlaneCopier.FORMAT_I420);
+            assertTrue("format " + packedFormat, Arrays.equals(reference, data));
+        }
+    }
+
+    public void testRejectsUnknownFormat() {
+        FakeYuvImage image = new FakeYuvImage(16, 16);
+        try {
+            new YuvPlaneCopier().copy(image.toPlanes(FakeYuvImage.LAYOUT_I420, 0), 0, 0, 16, 16, 42);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    static void assertPacked(String message, FakeYuvImage image, int left, int top, int width,
+            int height, int format, byte[] data, int offset) {
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                assertEquals(message + " Y(" + col + "," + row + ")",
+                        image.getY(left + col, top + row), data[offset + row * width + col]);
+            }
+        }
+        int cw = width / 2;
+        int ch = height / 2;
+        int chroma = offset + width * height;
+        for (int row = 0; row < ch; row++) {
+            for (int col = 0; col < cw; col++) {
+                int u = image.getU(left / 2 + col, top / 2 + row);
+                int v = image.getV(left / 2 + col, top / 2 + row);
+                int i = row * cw + col;
+                switch (format) {
+                    case YuvPlaneCopier.FORMAT_I420:
+                        assertEquals(message + " U" + i, u, data[chroma + i]);
+                        assertEquals(message + " V" + i, v, data[chroma + cw * ch + i]);
+                        break;
+                    case YuvPlaneCopier.FORMAT_YV12:
+                        assertEquals(message + " V" + i, v, data[chroma + i]);
+                        assertEquals(message + " U" + i, u, data[chroma + cw * ch + i]);
+                        break;
+                    case YuvPlaneCopier.FORMAT_NV21:
+                        assertEquals(message + " V" + i, v, data[chroma + 2 * i]);
+                        assertEquals(message + " U" + i, u, data[chroma + 2 * i + 1]);
+                        break;
+                    default:
+                        assertEquals(message + " U" + i, u, data[chroma + 2 * i]);
+                        assertEquals(message + " V" + i, v, data[chroma + 2 * i + 1]);
+                        break;
+                }
+            }
+        }
+    }
+}
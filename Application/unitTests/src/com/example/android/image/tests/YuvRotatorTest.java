@@ -0,0 +1,111 @@
+package com.example.android.image.tests;
+
+import com.example.android.image.YuvPlaneCopier;
+import com.example.android.image.YuvRotator;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link YuvRotator}.
+ */
+public class YuvRotatorTest extends TestCase {
+
+    private static final int[] FORMATS = {
+            YuvPlaneCopier.FORMAT_I420,
+            YuvPlaneCopier.FORMAT_NV21,
+            YuvPlaneCopier.FORMAT_NV12,
+            YuvPlaneCopier.FORMAT_YV12};
+
+    public void testAllRotations() {
+        // Neither side is a multiple of the tile size, so partial tiles are covered too.
+        FakeYuvImage image = new FakeYuvImage(70, 38);
+        YuvPlaneCopier copier = new YuvPlaneCopier();
+        for (int format : FORMATS) {
+            byte[] src = copier.copy(image.toPlanes(FakeYuvImage.LAYOUT_I420, 0), 0, 0, 70, 38,
+                    format);
+            for (int degrees = 0; degrees < 360; degrees += 90) {
+                for (boolean mirror : new boolean[] {false, true}) {
+                    int width = YuvRotator.getRotatedWidth(70, 38, degrees);
+                    int height = YuvRotator.getRotatedHeight(70, 38, degrees);
+                    byte[] dst = new byte[5 + src.length];
+                    YuvRotator.rotate(src, 0, 70, 38, format, degrees, mirror, dst, 5);
+                    String message = "format " + format + " degrees " + degrees
+                            + " mirror " + mirror;
+                    for (int y = 0; y < height; y++) {
+                        for (int x = 0; x < width; x++) {
+                            int[] source = sourceOf(x, y, 70, 38, degrees, mirror);
+                            assertEquals(message + " Y(" + x + "," + y + ")",
+                                    image.getY(source[0], source[1]), dst[5 + y * width + x]);
+                        }
+                    }
+                    // Rotating the chroma the same way must keep every sample paired with its
+                    // luma block, which unpacking through the copier checks for every format.
+                    byte[] unpacked = copier.copy(YuvPlaneCopier.wrap(dst, 5, width, height,
+                            format), 0, 0, width, height, YuvPlaneCopier.FORMAT_I420);
+                    int cw = width / 2;
+                    for (int y = 0; y < height / 2; y++) {
+                        for (int x = 0; x < cw; x++) {
+                            int[] source = sourceOf(x, y, 35, 19, degrees, mirror);
+                            assertEquals(message + " U" + x + "," + y,
+                                    image.getU(source[0], source[1]),
+                                    unpacked[width * height + y * cw + x]);
+                            assertEquals(message + " V" + x + "," + y,
+                                    image.getV(source[0], source[1]),
+                                    unpacked[width * height + cw * (height / 2) + y * cw + x]);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    public void testRejectsOverlap() {
+        byte[] frame = new byte[2 * YuvPlaneCopier.getBufferSize(16, 16)];
+        try {
+            YuvRotator.rotate(frame, 0, 16, 16, YuvPlaneCopier.FORMAT_I420, 90, false, frame, 10);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testRejectsOddAngle() {
+        byte[] frame = new byte[YuvPlaneCopier.getBufferSize(16, 16)];
+        try {
+            YuvRotator.rotate(frame, 0, 16, 16, YuvPlaneCopier.FORMAT_I420, 45, false,
+                    new byte[frame.length], 0);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Invert the transform: the source coordinates of destination sample (x, y) of a
+     * {@code width x height} source mirrored and then rotated clockwise by {@code degrees}.
+     */
+    private static int[] sourceOf(int x, int y, int width, int height, int degrees,
+            boolean mirror) {
+        int sx;
+        int sy;
+        switch (degrees) {
+            case 90:
+                sx = y;
+                sy = height - 1 - x;
+                break;
+            case 180:
+                sx = width - 1 - x;
+                sy = height - 1 - y;
+                break;
+            case 270:
+                sx = width - 1 - y;
+                sy = x;
+                break;
+            default:
+                sx = x;
+                sy = y;
+                break;
+        }
+        return new int[] {mirror ? width - 1 - sx : sx, sy};
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.android.output.tests;
+
+import com.example.android.output.BurstStats;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link BurstStats}.
+ */
+public class BurstStatsTest extends TestCase {
+
+    private static final long MS = 1000000L;
+
+    public void testRatesAndLatencies() {
+        BurstStats stats = new BurstStats(4);
+        stats.onSubmitted(1000 * MS);
+        for (int i = 0; i < 4; i++) {
+            // 30 fps sensor cadence, saves falling behind by 50 ms a frame.
+            stats.onCaptured(i, 5000 * MS + i * 33333333L, 1100 * MS + i * 33 * MS);
+            assertFalse(stats.isDone());
+            stats.onSaved(i, 1200 * MS + i * 100 * MS);
+        }
+        assertTrue(stats.isDone());
+        assertEquals(30.0, stats.getCaptureFps(), 0.01);
+        // Four frames saved 500 ms after the burst was submitted.
+        assertEquals(8.0, stats.getSustainedFps(), 0.01);
+        assertEquals(200 * MS, stats.getLatencyNs(0));
+        assertEquals(500 * MS, stats.getLatencyNs(3));
+        assertEquals(300 * MS, stats.getLatencyPercentileNs(50));
+        assertEquals(500 * MS, stats.getLatencyPercentileNs(90));
+        assertEquals(200 * MS, stats.getLatencyPercentileNs(0));
+        assertTrue(stats.toString().contains("capture 30.0 fps, sustained 8.0 fps"));
+    }
+
+    public void testFailedFrames() {
+        BurstStats stats = new BurstStats(3);
+        assertEquals(0.0, stats.getCaptureFps());
+        assertEquals(0.0, stats.getSustainedFps());
+        assertEquals(-1, stats.getLatencyPercentileNs(50));
+        stats.onSubmitted(0);
+        stats.onFailed(0);
+        stats.onCaptured(1, 10, 10);
+        stats.onSaved(1, 40 * MS);
+        assertEquals(-1, stats.getLatencyNs(0));
+        assertFalse(stats.isDone());
+        stats.onFailed(2);
+        assertTrue(stats.isDone());
+        assertEquals(1, stats.getSavedCount());
+        assertEquals(2, stats.getFailedCount());
+        assertEquals(25.0, stats.getSustainedFps(), 0.01);
+        assertEquals(0.0, stats.getCaptureFps());
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.android.output.tests;
+
+import com.example.android.output.CaptureAdmission;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link CaptureAdmission}.
+ */
+public class CaptureAdmissionTest extends TestCase {
+
+    public void testHoldsBackPastBudget() {
+        CaptureAdmission admission = new CaptureAdmission(2);
+        assertTrue(admission.tryAcquire());
+        assertTrue(admission.tryAcquire());
+        assertFalse(admission.tryAcquire());
+        assertEquals(2, admission.getInFlight());
+        assertEquals(1, admission.getHeldBackCount());
+
+        admission.release();
+        assertTrue(admission.tryAcquire());
+        admission.release();
+        admission.release();
+        assertEquals(0, admission.getInFlight());
+        try {
+            admission.release();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    public void testAwaitSlot() throws InterruptedException {
+        final CaptureAdmission admission = new CaptureAdmission(1);
+        assertTrue(admission.awaitSlot(0));
+        assertTrue(admission.tryAcquire());
+        assertFalse(admission.awaitSlot(20));
+
+        Thread saver = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                return;
+            }
+            admission.release();
+        });
+        saver.start();
+        assertTrue(admission.awaitSlot(5000));
+        assertTrue(admission.tryAcquire());
+        saver.join();
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.android.output.tests;
+
+import com.example.android.output.RefCountedAutoCloseable;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link RefCountedAutoCloseable}.
+ */
+public class RefCountedAutoCloseableTest extends TestCase {
+
+    private static class Counter implements AutoCloseable {
+        final AtomicInteger mCloseCount = new AtomicInteger();
+
+        @Override
+        public void close() {
+            mCloseCount.incrementAndGet();
+        }
+    }
+
+    public void testClosesAfterLastRelease() {
+        Counter counter = new Counter();
+        RefCountedAutoCloseable<Counter> ref = new RefCountedAutoCloseable<>(counter);
+        assertSame(counter, ref.getAndRetain());
+        assertSame(counter, ref.getAndRetain());
+        ref.close();
+        ref.close();
+        assertEquals(0, counter.mCloseCount.get());
+        assertSame(counter, ref.get());
+
+        // The owner's own reference is the last one.
+        ref.close();
+        assertEquals(1, counter.mCloseCount.get());
+        assertNull(ref.get());
+        assertNull(ref.getAndRetain());
+        ref.close();
+        assertEquals(1, counter.mCloseCount.get());
+    }
+
+    public void testWrapsCloseFailure() {
+        RefCountedAutoCloseable<AutoCloseable> ref = new RefCountedAutoCloseable<>(() -> {
+            throw new Exception("boom");
+        });
+        try {
+            ref.close();
+            fail();
+        } catch (RuntimeException expected) {
+            assertEquals("boom", expected.getCause().getMessage());
+        }
+        assertNull(ref.get());
+    }
+
+    public void testConcurrentRetainAndRelease() throws InterruptedException {
+        for (int round = 0; round < 20; round++) {
+            final Counter counter = new Counter();
+            final RefCountedAutoCloseable<Counter> ref = new RefCountedAutoCloseable<>(counter);
+            final AtomicInteger lost = new AtomicInteger();
+            final CountDownLatch start = new CountDownLatch(1);
+            Thread[] threads = new Thread[4];
+            for (int i = 0; i < threads.length; i++) {
+                threads[i] = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int n = 0; n < 10000; n++) {
+                        if (ref.getAndRetain() == null) {
+                            return;
+                        }
+                        // A retained object must not be released under the retainer.
+                        if (ref.get() == null || counter.mCloseCount.get() != 0) {
+                            lost.incrementAndGet();
+                        }
+                        ref.close();
+                    }
+                });
+                threads[i].start();
+            }
+            start.countDown();
+            ref.close();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertEquals(0, lost.get());
+            assertEquals(1, counter.mCloseCount.get());
+            assertNull(ref.get());
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.android.output.tests;
+
+import com.example.android.output.RequestRing;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link RequestRing}.
+ */
+public class RequestRingTest extends TestCase {
+
+    public void testPutReplaces() {
+        RequestRing<String> ring = new RequestRing<>(4);
+        ring.put(10, "a", 0);
+        ring.put(11, "b", 0);
+        ring.put(10, "c", 0);
+        assertEquals(2, ring.size());
+        assertEquals("c", ring.get(10));
+        assertEquals("b", ring.get(11));
+        assertNull(ring.get(12));
+    }
+
+    public void testRemoveOutOfOrder() {
+        RequestRing<String> ring = new RequestRing<>(4);
+        for (int id = 0; id < 4; id++) {
+            ring.put(id, "r" + id, 0);
+        }
+        assertEquals("r2", ring.remove(2));
+        assertNull(ring.remove(2));
+        assertEquals("r0", ring.remove(0));
+        assertEquals(2, ring.size());
+        assertNull(ring.get(0));
+        assertEquals("r1", ring.get(1));
+        assertEquals("r3", ring.get(3));
+        ring.remove(1);
+        ring.remove(3);
+        assertEquals(0, ring.size());
+        assertNull(ring.get(3));
+    }
+
+    public void testGrowsPastCapacity() {
+        RequestRing<Integer> ring = new RequestRing<>(2);
+        for (int id = 100; id < 200; id++) {
+            ring.put(id, id, 0);
+        }
+        assertEquals(100, ring.size());
+        for (int id = 100; id < 200; id++) {
+            assertEquals(Integer.valueOf(id), ring.get(id));
+        }
+        // Slots are reused as the window slides along.
+        for (int id = 100; id < 150; id++) {
+            ring.remove(id);
+            ring.put(id + 100, id + 100, 0);
+        }
+        assertEquals(100, ring.size());
+        assertNull(ring.get(149));
+        assertEquals(Integer.valueOf(150), ring.get(150));
+        assertEquals(Integer.valueOf(249), ring.get(249));
+    }
+
+    public void testLateLowerId() {
+        RequestRing<String> ring = new RequestRing<>(4);
+        ring.put(5, "b", 0);
+        ring.put(4, "a", 0);
+        assertEquals("a", ring.get(4));
+        assertEquals("b", ring.get(5));
+        assertEquals("b", ring.remove(5));
+        assertEquals("a", ring.get(4));
+    }
+
+    public void testPollExpired() {
+        RequestRing<String> ring = new RequestRing<>(4);
+        ring.put(1, "a", 100);
+        ring.put(2, "b", 200);
+        ring.put(3, "c", 300);
+        assertNull(ring.pollExpired(149, 50));
+        // A request lost at the head no longer holds the window open.
+        assertEquals("a", ring.pollExpired(150, 50));
+        assertNull(ring.pollExpired(150, 50));
+        assertEquals(2, ring.size());
+        assertNull(ring.get(1));
+        ring.remove(2);
+        assertEquals("c", ring.pollExpired(1000, 50));
+        assertEquals(0, ring.size());
+        assertNull(ring.pollExpired(1000, 50));
+    }
+
+    public void testClear() {
+        RequestRing<String> ring = new RequestRing<>(4);
+        ring.put(1, "a", 0);
+        ring.clear();
+        assertEquals(0, ring.size());
+        assertNull(ring.get(1));
+        ring.put(7, "b", 0);
+        assertEquals("b", ring.get(7));
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.android.output.tests;
+
+import com.example.android.output.SaverExecutor;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link SaverExecutor}.
+ */
+public class SaverExecutorTest extends TestCase {
+
+    public void testRejectsWhenFull() throws InterruptedException {
+        SaverExecutor executor = new SaverExecutor(1, 2, SaverExecutor.POLICY_REJECT);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicInteger ran = new AtomicInteger();
+        executor.execute(() -> {
+            started.countDown();
+            await(release);
+            ran.incrementAndGet();
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        executor.execute(ran::incrementAndGet);
+        executor.execute(ran::incrementAndGet);
+        assertEquals(2, executor.getQueueDepth());
+        try {
+            executor.execute(ran::incrementAndGet);
+            fail();
+        } catch (RejectedExecutionException expected) {
+        }
+        assertEquals(1, executor.getRejectedCount());
+
+        release.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(3, ran.get());
+        assertEquals(3, executor.getStartedCount());
+        assertEquals(2, executor.getMaxQueueDepth());
+        assertTrue(executor.getMaxWaitNs() >= executor.getAverageWaitNs());
+        assertTrue(executor.getAverageWaitNs() > 0);
+    }
+
+    public void testBlocksWhenFull() throws InterruptedException {
+        SaverExecutor executor = new SaverExecutor(1, 1, SaverExecutor.POLICY_BLOCK);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(() -> await(release));
+        executor.execute(() -> { });
+
+        AtomicBoolean submitted = new AtomicBoolean();
+        Thread submitter = new Thread(() -> {
+            executor.execute(() -> { });
+            submitted.set(true);
+        });
+        submitter.start();
+        submitter.join(200);
+        assertFalse(submitted.get());
+
+        release.countDown();
+        submitter.join(5000);
+        assertTrue(submitted.get());
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(3, executor.getStartedCount());
+        assertEquals(0, executor.getRejectedCount());
+    }
+
+    public void testRejectsAfterShutdown() {
+        SaverExecutor executor = new SaverExecutor(2, 4, SaverExecutor.POLICY_BLOCK);
+        executor.shutdown();
+        try {
+            executor.execute(() -> { });
+            fail();
+        } catch (RejectedExecutionException expected) {
+        }
+        assertEquals(1, executor.getRejectedCount());
+        executor.resetMetrics();
+        assertEquals(0, executor.getRejectedCount());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.android.output.tests;
+
+import com.example.android.output.LongHashMap;
+import com.example.android.output.TimestampCorrelator;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests for {@link TimestampCorrelator} and the {@link LongHashMap} behind it.
+ */
+public class TimestampCorrelatorTest extends TestCase {
+
+    private static final long MS = 1000000L;
+
+    private final List<String> mEvents = new ArrayList<>();
+
+    private final TimestampCorrelator.Listener<String, String> mListener =
+            new TimestampCorrelator.Listener<String, String>() {
+                @Override
+                public void onMatched(long timestamp, String image, String result) {
+                    mEvents.add("match " + timestamp + " " + image + " " + result);
+                }
+
+                @Override
+                public void onImageOrphaned(long timestamp, String image) {
+                    mEvents.add("image " + timestamp + " " + image);
+                }
+
+                @Override
+                public void onResultOrphaned(long timestamp, String result) {
+                    mEvents.add("result " + timestamp + " " + result);
+                }
+            };
+
+    public void testMatchesOutOfOrder() {
+        TimestampCorrelator<String, String> correlator =
+                new TimestampCorrelator<>(4, 100 * MS, 100 * MS, mListener);
+        correlator.putResult(300, "r3", 0);
+        correlator.putImage(100, "i1", 0);
+        correlator.putImage(300, "i3", 0);
+        correlator.putResult(100, "r1", 0);
+        assertEquals(2, mEvents.size());
+        assertEquals("match 300 i3 r3", mEvents.get(0));
+        assertEquals("match 100 i1 r1", mEvents.get(1));
+        assertEquals(0, correlator.getPendingImageCount());
+        assertEquals(0, correlator.getPendingResultCount());
+    }
+
+    public void testDroppedFrameDoesNotShiftPairs() {
+        TimestampCorrelator<String, String> correlator =
+                new TimestampCorrelator<>(4, 100 * MS, 500 * MS, mListener);
+        // The image for 200 is dropped; matching by arrival order would pair i3 with r2.
+        correlator.putResult(100, "r1", 0);
+        correlator.putResult(200, "r2", 0);
+        correlator.putResult(300, "r3", 0);
+        correlator.putImage(100, "i1", 10 * MS);
+        correlator.putImage(300, "i3", 20 * MS);
+        assertEquals("match 100 i1 r1", mEvents.get(0));
+        assertEquals("match 300 i3 r3", mEvents.get(1));
+        assertEquals(1, correlator.getPendingResultCount());
+
+        correlator.expire(499 * MS);
+        assertEquals(2, mEvents.size());
+        correlator.expire(500 * MS);
+        assertEquals("result 200 r2", mEvents.get(2));
+        assertEquals(0, correlator.getPendingResultCount());
+    }
+
+    public void testSeparateTimeouts() {
+        TimestampCorrelator<String, String> correlator =
+                new TimestampCorrelator<>(4, 50 * MS, 200 * MS, mListener);
+        correlator.putImage(1, "i1", 0);
+        correlator.putResult(2, "r2", 0);
+        correlator.putImage(3, "i3", 100 * MS);
+        assertEquals("image 1 i1", mEvents.get(0));
+        assertEquals(1, mEvents.size());
+
+        correlator.setTimeouts(10 * MS, 10 * MS);
+        correlator.expire(110 * MS);
+        assertEquals("image 3 i3", mEvents.get(1));
+        assertEquals("result 2 r2", mEvents.get(2));
+    }
+
+    public void testNextExpiry() {
+        TimestampCorrelator<String, String> correlator =
+                new TimestampCorrelator<>(4, 50 * MS, 200 * MS, mListener);
+        assertEquals(Long.MAX_VALUE, correlator.getNextExpiryNs());
+        correlator.putResult(2, "r2", 10 * MS);
+        assertEquals(210 * MS, correlator.getNextExpiryNs());
+        correlator.putImage(1, "i1", 20 * MS);
+        assertEquals(70 * MS, correlator.getNextExpiryNs());
+
+        // The last image of a burst is orphaned by a scheduled pass, with nothing else arriving.
+        correlator.expire(correlator.getNextExpiryNs());
+        assertEquals("image 1 i1", mEvents.get(0));
+        assertEquals(210 * MS, correlator.getNextExpiryNs());
+        correlator.expire(correlator.getNextExpiryNs());
+        assertEquals("result 2 r2", mEvents.get(1));
+        assertEquals(Long.MAX_VALUE, correlator.getNextExpiryNs());
+
+        correlator.setTimeouts(Long.MAX_VALUE, Long.MAX_VALUE);
+        correlator.putImage(3, "i3", 300 * MS);
+        assertEquals(Long.MAX_VALUE, correlator.getNextExpiryNs());
+    }
+
+    public void testDuplicateTimestampReplaces() {
+        TimestampCorrelator<String, String> correlator =
+                new TimestampCorrelator<>(4, 100 * MS, 100 * MS, mListener);
+        correlator.putImage(7, "old", 0);
+        correlator.putImage(7, "new", 50 * MS);
+        assertEquals("image 7 old", mEvents.get(0));
+        // The replaced entry's deadline must not expire its replacement.
+        correlator.expire(120 * MS);
+        assertEquals(1, mEvents.size());
+        correlator.putResult(7, "r", 120 * MS);
+        assertEquals("match 7 new r", mEvents.get(1));
+    }
+
+    public void testClearOrphansEverything() {
+        TimestampCorrelator<String, String> correlator =
+                new TimestampCorrelator<>(2, 100 * MS, 100 * MS, mListener);
+        for (int i = 0; i < 10; i++) {
+            correlator.putImage(i, "i" + i, 0);
+        }
+        correlator.putResult(20, "r", 0);
+        correlator.putResult(5, "r5", 0);
+        correlator.clear();
+        assertEquals(11, mEvents.size());
+        assertEquals("match 5 i5 r5", mEvents.get(0));
+        assertEquals("image 0 i0", mEvents.get(1));
+        assertEquals("result 20 r", mEvents.get(10));
+        assertEquals(0, correlator.getPendingImageCount());
+        assertEquals(0, correlator.getPendingResultCount());
+    }
+
+    public void testLongHashMapAgainstHashMap() {
+        LongHashMap<Long> map = new LongHashMap<>(4);
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(42);
+        long base = 123456789000000L;
+        for (int i = 0; i < 20000; i++) {
+            // Keys a frame duration apart, like sensor timestamps, with some collisions.
+            long key = base + 33333333L * random.nextInt(64);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                assertEquals(expected.put(key, (long) i), map.put(key, (long) i));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (int k = 0; k < 64; k++) {
+            long key = base + 33333333L * k;
+            assertEquals(expected.get(key), map.get(key));
+        }
+        map.clear();
+        assertEquals(0, map.size());
+        assertNull(map.get(base));
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.android.output.tests;
+
+import com.example.android.output.ZslRing;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link ZslRing}.
+ */
+public class ZslRingTest extends TestCase {
+
+    private final List<String> mEvicted = new ArrayList<>();
+
+    private final ZslRing.Listener<String> mListener = (timestamp, image) ->
+            mEvicted.add(timestamp + " " + image);
+
+    /** Results are scores themselves. */
+    private final ZslRing.Scorer<Integer> mScorer = result -> result;
+
+    public void testKeepsLastFrames() {
+        ZslRing<String, Integer> ring = new ZslRing<>(3, mListener);
+        for (int t = 1; t <= 5; t++) {
+            ring.putImage(t * 100, "i" + t);
+            ring.putResult(t * 100, 0);
+        }
+        assertEquals(3, ring.size());
+        assertEquals(2, mEvicted.size());
+        assertEquals("100 i1", mEvicted.get(0));
+        assertEquals("200 i2", mEvicted.get(1));
+
+        // Equal scores: the most recent frame wins.
+        ZslRing.Frame<String, Integer> frame = ring.takeBest(mScorer, 0);
+        assertEquals(500, frame.getTimestamp());
+        assertEquals("i5", frame.getImage());
+        assertEquals(2, ring.size());
+
+        ring.clear();
+        assertEquals(0, ring.size());
+        assertEquals("300 i3", mEvicted.get(2));
+        assertEquals("400 i4", mEvicted.get(3));
+        assertNull(ring.takeBest(mScorer, 0));
+    }
+
+    public void testPicksBestCompleteFrame() {
+        ZslRing<String, Integer> ring = new ZslRing<>(4, mListener);
+        ring.putResult(10, 3);
+        ring.putImage(20, "i20");
+        ring.putResult(20, 1);
+        ring.putImage(30, "i30");
+        ring.putResult(30, 2);
+        // The best score has no image yet, and the newest frame has no result yet.
+        ring.putImage(40, "i40");
+
+        assertNull(ring.takeBest(mScorer, 3));
+        ZslRing.Frame<String, Integer> frame = ring.takeBest(mScorer, 0);
+        assertEquals("i30", frame.getImage());
+        assertEquals(Integer.valueOf(2), frame.getResult());
+        frame = ring.takeBest(mScorer, 0);
+        assertEquals("i20", frame.getImage());
+        assertNull(ring.takeBest(mScorer, 0));
+
+        // Results and images arrive in either order.
+        ring.putImage(10, "i10");
+        assertEquals("i10", ring.takeBest(mScorer, 3).getImage());
+        assertTrue(mEvicted.isEmpty());
+    }
+
+    public void testTakenSlotsAreReused() {
+        ZslRing<String, Integer> ring = new ZslRing<>(2, mListener);
+        ring.putImage(1, "a");
+        ring.putResult(1, 0);
+        assertEquals("a", ring.takeBest(mScorer, 0).getImage());
+        for (int t = 2; t <= 6; t++) {
+            ring.putImage(t, "f" + t);
+            ring.putResult(t, t);
+        }
+        assertEquals(2, ring.size());
+        assertEquals("f6", ring.takeBest(mScorer, 0).getImage());
+        assertEquals("f5", ring.takeBest(mScorer, 0).getImage());
+        // Only complete frames that were never taken are evicted.
+        assertEquals(3, mEvicted.size());
+        assertEquals("2 f2", mEvicted.get(0));
+    }
+
+    public void testReplacedImageIsEvicted() {
+        ZslRing<String, Integer> ring = new ZslRing<>(2, mListener);
+        ring.putImage(7, "old");
+        ring.putImage(7, "new");
+        assertEquals(1, ring.size());
+        assertEquals("7 old", mEvicted.get(0));
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.android.output.tests;
+
+import com.example.android.output.ZslScore;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link ZslScore}.
+ */
+public class ZslScoreTest extends TestCase {
+
+    private static final Integer AF_AUTO = 1;
+    private static final Integer AF_INACTIVE = 0;
+    private static final Integer AE_SEARCHING = 1;
+
+    public void testFocusLockedWithoutExposureFallsShort() {
+        int score = ZslScore.score(AF_AUTO, ZslScore.AF_STATE_FOCUSED_LOCKED, AE_SEARCHING,
+                ZslScore.AWB_STATE_CONVERGED);
+        assertTrue(score < ZslScore.MIN_SCORE);
+        assertTrue(ZslScore.score(AF_AUTO, ZslScore.AF_STATE_FOCUSED_LOCKED, null,
+                ZslScore.AWB_STATE_LOCKED) < ZslScore.MIN_SCORE);
+    }
+
+    public void testFocusAndExposureSettled() {
+        assertTrue(ZslScore.score(AF_AUTO, ZslScore.AF_STATE_FOCUSED_LOCKED,
+                ZslScore.AE_STATE_CONVERGED, null) >= ZslScore.MIN_SCORE);
+        assertTrue(ZslScore.score(AF_AUTO, ZslScore.AF_STATE_PASSIVE_FOCUSED,
+                ZslScore.AE_STATE_LOCKED, null) >= ZslScore.MIN_SCORE);
+        // Fixed focus is always in focus.
+        assertTrue(ZslScore.score(ZslScore.AF_MODE_OFF, AF_INACTIVE,
+                ZslScore.AE_STATE_CONVERGED, null) >= ZslScore.MIN_SCORE);
+    }
+
+    public void testExposureWithoutFocusFallsShort() {
+        assertTrue(ZslScore.score(AF_AUTO, AF_INACTIVE, ZslScore.AE_STATE_CONVERGED,
+                ZslScore.AWB_STATE_CONVERGED) < ZslScore.MIN_SCORE);
+        assertTrue(ZslScore.score(null, null, ZslScore.AE_STATE_LOCKED,
+                ZslScore.AWB_STATE_LOCKED) < ZslScore.MIN_SCORE);
+    }
+
+    public void testRanking() {
+        int locked = ZslScore.score(AF_AUTO, ZslScore.AF_STATE_FOCUSED_LOCKED,
+                ZslScore.AE_STATE_CONVERGED, null);
+        int passive = ZslScore.score(AF_AUTO, ZslScore.AF_STATE_PASSIVE_FOCUSED,
+                ZslScore.AE_STATE_CONVERGED, null);
+        int passiveWithAwb = ZslScore.score(AF_AUTO, ZslScore.AF_STATE_PASSIVE_FOCUSED,
+                ZslScore.AE_STATE_CONVERGED, ZslScore.AWB_STATE_CONVERGED);
+        assertTrue(locked > passive);
+        assertTrue(passiveWithAwb > passive);
+        assertEquals(0, ZslScore.score(null, null, null, null));
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.android.sim.tests;
+
+import com.example.android.image.YuvPlaneCopier;
+import com.example.android.output.BurstStats;
+import com.example.android.output.CaptureAdmission;
+import com.example.android.output.RequestRing;
+import com.example.android.output.SaverExecutor;
+import com.example.android.output.TimestampCorrelator;
+import com.example.android.sim.CameraSimulator;
+import com.example.android.sim.SimulatedImage;
+import com.example.android.sim.SimulatedPipeline;
+import com.example.android.sim.SimulatedResult;
+import com.example.android.trace.CaptureTracer;
+import com.example.android.trace.LogHistogram;
+import com.example.android.trace.TraceRing;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Allocation budgets for the per-frame paths of the capture pipeline, measured with
+ * {@link AllocationMeter}. The parts run on every frame must not allocate at all once warmed
+ * up; a whole simulated capture may allocate a few small objects, but nothing the size of a
+ * frame, a log line or a boxed key per request.
+ */
+public class AllocationBudgetTest extends TestCase {
+
+    private static final int ITERATIONS = 20000;
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+    private static final int MAX_IMAGES = 4;
+    private static final int WARM_UP_FRAMES = 200;
+    private static final int FRAMES = 1000;
+
+    /**
+     * What a simulated capture may allocate, across every thread. The request entry, the save
+     * task and the simulator's own events and result come to about 240 bytes; one log line
+     * built by concatenation is enough to go over.
+     */
+    private static final long PIPELINE_BUDGET_PER_FRAME = 320;
+
+    public void testPipelineStaysWithinBudget() throws InterruptedException {
+        if (!AllocationMeter.isSupported()) {
+            return;
+        }
+        SaverExecutor executor = new SaverExecutor(1, MAX_IMAGES, SaverExecutor.POLICY_BLOCK);
+        try {
+            // Saves the way the YUV fragment does, into a buffer that is reused.
+            final YuvPlaneCopier copier = new YuvPlaneCopier();
+            final byte[] packed = new byte[YuvPlaneCopier.getBufferSize(WIDTH, HEIGHT)];
+            SimulatedPipeline.FrameSaver saver = new SimulatedPipeline.FrameSaver() {
+                @Override
+                public void save(SimulatedImage image, SimulatedResult result) {
+                    copier.copy(image.getPlanes(), 0, 0, WIDTH, HEIGHT,
+                            YuvPlaneCopier.FORMAT_NV21, packed, 0);
+                }
+            };
+            CameraSimulator simulator = new CameraSimulator(CameraSimulator.FORMAT_YUV_420_888,
+                    WIDTH, HEIGHT, MAX_IMAGES).setFrameRate(30, 0.1).setSeed(1);
+            SimulatedPipeline pipeline =
+                    new SimulatedPipeline(simulator, MAX_IMAGES, executor, saver);
+            pipeline.run(WARM_UP_FRAMES, 0);
+
+            // The saver thread stays alive until the second reading, so its count is in both.
+            long start = AllocationMeter.getAllThreadsAllocatedBytes();
+            BurstStats stats = pipeline.run(FRAMES, WARM_UP_FRAMES);
+            long perFrame = (AllocationMeter.getAllThreadsAllocatedBytes() - start) / FRAMES;
+
+            assertEquals(FRAMES, stats.getSavedCount());
+            assertTrue(perFrame + " bytes per frame", perFrame <= PIPELINE_BUDGET_PER_FRAME);
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        }
+    }
+
+    public void testYuvCopyDoesNotAllocate() {
+        if (!AllocationMeter.isSupported()) {
+            return;
+        }
+        byte[] frame = new byte[YuvPlaneCopier.getBufferSize(WIDTH, HEIGHT)];
+        final YuvPlaneCopier.Plane[] planes =
+                YuvPlaneCopier.wrap(frame, 0, WIDTH, HEIGHT, YuvPlaneCopier.FORMAT_NV21);
+        final YuvPlaneCopier copier = new YuvPlaneCopier();
+        final byte[] out = new byte[frame.length];
+        assertNoAllocation(1000, new Runnable() {
+            @Override
+            public void run() {
+                copier.copy(planes, 0, 0, WIDTH, HEIGHT, YuvPlaneCopier.FORMAT_I420, out, 0);
+            }
+        });
+    }
+
+    public void testRequestMatchingDoesNotAllocate() {
+        if (!AllocationMeter.isSupported()) {
+            return;
+        }
+        final RequestRing<Object> requests = new RequestRing<>(2 * MAX_IMAGES);
+        final TimestampCorrelator<Object, Object> correlator = new TimestampCorrelator<>(
+                MAX_IMAGES, 1000000000L, 3000000000L,
+                new TimestampCorrelator.Listener<Object, Object>() {
+                    @Override
+                    public void onMatched(long timestamp, Object image, Object result) {
+                        requests.remove((int) timestamp);
+                    }
+
+                    @Override
+                    public void onImageOrphaned(long timestamp, Object image) {
+                        fail("orphaned image " + timestamp);
+                    }
+
+                    @Override
+                    public void onResultOrphaned(long timestamp, Object result) {
+                        fail("orphaned result " + timestamp);
+                    }
+                });
+        final Object request = new Object();
+        final Object image = new Object();
+        // Request ids double as timestamps, and two frames are in flight at a time.
+        assertNoAllocation(ITERATIONS, new Runnable() {
+            private int mNextId;
+
+            @Override
+            public void run() {
+                int id = mNextId++;
+                requests.put(id, request, id);
+                if (id > 0) {
+                    long timestamp = id - 1;
+                    correlator.putImage(timestamp, image, timestamp);
+                    if (requests.get((int) timestamp) != null) {
+                        correlator.putResult(timestamp, request, timestamp);
+                    }
+                }
+            }
+        });
+        assertEquals(1, requests.size());
+    }
+
+    public void testCaptureAdmissionDoesNotAllocate() {
+        if (!AllocationMeter.isSupported()) {
+            return;
+        }
+        final CaptureAdmission admission = new CaptureAdmission(MAX_IMAGES);
+        assertNoAllocation(ITERATIONS, new Runnable() {
+            @Override
+            public void run() {
+                if (admission.tryAcquire()) {
+                    admission.release();
+                }
+            }
+        });
+    }
+
+    public void testTracingDoesNotAllocate() {
+        if (!AllocationMeter.isSupported()) {
+            return;
+        }
+        final TraceRing ring = new TraceRing(1024);
+        final int event = ring.defineEvent("frame", "requestId", "timestamp");
+        final int depth = ring.defineEvent("depth", "value");
+        assertNoAllocation(ITERATIONS, new Runnable() {
+            private int mNextId;
+
+            @Override
+            public void run() {
+                int id = mNextId++;
+                ring.begin(event, id, 0);
+                ring.instant(event, id, 1);
+                ring.counter(depth, id & 7);
+                ring.end(event, id, 2);
+            }
+        });
+
+        final LogHistogram histogram = new LogHistogram();
+        assertNoAllocation(ITERATIONS, new Runnable() {
+            private long mValue = 1;
+
+            @Override
+            public void run() {
+                histogram.record(mValue);
+                mValue = mValue * 31 & 0xffffffffffL;
+            }
+        });
+
+        final CaptureTracer tracer = new CaptureTracer(16);
+        assertNoAllocation(ITERATIONS, new Runnable() {
+            private int mNextId;
+
+            @Override
+            public void run() {
+                int id = mNextId++;
+                for (int stage = CaptureTracer.STAGE_TAKE_PICTURE;
+                        stage <= CaptureTracer.STAGE_SCAN_COMPLETED; stage++) {
+                    tracer.mark(id, stage);
+                }
+            }
+        });
+    }
+
+    private static void assertNoAllocation(int iterations, Runnable operation) {
+        long perRun = AllocationMeter.measure(iterations, operation);
+        assertEquals("bytes allocated per run", 0, perRun);
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.android.sim.tests;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Counts the bytes allocated on the Java heap, per thread, using the allocation counters of
+ * HotSpot's {@code com.sun.management.ThreadMXBean}.
+ * <p/>
+ * Tests using it should pass when {@link #isSupported()} is false, as on VMs without those
+ * counters.
+ */
+public class AllocationMeter {
+
+    private static final com.sun.management.ThreadMXBean sBean = getBean();
+
+    private AllocationMeter() {
+    }
+
+    private static com.sun.management.ThreadMXBean getBean() {
+        ThreadMXBean bean;
+        try {
+            bean = ManagementFactory.getThreadMXBean();
+        } catch (LinkageError e) {
+            return null;
+        }
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+        if (!sunBean.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        sunBean.setThreadAllocatedMemoryEnabled(true);
+        return sunBean;
+    }
+
+    public static boolean isSupported() {
+        return sBean != null;
+    }
+
+    /**
+     * @return the bytes allocated so far by the calling thread.
+     */
+    public static long getThreadAllocatedBytes() {
+        return sBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * @return the bytes allocated so far by every live thread. A thread that ends takes its
+     * count with it, so keep the threads being measured alive until the last reading.
+     */
+    public static long getAllThreadsAllocatedBytes() {
+        long total = 0;
+        for (long bytes : sBean.getThreadAllocatedBytes(sBean.getAllThreadIds())) {
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Run {@code operation} {@code iterations} times to warm it up, then as many times again on
+     * the calling thread, and return the bytes it allocated per run, rounded down. The cost of
+     * the reading itself is spread over the runs, so with a few thousand runs an operation
+     * that allocates nothing measures 0.
+     */
+    public static long measure(int iterations, Runnable operation) {
+        for (int i = 0; i < iterations; i++) {
+            operation.run();
+        }
+        long start = getThreadAllocatedBytes();
+        for (int i = 0; i < iterations; i++) {
+            operation.run();
+        }
+        return (getThreadAllocatedBytes() - start) / iterations;
+    }
+}
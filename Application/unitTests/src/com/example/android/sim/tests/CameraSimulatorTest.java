@@ -0,0 +1,152 @@
+package com.example.android.sim.tests;
+
+import com.example.android.image.YuvPlaneCopier;
+import com.example.android.sim.CameraSimulator;
+import com.example.android.sim.SimulatedImage;
+import com.example.android.sim.SimulatedResult;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link CameraSimulator}.
+ */
+public class CameraSimulatorTest extends TestCase {
+
+    private static final long MS = 1000000L;
+
+    /** Records events as strings and keeps the images open. */
+    private static class Recorder implements CameraSimulator.Listener {
+        final List<String> mEvents = new ArrayList<>();
+        final List<SimulatedImage> mImages = new ArrayList<>();
+
+        @Override
+        public void onCaptureCompleted(SimulatedResult result) {
+            mEvents.add("result " + result.getRequestId() + " " + result.getSensorTimestamp());
+        }
+
+        @Override
+        public void onImageAvailable(SimulatedImage image) {
+            mEvents.add("image " + image.getFrameNumber() + " " + image.getTimestamp());
+            mImages.add(image);
+        }
+
+        @Override
+        public void onImageDropped(long timestamp, long frameNumber) {
+            mEvents.add("dropped " + frameNumber + " " + timestamp);
+        }
+    }
+
+    public void testFrameCadenceAndLatencies() throws InterruptedException {
+        CameraSimulator simulator = new CameraSimulator(CameraSimulator.FORMAT_YUV_420_888,
+                64, 48, 4).setFrameRate(25, 0).setLatencies(5 * MS, 30 * MS, 10 * MS, 10 * MS);
+        Recorder recorder = new Recorder();
+        long start = simulator.getNowNs();
+        simulator.submit(10);
+        simulator.submit(11);
+        simulator.runUntilIdle(recorder);
+
+        // Frames 40 ms apart; each result 15 ms and each image 35 ms after its frame starts.
+        long second = start + 40 * MS;
+        assertEquals("result 10 " + start, recorder.mEvents.get(0));
+        assertEquals("image 0 " + start, recorder.mEvents.get(1));
+        assertEquals("result 11 " + second, recorder.mEvents.get(2));
+        assertEquals("image 1 " + second, recorder.mEvents.get(3));
+        assertEquals(second + 35 * MS, simulator.getNowNs());
+
+        // A late request still waits for the next frame boundary.
+        simulator.submit(12);
+        simulator.runUntilIdle(recorder);
+        assertEquals("result 12 " + (second + 40 * MS), recorder.mEvents.get(4));
+    }
+
+    public void testSameSeedSameRun() throws InterruptedException {
+        assertEquals(record(7), record(7));
+        assertFalse(record(7).equals(record(8)));
+    }
+
+    public void testDropsImagesWhenBuffersAreHeld() throws InterruptedException {
+        CameraSimulator simulator = new CameraSimulator(CameraSimulator.FORMAT_YUV_420_888,
+                64, 48, 2);
+        Recorder recorder = new Recorder();
+        long start = simulator.getNowNs();
+        for (int i = 0; i < 3; i++) {
+            simulator.submit(i);
+        }
+        simulator.runUntilIdle(recorder);
+        assertEquals(1, simulator.getDroppedCount());
+        assertEquals("dropped 2 " + (start + 2 * 33333333L), recorder.mEvents.get(4));
+        assertEquals("result 2 " + (start + 2 * 33333333L), recorder.mEvents.get(5));
+        assertEquals(0, simulator.getFreeImageCount());
+
+        recorder.mImages.get(0).close();
+        recorder.mImages.get(0).close();
+        assertEquals(1, simulator.getFreeImageCount());
+        try {
+            recorder.mImages.get(0).getPlanes();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    public void testYuvStrides() throws InterruptedException {
+        CameraSimulator simulator = new CameraSimulator(CameraSimulator.FORMAT_YUV_420_888,
+                100, 20, 1).setYuvLayout(64, 2);
+        Recorder recorder = new Recorder();
+        simulator.submit(0);
+        simulator.runUntilIdle(recorder);
+        YuvPlaneCopier.Plane[] planes = recorder.mImages.get(0).getPlanes();
+        assertEquals(3, planes.length);
+        assertEquals(128, planes[0].getRowStride());
+        assertEquals(1, planes[0].getPixelStride());
+        assertEquals(128 * 19 + 100, planes[0].getBuffer().remaining());
+        assertEquals(2, planes[1].getPixelStride());
+        assertEquals(128, planes[2].getRowStride());
+        // Interleaved chroma: V comes one byte before U in the same memory.
+        assertEquals(planes[1].getBuffer().get(0), planes[2].getBuffer().get(1));
+
+        // Every pixel copies out, and the frame number is in the first row.
+        byte[] packed = new YuvPlaneCopier().copy(planes, 0, 0, 100, 20,
+                YuvPlaneCopier.FORMAT_I420);
+        assertEquals(YuvPlaneCopier.getBufferSize(100, 20), packed.length);
+        assertEquals(0, packed[0]);
+
+        simulator = new CameraSimulator(CameraSimulator.FORMAT_YUV_420_888, 100, 20, 1)
+                .setYuvLayout(32, 1);
+        recorder = new Recorder();
+        simulator.submit(0);
+        simulator.runUntilIdle(recorder);
+        planes = recorder.mImages.get(0).getPlanes();
+        assertEquals(1, planes[1].getPixelStride());
+        assertEquals(64, planes[1].getRowStride());
+    }
+
+    public void testJpegFrames() throws InterruptedException {
+        CameraSimulator simulator = new CameraSimulator(CameraSimulator.FORMAT_JPEG, 64, 32, 1);
+        Recorder recorder = new Recorder();
+        simulator.submit(0);
+        simulator.runUntilIdle(recorder);
+        SimulatedImage image = recorder.mImages.get(0);
+        assertEquals(CameraSimulator.FORMAT_JPEG, image.getFormat());
+        YuvPlaneCopier.Plane[] planes = image.getPlanes();
+        assertEquals(1, planes.length);
+        assertEquals(0, planes[0].getRowStride());
+        assertEquals(0xFF, planes[0].getBuffer().get(0) & 0xFF);
+        assertEquals(0xD8, planes[0].getBuffer().get(1) & 0xFF);
+        int end = planes[0].getBuffer().limit();
+        assertEquals(0xD9, planes[0].getBuffer().get(end - 1) & 0xFF);
+    }
+
+    private static List<String> record(long seed) throws InterruptedException {
+        CameraSimulator simulator = new CameraSimulator(CameraSimulator.FORMAT_YUV_420_888,
+                32, 16, 8).setFrameRate(30, 0.2).setSeed(seed);
+        Recorder recorder = new Recorder();
+        for (int i = 0; i < 8; i++) {
+            simulator.submit(i);
+        }
+        simulator.runUntilIdle(recorder);
+        return recorder.mEvents;
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.android.sim.tests;
+
+import com.example.android.image.YuvPlaneCopier;
+import com.example.android.output.BurstStats;
+import com.example.android.output.SaverExecutor;
+import com.example.android.sim.CameraSimulator;
+import com.example.android.sim.SimulatedImage;
+import com.example.android.sim.SimulatedPipeline;
+import com.example.android.sim.SimulatedResult;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link SimulatedPipeline}.
+ */
+public class SimulatedPipelineTest extends TestCase {
+
+    private SaverExecutor mExecutor;
+
+    @Override
+    protected void setUp() {
+        mExecutor = new SaverExecutor(2, 4, SaverExecutor.POLICY_BLOCK);
+    }
+
+    @Override
+    protected void tearDown() throws InterruptedException {
+        mExecutor.shutdown();
+        assertTrue(mExecutor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    public void testSavesEveryFrame() throws InterruptedException {
+        CameraSimulator simulator = new CameraSimulator(CameraSimulator.FORMAT_YUV_420_888,
+                64, 48, 3).setFrameRate(30, 0.1).setSeed(1);
+        final Set<Integer> saved = Collections.synchronizedSet(new HashSet<Integer>());
+        SimulatedPipeline pipeline = new SimulatedPipeline(simulator, 3, mExecutor,
+                new SimulatedPipeline.FrameSaver() {
+                    @Override
+                    public void save(SimulatedImage image, SimulatedResult result) {
+                        assertEquals(result.getSensorTimestamp(), image.getTimestamp());
+                        byte[] packed = new YuvPlaneCopier().copy(image.getPlanes(), 0, 0,
+                                64, 48, YuvPlaneCopier.FORMAT_NV21);
+                        // The frame number stamped into the first luma bytes.
+                        assertEquals((byte) image.getFrameNumber(), packed[0]);
+                        saved.add(result.getRequestId());
+                    }
+                });
+        BurstStats stats = pipeline.run(20, 100);
+
+        assertEquals(20, stats.getSavedCount());
+        assertEquals(0, stats.getFailedCount());
+        assertEquals(20, saved.size());
+        assertTrue(saved.contains(100) && saved.contains(119));
+        // The capture budget kept every frame within the reader's buffers.
+        assertEquals(0, simulator.getDroppedCount());
+        assertEquals(3, simulator.getFreeImageCount());
+        assertEquals(0, pipeline.getAdmission().getInFlight());
+        // Never faster than the sensor; slower whenever the budget held a request back.
+        double fps = stats.getCaptureFps();
+        assertTrue(String.valueOf(fps), fps > 0 && fps < 30 / 0.9);
+    }
+
+    public void testFailedSavesAreCounted() throws InterruptedException {
+        CameraSimulator simulator = new CameraSimulator(CameraSimulator.FORMAT_JPEG, 32, 16, 2);
+        SimulatedPipeline pipeline = new SimulatedPipeline(simulator, 2, mExecutor,
+                new SimulatedPipeline.FrameSaver() {
+                    @Override
+                    public void save(SimulatedImage image, SimulatedResult result)
+                            throws IOException {
+                        if (result.getRequestId() % 2 == 0) {
+                            throw new IOException("disk full");
+                        }
+                    }
+                });
+        BurstStats stats = pipeline.run(6, 0);
+        assertEquals(3, stats.getSavedCount());
+        assertEquals(3, stats.getFailedCount());
+        assertEquals(3, pipeline.getSaveFailureCount());
+        assertEquals(2, simulator.getFreeImageCount());
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.android.trace.tests;
+
+import com.example.android.trace.CaptureTracer;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link CaptureTracer}.
+ */
+public class CaptureTracerTest extends TestCase {
+
+    private static final long MS = 1000000L;
+
+    private long mNow;
+    private final CaptureTracer.Clock mClock = () -> mNow;
+
+    public void testChargesEachStageSinceThePreviousOne() {
+        CaptureTracer tracer = new CaptureTracer(4, mClock);
+        mark(tracer, 7, CaptureTracer.STAGE_TAKE_PICTURE, 0);
+        mark(tracer, 7, CaptureTracer.STAGE_AF_LOCKED, 300);
+        // The image beats the capture result.
+        mark(tracer, 7, CaptureTracer.STAGE_IMAGE_AVAILABLE, 350);
+        mark(tracer, 7, CaptureTracer.STAGE_CAPTURE_COMPLETED, 360);
+        mark(tracer, 7, CaptureTracer.STAGE_FILE_WRITTEN, 400);
+        mark(tracer, 7, CaptureTracer.STAGE_SCAN_COMPLETED, 500);
+
+        assertEquals(300 * MS, tracer.getHistogram(CaptureTracer.STAGE_AF_LOCKED).getMax());
+        assertEquals(60 * MS, tracer.getHistogram(CaptureTracer.STAGE_CAPTURE_COMPLETED).getMax());
+        assertEquals(50 * MS, tracer.getHistogram(CaptureTracer.STAGE_IMAGE_AVAILABLE).getMax());
+        assertEquals(50 * MS, tracer.getHistogram(CaptureTracer.STAGE_FILE_WRITTEN).getMax());
+        assertEquals(100 * MS, tracer.getHistogram(CaptureTracer.STAGE_SCAN_COMPLETED).getMax());
+        assertEquals(500 * MS, tracer.getHistogram(CaptureTracer.STAGE_TOTAL).getMax());
+
+        // The request is finished; late or repeated marks are ignored.
+        mark(tracer, 7, CaptureTracer.STAGE_SCAN_COMPLETED, 900);
+        assertEquals(1, tracer.getHistogram(CaptureTracer.STAGE_TOTAL).getCount());
+        assertTrue(tracer.toString().contains("total            n=1 p50=500.0 ms"));
+    }
+
+    public void testIgnoresUnknownAndReusedRequests() {
+        CaptureTracer tracer = new CaptureTracer(2, mClock);
+        mark(tracer, 0, CaptureTracer.STAGE_AF_LOCKED, 10);
+        assertEquals(0, tracer.getHistogram(CaptureTracer.STAGE_AF_LOCKED).getCount());
+
+        mark(tracer, 1, CaptureTracer.STAGE_TAKE_PICTURE, 0);
+        mark(tracer, 2, CaptureTracer.STAGE_TAKE_PICTURE, 10);
+        // Request 3 took over the slot of request 1.
+        mark(tracer, 3, CaptureTracer.STAGE_TAKE_PICTURE, 20);
+        mark(tracer, 1, CaptureTracer.STAGE_AF_LOCKED, 30);
+        mark(tracer, 3, CaptureTracer.STAGE_AF_LOCKED, 40);
+        mark(tracer, 2, CaptureTracer.STAGE_FILE_WRITTEN, 50);
+        assertEquals(1, tracer.getHistogram(CaptureTracer.STAGE_AF_LOCKED).getCount());
+        assertEquals(20 * MS, tracer.getHistogram(CaptureTracer.STAGE_AF_LOCKED).getMax());
+        // Skipped stages are charged to the next one reached.
+        assertEquals(40 * MS, tracer.getHistogram(CaptureTracer.STAGE_FILE_WRITTEN).getMax());
+
+        tracer.reset();
+        mark(tracer, 2, CaptureTracer.STAGE_SCAN_COMPLETED, 60);
+        assertEquals(0, tracer.getHistogram(CaptureTracer.STAGE_TOTAL).getCount());
+    }
+
+    private void mark(CaptureTracer tracer, int requestId, int stage, long ms) {
+        mNow = ms * MS;
+        tracer.mark(requestId, stage);
+    }
+}
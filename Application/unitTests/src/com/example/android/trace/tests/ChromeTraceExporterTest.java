@@ -0,0 +1,50 @@
+package com.example.android.trace.tests;
+
+import com.example.android.trace.ChromeTraceExporter;
+import com.example.android.trace.TraceRing;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+/**
+ * Tests for {@link ChromeTraceExporter}.
+ */
+public class ChromeTraceExporterTest extends TestCase {
+
+    public void testWritesTraceEvents() throws IOException {
+        TraceRing ring = new TraceRing(8);
+        int save = ring.defineEvent("save \"jpeg\"", "requestId");
+        int depth = ring.defineEvent("queueDepth", "depth");
+        int tick = ring.defineEvent("tick");
+        ring.begin(save, 3, 0);
+        ring.counter(depth, 2);
+        ring.end(save, 3, 0);
+        ring.instant(tick, 0, 0);
+
+        StringWriter out = new StringWriter();
+        ChromeTraceExporter.write(ring, out);
+        String json = out.toString();
+        long tid = Thread.currentThread().getId();
+
+        assertTrue(json, json.startsWith("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n"));
+        assertTrue(json, json.endsWith("\n]}\n"));
+        String[] lines = json.split("\n");
+        assertEquals(6, lines.length);
+        assertTrue(lines[1], lines[1].matches("\\{\"name\":\"save \\\\\"jpeg\\\\\"\",\"ph\":\"B\","
+                + "\"ts\":\\d+\\.\\d{3},\"pid\":0,\"tid\":" + tid
+                + ",\"args\":\\{\"requestId\":3}},"));
+        assertTrue(lines[2], lines[2].contains("\"ph\":\"C\"")
+                && lines[2].endsWith("\"args\":{\"depth\":2}},"));
+        assertTrue(lines[3], lines[3].contains("\"ph\":\"E\""));
+        assertTrue(lines[4], lines[4].contains("\"ph\":\"i\"")
+                && lines[4].endsWith(",\"s\":\"t\",\"args\":{}}"));
+    }
+
+    public void testEmptyRing() throws IOException {
+        StringWriter out = new StringWriter();
+        ChromeTraceExporter.write(new TraceRing(4), out);
+        assertEquals("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n]}\n", out.toString());
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.android.trace.tests;
+
+import com.example.android.trace.LogHistogram;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link LogHistogram}.
+ */
+public class LogHistogramTest extends TestCase {
+
+    public void testEmpty() {
+        LogHistogram histogram = new LogHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(-1, histogram.getMax());
+        assertEquals(-1, histogram.getValueAtPercentile(50));
+    }
+
+    public void testSmallValuesAreExact() {
+        LogHistogram histogram = new LogHistogram();
+        for (int v = 0; v < 10; v++) {
+            histogram.record(v);
+        }
+        assertEquals(10, histogram.getCount());
+        assertEquals(4, histogram.getValueAtPercentile(50));
+        assertEquals(9, histogram.getValueAtPercentile(99));
+        assertEquals(0, histogram.getValueAtPercentile(0));
+    }
+
+    public void testRelativeError() {
+        LogHistogram histogram = new LogHistogram();
+        for (long v = 1; v <= 1000; v++) {
+            // 1 to 1000 ms.
+            histogram.record(v * 1000000);
+        }
+        assertEquals(1000000000L, histogram.getMax());
+        assertWithin(500000000L, histogram.getValueAtPercentile(50));
+        assertWithin(990000000L, histogram.getValueAtPercentile(99));
+        assertEquals(1000000000L, histogram.getValueAtPercentile(100));
+    }
+
+    public void testExtremes() {
+        LogHistogram histogram = new LogHistogram();
+        histogram.record(Long.MAX_VALUE);
+        histogram.record(Long.MAX_VALUE - 1);
+        assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(99));
+        try {
+            histogram.record(-1);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(-1, histogram.getMax());
+    }
+
+    public void testConcurrentRecords() throws InterruptedException {
+        final LogHistogram histogram = new LogHistogram();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final int base = i;
+            threads[i] = new Thread(() -> {
+                for (int n = 0; n < 10000; n++) {
+                    histogram.record(base * 10000 + n);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, histogram.getCount());
+        assertEquals(39999, histogram.getMax());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        // One sub-bucket of sixteen per power of two.
+        assertTrue(expected + " vs " + actual, Math.abs(actual - expected) <= expected / 16);
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.android.trace.tests;
+
+import com.example.android.trace.TraceRing;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+
+/**
+ * Tests for {@link TraceRing}.
+ */
+public class TraceRingTest extends TestCase {
+
+    public void testRecordsEvents() {
+        TraceRing ring = new TraceRing(8);
+        int queue = ring.defineEvent("queue", "requestId", "format");
+        int save = ring.defineEvent("save", "requestId");
+        assertEquals("save", ring.getEventNames(save)[0]);
+        assertEquals(2, ring.getEventNames(save).length);
+
+        ring.instant(queue, 7, 256);
+        ring.begin(save, 7, 0);
+        ring.end(save, 7, 0);
+        ring.counter(queue, 3);
+
+        List<TraceRing.Event> events = ring.snapshot();
+        assertEquals(4, events.size());
+        TraceRing.Event event = events.get(0);
+        assertEquals(queue, event.getId());
+        assertEquals(TraceRing.PHASE_INSTANT, event.getPhase());
+        assertEquals(7, event.getArg0());
+        assertEquals(256, event.getArg1());
+        assertEquals((int) Thread.currentThread().getId(), event.getThreadId());
+        assertEquals(TraceRing.PHASE_BEGIN, events.get(1).getPhase());
+        assertEquals(TraceRing.PHASE_END, events.get(2).getPhase());
+        assertEquals(TraceRing.PHASE_COUNTER, events.get(3).getPhase());
+        assertEquals(3, events.get(3).getArg0());
+        assertTrue(events.get(3).getTimestamp() >= event.getTimestamp());
+    }
+
+    public void testKeepsNewestEvents() {
+        TraceRing ring = new TraceRing(5);
+        assertEquals(8, ring.getCapacity());
+        int id = ring.defineEvent("tick", "n");
+        for (int n = 0; n < 20; n++) {
+            ring.instant(id, n, 0);
+        }
+        List<TraceRing.Event> events = ring.snapshot();
+        assertEquals(8, events.size());
+        for (int i = 0; i < 8; i++) {
+            assertEquals(12 + i, events.get(i).getArg0());
+        }
+
+        ring.clear();
+        assertTrue(ring.snapshot().isEmpty());
+        ring.setEnabled(false);
+        ring.instant(id, 1, 0);
+        assertTrue(ring.snapshot().isEmpty());
+        ring.setEnabled(true);
+        ring.instant(id, 2, 0);
+        assertEquals(1, ring.snapshot().size());
+    }
+
+    public void testConcurrentWriters() throws InterruptedException {
+        final TraceRing ring = new TraceRing(1 << 16);
+        final int id = ring.defineEvent("write", "thread", "n");
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final int thread = i;
+            threads[i] = new Thread(() -> {
+                for (int n = 0; n < 10000; n++) {
+                    ring.instant(id, thread, n);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        List<TraceRing.Event> events = ring.snapshot();
+        assertEquals(40000, events.size());
+        // Every writer's events are whole and in its own order.
+        int[] next = new int[threads.length];
+        for (TraceRing.Event event : events) {
+            int thread = (int) event.getArg0();
+            assertEquals(next[thread]++, event.getArg1());
+        }
+    }
+
+    public void testRejectsTooManyArguments() {
+        try {
+            new TraceRing(4).defineEvent("e", "a", "b", "c");
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
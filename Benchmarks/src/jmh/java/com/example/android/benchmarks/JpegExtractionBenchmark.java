@@ -0,0 +1,91 @@
+package com.example.android.benchmarks;
+
+import com.example.android.sim.CameraSimulator;
+import com.example.android.sim.SimulatedImage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gets the bytes of a JPEG image out of its plane, the two ways the app does it: copied into a
+ * heap array as {@code OutputSurface.getJpegBytes} does, or written from the plane to the file
+ * channel as {@code ImageSaver.ImageDataWrapper.writeJpeg} does.
+ * <p/>
+ * The plane is a direct buffer holding a real JPEG from a {@link CameraSimulator}. The file is
+ * rewritten in place, so the writes mostly measure the copy into the page cache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class JpegExtractionBenchmark {
+
+    // Without the m prefix, as it is what -p takes on the command line.
+    @Param({"640x480", "1920x1080", "4032x3024"})
+    public String size;
+
+    private SimulatedImage mImage;
+    private ByteBuffer mPlane;
+    private File mFile;
+    private RandomAccessFile mOutput;
+    private FileChannel mChannel;
+
+    @Setup
+    public void setUp() throws IOException, InterruptedException {
+        int separator = size.indexOf('x');
+        int width = Integer.parseInt(size.substring(0, separator));
+        int height = Integer.parseInt(size.substring(separator + 1));
+        mImage = SimulatedFrames.capture(
+                new CameraSimulator(CameraSimulator.FORMAT_JPEG, width, height, 1));
+        mPlane = mImage.getPlanes()[0].getBuffer();
+        mFile = File.createTempFile("jpeg", ".jpg");
+        mOutput = new RandomAccessFile(mFile, "rw");
+        mChannel = mOutput.getChannel();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mOutput.close();
+        mFile.delete();
+        mImage.close();
+    }
+
+    @Benchmark
+    public byte[] copyToArray() {
+        ByteBuffer buffer = mPlane.duplicate();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /** The copy and then a write of the array, as saving from {@code getJpegBytes} costs. */
+    @Benchmark
+    public long copyAndWrite() throws IOException {
+        mOutput.seek(0);
+        mOutput.write(copyToArray());
+        return mOutput.getFilePointer();
+    }
+
+    @Benchmark
+    public long writeFromPlane() throws IOException {
+        ByteBuffer data = mPlane.duplicate();
+        mChannel.position(0);
+        while (data.hasRemaining()) {
+            mChannel.write(data);
+        }
+        return mChannel.position();
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.android.benchmarks;
+
+import com.example.android.camera2basic.MediaFilenames;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Names a saved image the way {@code StorageUtils.createMediaFilename} does for every capture,
+ * and for every retry while it looks for an unused name.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class MediaFilenameBenchmark {
+
+    private final Date mDate = new Date(1483326245000L);
+
+    @Benchmark
+    public String localTime() {
+        return MediaFilenames.create("IMG_", "", 0, ".jpg", mDate, false);
+    }
+
+    @Benchmark
+    public String zuluTime() {
+        return MediaFilenames.create("IMG_", "", 0, ".jpg", mDate, true);
+    }
+
+    /** A name with a burst suffix and an index, as the retries for a taken name produce. */
+    @Benchmark
+    public String indexed() {
+        return MediaFilenames.create("IMG_", "_BURST", 3, ".jpg", mDate, false);
+    }
+}
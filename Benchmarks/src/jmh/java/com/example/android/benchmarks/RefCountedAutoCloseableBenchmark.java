@@ -0,0 +1,100 @@
+package com.example.android.benchmarks;
+
+import com.example.android.output.RefCountedAutoCloseable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the lock-free {@link RefCountedAutoCloseable} with the monitor based class it
+ * replaced, under the access pattern of an ImageReader: one thread fetching the reader for every
+ * image while saver threads retain and release it.
+ * <p/>
+ * The {@code *Reader} and {@code *Saver} methods of a group run concurrently on one shared
+ * instance; the {@code uncontended*} methods show the cost of a retain and release pair alone.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RefCountedAutoCloseableBenchmark {
+
+    private static final AutoCloseable RESOURCE = () -> { };
+
+    @State(Scope.Group)
+    public static class LockFree {
+        // The benchmark never drops the owner's reference, so the resource stays open.
+        final RefCountedAutoCloseable<AutoCloseable> mRef =
+                new RefCountedAutoCloseable<>(RESOURCE);
+    }
+
+    @State(Scope.Group)
+    public static class Synchronized {
+        final SynchronizedRefCountedAutoCloseable<AutoCloseable> mRef =
+                new SynchronizedRefCountedAutoCloseable<>(RESOURCE);
+    }
+
+    @State(Scope.Thread)
+    public static class LockFreeLocal {
+        final RefCountedAutoCloseable<AutoCloseable> mRef =
+                new RefCountedAutoCloseable<>(RESOURCE);
+    }
+
+    @State(Scope.Thread)
+    public static class SynchronizedLocal {
+        final SynchronizedRefCountedAutoCloseable<AutoCloseable> mRef =
+                new SynchronizedRefCountedAutoCloseable<>(RESOURCE);
+    }
+
+    @Benchmark
+    @Group("lockFree")
+    @GroupThreads(1)
+    public Object lockFreeReader(LockFree state) {
+        return state.mRef.get();
+    }
+
+    @Benchmark
+    @Group("lockFree")
+    @GroupThreads(3)
+    public Object lockFreeSaver(LockFree state) {
+        Object object = state.mRef.getAndRetain();
+        state.mRef.close();
+        return object;
+    }
+
+    @Benchmark
+    @Group("synchronized")
+    @GroupThreads(1)
+    public Object synchronizedReader(Synchronized state) {
+        return state.mRef.get();
+    }
+
+    @Benchmark
+    @Group("synchronized")
+    @GroupThreads(3)
+    public Object synchronizedSaver(Synchronized state) {
+        Object object = state.mRef.getAndRetain();
+        state.mRef.close();
+        return object;
+    }
+
+    @Benchmark
+    public Object uncontendedLockFree(LockFreeLocal state) {
+        Object object = state.mRef.getAndRetain();
+        state.mRef.close();
+        return object;
+    }
+
+    @Benchmark
+    public Object uncontendedSynchronized(SynchronizedLocal state) {
+        Object object = state.mRef.getAndRetain();
+        state.mRef.close();
+        return object;
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.android.benchmarks;
+
+import com.example.android.output.RequestRing;
+import com.example.android.output.TimestampCorrelator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matches requests, results and images the way an {@code OutputSurface} reader does: each
+ * request waits in a {@link RequestRing} until its result comes, and results and images are
+ * paired by sensor timestamp in a {@link TimestampCorrelator}, after which the request is
+ * removed.
+ * <p/>
+ * The score is the time per frame. {@code lag} is how many more requests are queued before a
+ * frame's result and image arrive, so {@code lag + 1} requests are in flight.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class RequestMatchingBenchmark
+        implements TimestampCorrelator.Listener<Object, RequestMatchingBenchmark.Request> {
+
+    private static final int FRAMES = 1024;
+    private static final long FRAME_DURATION_NS = 33333333L;
+    // The reader's timeouts; never reached, but expiry is checked on every event.
+    private static final long IMAGE_TIMEOUT_NS = 1000000000L;
+    private static final long RESULT_TIMEOUT_NS = 3000000000L;
+    private static final Object IMAGE = new Object();
+
+    static class Request {
+        final int mRequestId;
+
+        Request(int requestId) {
+            mRequestId = requestId;
+        }
+    }
+
+    // Without the m prefix, as these are what -p takes on the command line.
+    @Param({"0", "4", "16"})
+    public int lag;
+
+    /** Whether a frame's image arrives before its result, as it often does for YUV. */
+    @Param({"false", "true"})
+    public boolean imageFirst;
+
+    private RequestRing<Request> mRequests;
+    private TimestampCorrelator<Object, Request> mCorrelator;
+    private Request[] mPool;
+    private int mMatched;
+
+    @Setup
+    public void setUp() {
+        mRequests = new RequestRing<>(2 * (lag + 1));
+        mCorrelator = new TimestampCorrelator<>(lag + 1, IMAGE_TIMEOUT_NS,
+                RESULT_TIMEOUT_NS, this);
+        // Allocated up front so the score is the matching alone.
+        mPool = new Request[FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            mPool[i] = new Request(i);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public int match() {
+        // Ids and timestamps start over every time; both structures are empty in between.
+        mMatched = 0;
+        for (int i = 0; i < FRAMES + lag; i++) {
+            if (i < FRAMES) {
+                mRequests.put(i, mPool[i], i * FRAME_DURATION_NS);
+            }
+            int frame = i - lag;
+            if (frame >= 0) {
+                long timestamp = frame * FRAME_DURATION_NS;
+                if (imageFirst) {
+                    mCorrelator.putImage(timestamp, IMAGE, timestamp);
+                    onCaptureCompleted(frame, timestamp);
+                } else {
+                    onCaptureCompleted(frame, timestamp);
+                    mCorrelator.putImage(timestamp, IMAGE, timestamp);
+                }
+            }
+        }
+        return mMatched;
+    }
+
+    private void onCaptureCompleted(int requestId, long timestamp) {
+        Request request = mRequests.get(requestId);
+        if (request != null) {
+            mCorrelator.putResult(timestamp, request, timestamp);
+        }
+    }
+
+    @Override
+    public void onMatched(long timestamp, Object image, Request request) {
+        mRequests.remove(request.mRequestId);
+        mMatched++;
+    }
+
+    @Override
+    public void onImageOrphaned(long timestamp, Object image) {
+        throw new AssertionError("orphaned image " + timestamp);
+    }
+
+    @Override
+    public void onResultOrphaned(long timestamp, Request request) {
+        throw new AssertionError("orphaned request " + request.mRequestId);
+    }
+}
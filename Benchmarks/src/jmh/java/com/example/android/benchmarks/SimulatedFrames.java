@@ -0,0 +1,42 @@
+package com.example.android.benchmarks;
+
+import com.example.android.sim.CameraSimulator;
+import com.example.android.sim.SimulatedImage;
+import com.example.android.sim.SimulatedResult;
+
+/**
+ * Takes single frames from a {@link CameraSimulator}, for benchmarks that need the planes of a
+ * real image layout rather than a packed array.
+ */
+final class SimulatedFrames {
+
+    private SimulatedFrames() {
+    }
+
+    /**
+     * Capture one frame and return its image, which stays open until the caller closes it.
+     */
+    static SimulatedImage capture(CameraSimulator simulator) throws InterruptedException {
+        final SimulatedImage[] image = new SimulatedImage[1];
+        CameraSimulator.Listener listener = new CameraSimulator.Listener() {
+            @Override
+            public void onCaptureCompleted(SimulatedResult result) {
+            }
+
+            @Override
+            public void onImageAvailable(SimulatedImage available) {
+                image[0] = available;
+            }
+
+            @Override
+            public void onImageDropped(long timestamp, long frameNumber) {
+            }
+        };
+        simulator.submit(0);
+        simulator.runUntilIdle(listener);
+        if (image[0] == null) {
+            throw new IllegalStateException("the simulator dropped the frame");
+        }
+        return image[0];
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.android.benchmarks;
+
+import com.example.android.image.YuvPlaneCopier;
+import com.example.android.sim.CameraSimulator;
+import com.example.android.sim.SimulatedImage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copies a full YUV_420_888 frame out of its planes into packed NV21, as the YUV fragment does
+ * for every saved image.
+ * <p/>
+ * The planes come from a {@link CameraSimulator}, so their strides are those of a camera
+ * buffer: rows padded to {@code rowAlignment} bytes, and chroma either planar or interleaved
+ * with a pixel stride of 2. Interleaved chroma hits the fast path of
+ * {@link YuvPlaneCopier}; planar chroma has to be interleaved sample by sample.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class YuvExtractionBenchmark {
+
+    // Parameters go without the m prefix, as their names are what -p takes on the command line.
+    @Param({"640x480", "1920x1080", "4032x3024"})
+    public String size;
+
+    @Param({"1", "64"})
+    public int rowAlignment;
+
+    @Param({"1", "2"})
+    public int chromaPixelStride;
+
+    private SimulatedImage mImage;
+    private YuvPlaneCopier.Plane[] mPlanes;
+    private int mWidth;
+    private int mHeight;
+    private YuvPlaneCopier mSerialCopier;
+    private YuvPlaneCopier mParallelCopier;
+    private byte[] mArray;
+    private ByteBuffer mDirect;
+
+    @Setup
+    public void setUp() throws InterruptedException {
+        int separator = size.indexOf('x');
+        mWidth = Integer.parseInt(size.substring(0, separator));
+        mHeight = Integer.parseInt(size.substring(separator + 1));
+        CameraSimulator simulator = new CameraSimulator(CameraSimulator.FORMAT_YUV_420_888,
+                mWidth, mHeight, 1).setYuvLayout(rowAlignment, chromaPixelStride);
+        mImage = SimulatedFrames.capture(simulator);
+        mPlanes = mImage.getPlanes();
+
+        mSerialCopier = new YuvPlaneCopier();
+        mParallelCopier = new YuvPlaneCopier();
+        mParallelCopier.setForkJoinPool(ForkJoinPool.commonPool());
+        mParallelCopier.setParallelThreshold(0);
+        int size = YuvPlaneCopier.getBufferSize(mWidth, mHeight);
+        mArray = new byte[size];
+        mDirect = ByteBuffer.allocateDirect(size);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mImage.close();
+    }
+
+    /** A new array for every frame, as {@code YuvPlaneCopier.copy} without an output gives. */
+    @Benchmark
+    public byte[] copyToNewArray() {
+        return mSerialCopier.copy(mPlanes, 0, 0, mWidth, mHeight, YuvPlaneCopier.FORMAT_NV21);
+    }
+
+    @Benchmark
+    public byte[] copyToArray() {
+        mSerialCopier.copy(mPlanes, 0, 0, mWidth, mHeight, YuvPlaneCopier.FORMAT_NV21, mArray, 0);
+        return mArray;
+    }
+
+    @Benchmark
+    public ByteBuffer copyToDirectBuffer() {
+        mDirect.clear();
+        mSerialCopier.copy(mPlanes, 0, 0, mWidth, mHeight, YuvPlaneCopier.FORMAT_NV21, mDirect);
+        return mDirect;
+    }
+
+    /** Striped across the common pool whatever the size, to show where forking pays off. */
+    @Benchmark
+    public byte[] copyToArrayParallel() {
+        mParallelCopier.copy(mPlanes, 0, 0, mWidth, mHeight, YuvPlaneCopier.FORMAT_NV21, mArray,
+                0);
+        return mArray;
+    }
+}